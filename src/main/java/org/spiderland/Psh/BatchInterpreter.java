@@ -0,0 +1,867 @@
+package org.spiderland.Psh;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Executes a Push program on many inputs at once.
+ * <p>
+ * Each input runs in a lane. The integer, float and boolean stacks hold one
+ * value per lane in every slot, so an instruction such as float.+ is
+ * dispatched once and then applied to all lanes in a tight loop. The exec,
+ * code and name stacks are shared by the lanes, which therefore follow the
+ * same path through the program. When an instruction would send the lanes
+ * down different paths, such as exec.if on a boolean which differs between
+ * lanes, the lanes are split into groups that agree, and each group carries
+ * on by itself. Instructions the batch interpreter does not know, such as
+ * random or custom instructions, are executed by the underlying interpreter
+ * for each lane of the group in turn.
+ * <p>
+ * The results are the same as executing the program on each input in turn
+ * with the underlying interpreter.
+ */
+public class BatchInterpreter {
+
+    // The kinds of instruction, by how they are executed in a batch.
+    private static final int UNKNOWN = 0;
+    private static final int CONTROL = 1;
+    private static final int FLOAT_BINARY = 2;
+    private static final int FLOAT_UNARY = 3;
+    private static final int FLOAT_COMPARE = 4;
+    private static final int INT_BINARY = 5;
+    private static final int INT_UNARY = 6;
+    private static final int INT_COMPARE = 7;
+    private static final int BOOL_BINARY = 8;
+    private static final int BOOL_NOT = 9;
+    private static final int FLOAT_FROM_INT = 10;
+    private static final int FLOAT_FROM_BOOL = 11;
+    private static final int INT_FROM_FLOAT = 12;
+    private static final int INT_FROM_BOOL = 13;
+    private static final int BOOL_FROM_INT = 14;
+    private static final int BOOL_FROM_FLOAT = 15;
+    private static final int FLOAT_CONSTANT = 16;
+    private static final int INT_CONSTANT = 17;
+    private static final int BOOL_CONSTANT = 18;
+    private static final int POP = 19;
+    private static final int SWAP = 20;
+    private static final int ROT = 21;
+    private static final int FLUSH = 22;
+    private static final int DUP = 23;
+    private static final int DEPTH = 24;
+    private static final int SHOVE = 25;
+    private static final int YANK = 26;
+    private static final int YANKDUP = 27;
+    private static final int IF = 28;
+    private static final int LOOP = 29;
+    private static final int RANGE_LOOP = 30;
+    private static final int INPUT_N = 31;
+    private static final int INPUT_ALL = 32;
+    private static final int INPUT_INDEX = 33;
+
+    private final Interpreter interpreter;
+
+    // The kinds of the instructions in the interpreter's dispatch table, and
+    // the instructions they were worked out for.
+    private Instruction[] classified = new Instruction[0];
+    private int[] kinds = new int[0];
+
+    private final Deque<Batch> pending = new ArrayDeque<>();
+
+    private float[] tops;
+    private int[] sizes;
+
+    /**
+     * Constructs a batch interpreter on top of an interpreter, whose
+     * instructions and exec, code and name stacks it uses.
+     */
+    public BatchInterpreter(Interpreter inInterpreter) {
+        interpreter = inInterpreter;
+    }
+
+    /**
+     * Executes a program once for each input. For each input, this is the
+     * same as clearing the interpreter's stacks, pushing the input onto the
+     * float and input stacks, and executing the program with the given
+     * instruction limit.
+     *
+     * @param inProgram  The program to execute.
+     * @param inInputs   The input of each lane.
+     * @param inMaxSteps The maximum number of instructions executed per lane.
+     * @param outTops    Receives the top of the float stack of each lane, or 0
+     *                   if it is empty.
+     * @param outSizes   Receives the size of the float stack of each lane.
+     * @return False if the interpreter cannot be batched, because it uses
+     * frames or a custom interpreter or input pusher; nothing is executed
+     * then.
+     */
+    public boolean execute(Program inProgram, float[] inInputs, int inMaxSteps, float[] outTops, int[] outSizes) {
+        if (interpreter.useFrames || interpreter.getClass() != Interpreter.class
+                || interpreter.getInputPusher().getClass() != InputPusher.class)
+            return false;
+
+        int lanes = inInputs.length;
+
+        if (lanes == 0)
+            return true;
+
+        tops = outTops;
+        sizes = outSizes;
+
+        interpreter.evaluationExecutions += lanes;
+        interpreter.clearStacks();
+        interpreter.inputStack().push(inInputs[0]);
+        interpreter.loadProgram(inProgram);
+
+        Batch batch = new Batch(lanes);
+
+        for (int l = 0; l < lanes; l++)
+            batch.ids[l] = l;
+
+        System.arraycopy(inInputs, 0, batch.inputs, 0, lanes);
+        System.arraycopy(inInputs, 0, batch.floats.push(), 0, lanes);
+        batch.remaining = inMaxSteps;
+
+        run(batch);
+
+        while (!pending.isEmpty()) {
+            batch = pending.pop();
+            batch.restore(interpreter);
+            run(batch);
+        }
+
+        tops = null;
+        sizes = null;
+
+        return true;
+    }
+
+    /**
+     * Runs a group of lanes until its exec stack is empty, its steps run out,
+     * or it is handed to the interpreter lane by lane.
+     */
+    private void run(Batch inBatch) {
+        ExecStack exec = interpreter.execStack;
+
+        while (inBatch.remaining != 0 && exec.size() > 0) {
+            int opcode = exec.topOpcode();
+            int operand = exec.topOperand();
+            Object item = exec.pop();
+
+            inBatch.remaining--;
+
+            if (opcode >= 0) {
+                Instruction[] dispatch = interpreter.dispatch;
+                Instruction i = opcode < dispatch.length ? dispatch[opcode] : null;
+
+                if (i == null) {
+                    interpreter.nameStack.push(item);
+                } else if (!execute(inBatch, i, kindOf(opcode, i), item, opcode, operand)) {
+                    return;
+                }
+
+                continue;
+            }
+
+            switch (opcode) {
+                case Opcodes.INTEGER -> inBatch.ints.push(operand);
+                case Opcodes.FLOAT -> inBatch.floats.push(Float.intBitsToFloat(operand));
+                case Opcodes.PROGRAM -> exec.pushAllReverse(((Program) item).compile());
+                default -> {
+                    if (item instanceof Instruction i && !execute(inBatch, i, classify(i), item, opcode, operand))
+                        return;
+                }
+            }
+        }
+
+        finish(inBatch);
+    }
+
+    private int kindOf(int inOpcode, Instruction inInstruction) {
+        if (inOpcode >= classified.length) {
+            int length = Math.max(inOpcode + 1, 2 * classified.length);
+            Instruction[] newclassified = new Instruction[length];
+            int[] newkinds = new int[length];
+
+            System.arraycopy(classified, 0, newclassified, 0, classified.length);
+            System.arraycopy(kinds, 0, newkinds, 0, kinds.length);
+            classified = newclassified;
+            kinds = newkinds;
+        }
+
+        if (classified[inOpcode] != inInstruction) {
+            classified[inOpcode] = inInstruction;
+            kinds[inOpcode] = classify(inInstruction);
+        }
+
+        return kinds[inOpcode];
+    }
+
+    private int classify(Instruction inInstruction) {
+        if (inInstruction instanceof BinaryFloatInstruction)
+            return FLOAT_BINARY;
+        if (inInstruction instanceof UnaryFloatInstruction)
+            return FLOAT_UNARY;
+        if (inInstruction instanceof BinaryFloatBoolInstruction)
+            return FLOAT_COMPARE;
+        if (inInstruction instanceof BinaryIntegerInstruction)
+            return INT_BINARY;
+        if (inInstruction instanceof UnaryIntInstruction)
+            return INT_UNARY;
+        if (inInstruction instanceof BinaryIntegerBoolInstruction)
+            return INT_COMPARE;
+        if (inInstruction instanceof BinaryBoolInstruction)
+            return BOOL_BINARY;
+        if (inInstruction instanceof BoolNot)
+            return BOOL_NOT;
+        if (inInstruction instanceof FloatFromInteger)
+            return FLOAT_FROM_INT;
+        if (inInstruction instanceof FloatFromBoolean)
+            return FLOAT_FROM_BOOL;
+        if (inInstruction instanceof IntegerFromFloat)
+            return INT_FROM_FLOAT;
+        if (inInstruction instanceof IntegerFromBoolean)
+            return INT_FROM_BOOL;
+        if (inInstruction instanceof BooleanFromInteger)
+            return BOOL_FROM_INT;
+        if (inInstruction instanceof BooleanFromFloat)
+            return BOOL_FROM_FLOAT;
+        if (inInstruction instanceof FloatConstant)
+            return FLOAT_CONSTANT;
+        if (inInstruction instanceof IntegerConstant)
+            return INT_CONSTANT;
+        if (inInstruction instanceof BooleanConstant)
+            return BOOL_CONSTANT;
+        if (inInstruction instanceof Depth)
+            return DEPTH;
+
+        if (inInstruction instanceof StackInstruction i) {
+            int kind = UNKNOWN;
+
+            if (i instanceof Pop)
+                kind = POP;
+            else if (i instanceof Swap)
+                kind = SWAP;
+            else if (i instanceof Rot)
+                kind = ROT;
+            else if (i instanceof Flush)
+                kind = FLUSH;
+            else if (i instanceof Dup)
+                kind = DUP;
+            else if (i instanceof Shove)
+                kind = SHOVE;
+            else if (i instanceof Yank)
+                kind = YANK;
+            else if (i instanceof YankDup)
+                kind = YANKDUP;
+
+            return isKnown(i.stack(interpreter)) ? kind : UNKNOWN;
+        }
+
+        if (inInstruction instanceof If)
+            return IF;
+        if (inInstruction instanceof ExecDoTimes || inInstruction instanceof ExecDoCount
+                || inInstruction instanceof CodeDoTimes || inInstruction instanceof CodeDoCount)
+            return LOOP;
+        if (inInstruction instanceof ExecDoRange || inInstruction instanceof CodeDoRange)
+            return RANGE_LOOP;
+        if (inInstruction instanceof InputInN)
+            return INPUT_N;
+        if (inInstruction instanceof InputInAll || inInstruction instanceof InputInRev)
+            return INPUT_ALL;
+        if (inInstruction instanceof InputIndex)
+            return INPUT_INDEX;
+
+        // These only use the shared stacks
+        if (inInstruction instanceof ExecK || inInstruction instanceof ExecS || inInstruction instanceof ExecY
+                || inInstruction instanceof ExecNoop || inInstruction instanceof Quote)
+            return CONTROL;
+
+        return UNKNOWN;
+    }
+
+    /**
+     * Returns whether a stack is one of the lane stacks or the stacks shared
+     * by all lanes.
+     */
+    private boolean isKnown(Stack inStack) {
+        return inStack == interpreter.intStack || inStack == interpreter.floatStack
+                || inStack == interpreter.boolStack || inStack == interpreter.execStack
+                || inStack == interpreter.codeStack || inStack == interpreter.nameStack;
+    }
+
+    /**
+     * Returns the lane stack standing in for one of the interpreter's stacks,
+     * or null if the stack is shared by all lanes.
+     */
+    private LaneStack laneStack(Batch inBatch, Stack inStack) {
+        if (inStack == interpreter.intStack)
+            return inBatch.ints;
+
+        if (inStack == interpreter.floatStack)
+            return inBatch.floats;
+
+        if (inStack == interpreter.boolStack)
+            return inBatch.bools;
+
+        return null;
+    }
+
+    /**
+     * Executes an instruction on a group of lanes.
+     *
+     * @return False if the group was handed to the interpreter, and is done.
+     */
+    private boolean execute(Batch inBatch, Instruction inInstruction, int inKind, Object inItem, int inOpcode,
+                            int inOperand) {
+        LaneStack floats = inBatch.floats;
+        LaneStack ints = inBatch.ints;
+        LaneStack bools = inBatch.bools;
+        int lanes = inBatch.lanes;
+
+        switch (inKind) {
+            case CONTROL -> inInstruction.Execute(interpreter);
+
+            case FLOAT_BINARY -> {
+                if (floats.size > 1) {
+                    BinaryFloatInstruction i = (BinaryFloatInstruction) inInstruction;
+                    float[] a = (float[]) floats.column(0);
+                    float[] b = (float[]) floats.column(1);
+
+                    for (int l = 0; l < lanes; l++)
+                        b[l] = i.BinaryOperator(b[l], a[l]);
+
+                    floats.popdiscard();
+                }
+            }
+
+            case FLOAT_UNARY -> {
+                if (floats.size > 0) {
+                    UnaryFloatInstruction i = (UnaryFloatInstruction) inInstruction;
+                    float[] a = (float[]) floats.column(0);
+
+                    for (int l = 0; l < lanes; l++)
+                        a[l] = i.UnaryOperator(a[l]);
+                }
+            }
+
+            case FLOAT_COMPARE -> {
+                if (floats.size > 1) {
+                    BinaryFloatBoolInstruction i = (BinaryFloatBoolInstruction) inInstruction;
+                    float[] b = (float[]) floats.column(0);
+                    float[] a = (float[]) floats.column(1);
+                    boolean[] result = (boolean[]) bools.push();
+
+                    for (int l = 0; l < lanes; l++)
+                        result[l] = i.BinaryOperator(a[l], b[l]);
+
+                    floats.popdiscard();
+                    floats.popdiscard();
+                }
+            }
+
+            case INT_BINARY -> {
+                if (ints.size > 1) {
+                    BinaryIntegerInstruction i = (BinaryIntegerInstruction) inInstruction;
+                    int[] a = (int[]) ints.column(0);
+                    int[] b = (int[]) ints.column(1);
+
+                    for (int l = 0; l < lanes; l++)
+                        b[l] = i.BinaryOperator(b[l], a[l]);
+
+                    ints.popdiscard();
+                }
+            }
+
+            case INT_UNARY -> {
+                if (ints.size > 0) {
+                    UnaryIntInstruction i = (UnaryIntInstruction) inInstruction;
+                    int[] a = (int[]) ints.column(0);
+
+                    for (int l = 0; l < lanes; l++)
+                        a[l] = i.UnaryOperator(a[l]);
+                }
+            }
+
+            case INT_COMPARE -> {
+                if (ints.size > 1) {
+                    BinaryIntegerBoolInstruction i = (BinaryIntegerBoolInstruction) inInstruction;
+                    int[] a = (int[]) ints.column(0);
+                    int[] b = (int[]) ints.column(1);
+                    boolean[] result = (boolean[]) bools.push();
+
+                    for (int l = 0; l < lanes; l++)
+                        result[l] = i.BinaryOperator(b[l], a[l]);
+
+                    ints.popdiscard();
+                    ints.popdiscard();
+                }
+            }
+
+            case BOOL_BINARY -> {
+                if (bools.size > 1) {
+                    BinaryBoolInstruction i = (BinaryBoolInstruction) inInstruction;
+                    boolean[] a = (boolean[]) bools.column(0);
+                    boolean[] b = (boolean[]) bools.column(1);
+
+                    for (int l = 0; l < lanes; l++)
+                        b[l] = i.BinaryOperator(b[l], a[l]);
+
+                    bools.popdiscard();
+                }
+            }
+
+            case BOOL_NOT -> {
+                if (bools.size > 0) {
+                    boolean[] a = (boolean[]) bools.column(0);
+
+                    for (int l = 0; l < lanes; l++)
+                        a[l] = !a[l];
+                }
+            }
+
+            case FLOAT_FROM_INT -> {
+                if (ints.size > 0) {
+                    int[] a = (int[]) ints.column(0);
+                    float[] result = (float[]) floats.push();
+
+                    for (int l = 0; l < lanes; l++)
+                        result[l] = a[l];
+
+                    ints.popdiscard();
+                }
+            }
+
+            case FLOAT_FROM_BOOL -> {
+                if (bools.size > 0) {
+                    boolean[] a = (boolean[]) bools.column(0);
+                    float[] result = (float[]) floats.push();
+
+                    for (int l = 0; l < lanes; l++)
+                        result[l] = a[l] ? 1 : 0;
+
+                    bools.popdiscard();
+                }
+            }
+
+            case INT_FROM_FLOAT -> {
+                if (floats.size > 0) {
+                    float[] a = (float[]) floats.column(0);
+                    int[] result = (int[]) ints.push();
+
+                    for (int l = 0; l < lanes; l++)
+                        result[l] = (int) a[l];
+
+                    floats.popdiscard();
+                }
+            }
+
+            case INT_FROM_BOOL -> {
+                if (bools.size > 0) {
+                    boolean[] a = (boolean[]) bools.column(0);
+                    int[] result = (int[]) ints.push();
+
+                    for (int l = 0; l < lanes; l++)
+                        result[l] = a[l] ? 1 : 0;
+
+                    bools.popdiscard();
+                }
+            }
+
+            case BOOL_FROM_INT -> {
+                if (ints.size > 0) {
+                    int[] a = (int[]) ints.column(0);
+                    boolean[] result = (boolean[]) bools.push();
+
+                    for (int l = 0; l < lanes; l++)
+                        result[l] = a[l] != 0;
+
+                    ints.popdiscard();
+                }
+            }
+
+            case BOOL_FROM_FLOAT -> {
+                if (floats.size > 0) {
+                    float[] a = (float[]) floats.column(0);
+                    boolean[] result = (boolean[]) bools.push();
+
+                    for (int l = 0; l < lanes; l++)
+                        result[l] = a[l] != 0.0;
+
+                    floats.popdiscard();
+                }
+            }
+
+            case FLOAT_CONSTANT -> floats.push(((FloatConstant) inInstruction).value);
+            case INT_CONSTANT -> ints.push(((IntegerConstant) inInstruction).value);
+            case BOOL_CONSTANT -> bools.push(((BooleanConstant) inInstruction).value);
+
+            case POP, SWAP, ROT, FLUSH, DUP -> {
+                LaneStack stack = laneStack(inBatch, ((StackInstruction) inInstruction).stack(interpreter));
+
+                if (stack == null) {
+                    inInstruction.Execute(interpreter);
+                } else {
+                    switch (inKind) {
+                        case POP -> stack.popdiscard();
+                        case SWAP -> stack.swap();
+                        case ROT -> stack.rot();
+                        case FLUSH -> stack.clear();
+                        default -> stack.dup();
+                    }
+                }
+            }
+
+            case DEPTH -> {
+                Stack target = ((Depth) inInstruction).stack(interpreter);
+                LaneStack stack = laneStack(inBatch, target);
+
+                ints.push(stack == null ? target.size() : stack.size);
+            }
+
+            case SHOVE, YANK, YANKDUP -> {
+                if (ints.size > 0) {
+                    Stack target = ((StackInstruction) inInstruction).stack(interpreter);
+                    LaneStack stack = laneStack(inBatch, target);
+                    int size = stack == null ? target.size() : stack.size;
+
+                    // The index is popped before the size of the target is
+                    // checked
+                    if (stack == ints)
+                        size--;
+
+                    if (size > 0) {
+                        int[] keys = clampedIndices(inBatch, size);
+
+                        if (split(inBatch, keys, inItem, inOpcode, inOperand))
+                            return true;
+
+                        int index = keys[0];
+
+                        ints.popdiscard();
+
+                        if (stack == null) {
+                            switch (inKind) {
+                                case SHOVE -> target.shove(index);
+                                case YANK -> target.yank(index);
+                                default -> target.yankdup(index);
+                            }
+                        } else {
+                            switch (inKind) {
+                                case SHOVE -> stack.shove(index);
+                                case YANK -> stack.yank(index);
+                                default -> stack.yankdup(index);
+                            }
+                        }
+                    }
+                }
+            }
+
+            case IF -> {
+                if (((If) inInstruction).stack(interpreter).size() > 1 && bools.size > 0) {
+                    boolean[] conditions = (boolean[]) bools.column(0);
+                    int[] keys = inBatch.keys;
+
+                    for (int l = 0; l < lanes; l++)
+                        keys[l] = conditions[l] ? 1 : 0;
+
+                    if (split(inBatch, keys, inItem, inOpcode, inOperand))
+                        return true;
+
+                    ObjectStack stack = ((If) inInstruction).stack(interpreter);
+                    Object iftrue = stack.pop();
+                    Object iffalse = stack.pop();
+
+                    bools.popdiscard();
+                    interpreter.execStack.push(conditions[0] ? iftrue : iffalse);
+                }
+            }
+
+            case LOOP, RANGE_LOOP -> {
+                int count = Math.min(inKind == LOOP ? 1 : 2, ints.size);
+                int[] keys = inBatch.keys;
+
+                // The iteration instructions read the top integers, which
+                // therefore have to agree between the lanes
+                if (count > 0) {
+                    int[] top = (int[]) ints.column(0);
+                    int[] second = count > 1 ? (int[]) ints.column(1) : null;
+
+                    for (int l = 0; l < lanes; l++)
+                        keys[l] = top[l];
+
+                    if (split(inBatch, keys, inItem, inOpcode, inOperand))
+                        return true;
+
+                    if (second != null) {
+                        for (int l = 0; l < lanes; l++)
+                            keys[l] = second[l];
+
+                        if (split(inBatch, keys, inItem, inOpcode, inOperand))
+                            return true;
+                    }
+                }
+
+                IntStack real = interpreter.intStack;
+                real.clear();
+
+                for (int n = count - 1; n >= 0; n--)
+                    real.push(((int[]) ints.column(n))[0]);
+
+                inInstruction.Execute(interpreter);
+
+                for (int n = 0; n < count; n++)
+                    ints.popdiscard();
+
+                for (int n = 0; n < real.size(); n++)
+                    ints.push(real.peek(n));
+            }
+
+            case INPUT_N -> {
+                if (interpreter.inputStack.size() > ((InputInN) inInstruction).index)
+                    System.arraycopy(inBatch.inputs, 0, floats.push(), 0, lanes);
+            }
+
+            case INPUT_ALL -> {
+                for (int n = 0; n < interpreter.inputStack.size(); n++)
+                    System.arraycopy(inBatch.inputs, 0, floats.push(), 0, lanes);
+            }
+
+            case INPUT_INDEX -> {
+                // With one input per lane, every index is clamped to it
+                if (ints.size > 0 && interpreter.inputStack.size() > 0) {
+                    ints.popdiscard();
+                    System.arraycopy(inBatch.inputs, 0, floats.push(), 0, lanes);
+                }
+            }
+
+            default -> {
+                rewind(inBatch, inItem, inOpcode, inOperand);
+                executeLanes(inBatch);
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Computes the index popped from the integer stack by shove, yank or
+     * yankdup, clamped to the size of the target stack.
+     */
+    private int[] clampedIndices(Batch inBatch, int inSize) {
+        int[] indices = (int[]) inBatch.ints.column(0);
+        int[] keys = inBatch.keys;
+
+        for (int l = 0; l < inBatch.lanes; l++)
+            keys[l] = Math.max(0, Math.min(indices[l], inSize - 1));
+
+        return keys;
+    }
+
+    /**
+     * Puts an item back on the exec stack, and gives back its step, so that
+     * it is executed again.
+     */
+    private void rewind(Batch inBatch, Object inItem, int inOpcode, int inOperand) {
+        interpreter.execStack.push(inItem, inOpcode, inOperand);
+        inBatch.remaining++;
+    }
+
+    /**
+     * Splits a group of lanes by a key, if the key differs between lanes. The
+     * group keeps the lanes which agree with its first lane, and the other
+     * lanes are set aside in new groups. All groups are rewound to execute the
+     * item again, when it will find the key uniform.
+     *
+     * @return True if the group was split.
+     */
+    private boolean split(Batch inBatch, int[] inKeys, Object inItem, int inOpcode, int inOperand) {
+        int lanes = inBatch.lanes;
+        int key = inKeys[0];
+        int l = 1;
+
+        while (l < lanes && inKeys[l] == key)
+            l++;
+
+        if (l == lanes)
+            return false;
+
+        rewind(inBatch, inItem, inOpcode, inOperand);
+
+        int[] selected = new int[lanes];
+        boolean[] assigned = new boolean[lanes];
+        int kept = 0;
+
+        for (int n = 0; n < lanes; n++) {
+            if (inKeys[n] == key) {
+                selected[kept++] = n;
+                assigned[n] = true;
+            }
+        }
+
+        for (int first = l; first < lanes; first++) {
+            if (assigned[first])
+                continue;
+
+            int other = inKeys[first];
+            int count = 0;
+
+            for (int n = first; n < lanes; n++) {
+                if (!assigned[n] && inKeys[n] == other) {
+                    selected[count++] = n;
+                    assigned[n] = true;
+                }
+            }
+
+            Batch batch = inBatch.select(selected, count);
+            batch.save(interpreter);
+            pending.push(batch);
+        }
+
+        for (int n = 0, k = 0; n < lanes; n++) {
+            if (inKeys[n] == key)
+                selected[k++] = n;
+        }
+
+        inBatch.retain(selected, kept);
+
+        return true;
+    }
+
+    /**
+     * Finishes a group of lanes by executing each lane with the interpreter,
+     * from the group's current state.
+     */
+    private void executeLanes(Batch inBatch) {
+        Batch saved = new Batch(0);
+        saved.save(interpreter);
+
+        for (int l = 0; l < inBatch.lanes; l++) {
+            if (l > 0)
+                saved.restore(interpreter);
+
+            inBatch.floats.load(l, interpreter.floatStack);
+            inBatch.ints.load(l, interpreter.intStack);
+            inBatch.bools.load(l, interpreter.boolStack);
+            interpreter.inputStack.clear();
+            interpreter.inputStack.push(inBatch.inputs[l]);
+
+            interpreter.Step(inBatch.remaining);
+
+            FloatStack floats = interpreter.floatStack;
+            int id = inBatch.ids[l];
+
+            tops[id] = floats.size() > 0 ? floats.top() : 0;
+            sizes[id] = floats.size();
+        }
+    }
+
+    private void finish(Batch inBatch) {
+        LaneStack floats = inBatch.floats;
+        float[] top = floats.size > 0 ? (float[]) floats.column(0) : null;
+
+        for (int l = 0; l < inBatch.lanes; l++) {
+            int id = inBatch.ids[l];
+
+            tops[id] = top != null ? top[l] : 0;
+            sizes[id] = floats.size;
+        }
+    }
+
+    /**
+     * A group of lanes which follow the same path through a program.
+     */
+    private static final class Batch {
+        int lanes;
+        int remaining;
+
+        // The original index of each lane, and its input
+        final int[] ids;
+        final float[] inputs;
+
+        // Scratch space for the keys lanes are split by
+        final int[] keys;
+
+        LaneStack floats;
+        LaneStack ints;
+        LaneStack bools;
+
+        // The shared stacks of a group waiting to run
+        ExecStack exec;
+        ObjectStack code;
+        ObjectStack name;
+
+        Batch(int inLanes) {
+            lanes = inLanes;
+            ids = new int[inLanes];
+            inputs = new float[inLanes];
+            keys = new int[inLanes];
+            floats = new LaneStack(LaneStack.FLOAT, inLanes);
+            ints = new LaneStack(LaneStack.INT, inLanes);
+            bools = new LaneStack(LaneStack.BOOLEAN, inLanes);
+        }
+
+        /**
+         * Returns a new group of the given lanes of this group, with the same
+         * steps remaining.
+         */
+        Batch select(int[] inLanes, int inCount) {
+            Batch result = new Batch(inCount);
+
+            for (int n = 0; n < inCount; n++) {
+                result.ids[n] = ids[inLanes[n]];
+                result.inputs[n] = inputs[inLanes[n]];
+            }
+
+            result.floats = floats.select(inLanes, inCount);
+            result.ints = ints.select(inLanes, inCount);
+            result.bools = bools.select(inLanes, inCount);
+            result.remaining = remaining;
+
+            return result;
+        }
+
+        /**
+         * Keeps only the given lanes of this group.
+         */
+        void retain(int[] inLanes, int inCount) {
+            for (int n = 0; n < inCount; n++) {
+                ids[n] = ids[inLanes[n]];
+                inputs[n] = inputs[inLanes[n]];
+            }
+
+            floats.retain(inLanes, inCount);
+            ints.retain(inLanes, inCount);
+            bools.retain(inLanes, inCount);
+            lanes = inCount;
+        }
+
+        /**
+         * Saves a copy of the interpreter's shared stacks for this group.
+         */
+        void save(Interpreter inInterpreter) {
+            exec = new ExecStack();
+            exec.copyFrom(inInterpreter.execStack);
+            code = new ObjectStack();
+            copy(inInterpreter.codeStack, code);
+            name = new ObjectStack();
+            copy(inInterpreter.nameStack, name);
+        }
+
+        /**
+         * Restores the interpreter's shared stacks to this group's copy.
+         */
+        void restore(Interpreter inInterpreter) {
+            inInterpreter.execStack.copyFrom(exec);
+            copy(code, inInterpreter.codeStack);
+            copy(name, inInterpreter.nameStack);
+        }
+
+        private static void copy(ObjectStack inFrom, ObjectStack outTo) {
+            outTo.clear();
+
+            for (int n = 0; n < inFrom.size(); n++)
+                outTo.push(inFrom.peek(n));
+        }
+    }
+}
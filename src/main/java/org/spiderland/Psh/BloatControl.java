@@ -0,0 +1,150 @@
+package org.spiderland.Psh;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Bloat control for PushGP, which keeps programs small so that evaluating
+ * them stays cheap. Any of these methods may be combined:
+ * <ul>
+ * <li>lexicographic-parsimony: of two individuals in a tournament which are
+ * equally fit, the smaller program wins.</li>
+ * <li>tarpeian: before a population is evaluated, one in tarpeian-rate of
+ * its unevaluated individuals larger than the mean size is given the worst
+ * fitness instead of being evaluated.</li>
+ * <li>dynamic-limit: a child larger than the dynamic size limit is replaced
+ * by a clone of a parent. The limit starts at dynamic-limit, or at the
+ * largest program of the initial population if that is larger, and rises to
+ * the size of the best program whenever that is larger.</li>
+ * </ul>
+ * max-points-in-program still bounds every program.
+ */
+final class BloatControl implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private static final List<String> METHODS = Arrays.asList("lexicographic-parsimony", "tarpeian", "dynamic-limit");
+
+    final boolean lexicographicParsimony;
+    private final boolean tarpeian;
+    private final boolean dynamicLimit;
+    private final int tarpeianRate;
+
+    // The current dynamic size limit, which applies once the initial
+    // population is summarized
+    private int sizeLimit;
+    private boolean limited;
+
+    private BloatControl(List<String> inMethods, int inTarpeianRate, int inSizeLimit) {
+        lexicographicParsimony = inMethods.contains("lexicographic-parsimony");
+        tarpeian = inMethods.contains("tarpeian");
+        dynamicLimit = inMethods.contains("dynamic-limit");
+        tarpeianRate = Math.max(1, inTarpeianRate);
+        sizeLimit = inSizeLimit;
+    }
+
+    /**
+     * Creates the bloat control for the bloat-control parameter.
+     *
+     * @param inMethods      A comma-separated list of methods, or none.
+     * @param inTarpeianRate One in this many large individuals is penalized.
+     * @param inSizeLimit    The initial dynamic size limit, or 0.
+     * @return The bloat control, or null for none.
+     */
+    static BloatControl create(String inMethods, int inTarpeianRate, int inSizeLimit) throws Exception {
+        if (inMethods.equals("none"))
+            return null;
+
+        List<String> methods = new ArrayList<>();
+
+        for (String method : inMethods.split(",")) {
+            method = method.trim();
+
+            if (!METHODS.contains(method))
+                throw new Exception("bloat-control must be set to none, or to a comma-separated list of "
+                        + "lexicographic-parsimony, tarpeian and dynamic-limit. Currently set to " + inMethods);
+
+            methods.add(method);
+        }
+
+        return new BloatControl(methods, inTarpeianRate, inSizeLimit);
+    }
+
+    /**
+     * Returns the size by which tournaments break ties between equally fit
+     * individuals: the program size with lexicographic parsimony, and
+     * otherwise 0.
+     */
+    int selectionSize(PushGPIndividual inIndividual) {
+        return lexicographicParsimony ? inIndividual.programSize() : 0;
+    }
+
+    /**
+     * Applies the Tarpeian method to a population about to be evaluated.
+     *
+     * @param inPopulation The population.
+     * @param inRandom     The generator to draw the penalized individuals from.
+     * @param inCases      The number of test cases the population is evaluated
+     *                     on, which penalized individuals get errors for.
+     * @return The individuals which remain to be evaluated.
+     */
+    GAIndividual[] penalize(GAIndividual[] inPopulation, Random inRandom, int inCases) {
+        if (!tarpeian || inPopulation.length == 0)
+            return inPopulation;
+
+        double meanSize = 0;
+
+        for (GAIndividual individual : inPopulation)
+            meanSize += ((PushGPIndividual) individual).programSize();
+
+        meanSize /= inPopulation.length;
+
+        List<GAIndividual> remaining = new ArrayList<>(inPopulation.length);
+
+        for (GAIndividual individual : inPopulation) {
+            if (!individual.isFitnessSet() && ((PushGPIndividual) individual).programSize() > meanSize
+                    && inRandom.nextInt(tarpeianRate) == 0) {
+                float[] errors = new float[inCases];
+                Arrays.fill(errors, Float.MAX_VALUE);
+
+                individual.setFitness(Float.MAX_VALUE, inCases);
+                individual.setErrors(errors);
+            } else {
+                remaining.add(individual);
+            }
+        }
+
+        return remaining.toArray(new GAIndividual[0]);
+    }
+
+    /**
+     * Returns whether a child is over the dynamic size limit.
+     */
+    boolean exceedsLimit(PushGPIndividual inChild) {
+        return dynamicLimit && limited && inChild.programSize() > sizeLimit;
+    }
+
+    /**
+     * Raises the dynamic size limit after a population is summarized.
+     *
+     * @param inLargestSize The size of the largest program of the population,
+     *                      which sets the limit of the initial population.
+     * @param inBestSize    The size of the best program.
+     */
+    void updateLimit(int inLargestSize, int inBestSize) {
+        if (!limited)
+            sizeLimit = Math.max(sizeLimit, inLargestSize);
+
+        sizeLimit = Math.max(sizeLimit, inBestSize);
+        limited = true;
+    }
+
+    /**
+     * Returns the dynamic size limit, or 0 without the dynamic-limit method.
+     */
+    int sizeLimit() {
+        return dynamicLimit && limited ? sizeLimit : 0;
+    }
+}
@@ -0,0 +1,402 @@
+package org.spiderland.Psh;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Translates straight-line Push programs to JVM bytecode.
+ * <p>
+ * A program is straight-line if executing it never looks at the exec or code
+ * stacks: it consists of literals, names and instructions working on the
+ * other stacks, nested to any depth. The interpreter executes such a program
+ * in a fixed order, which the compiler writes out as a hidden class, one
+ * call per element. Programs using exec or code instructions are left to
+ * the interpreter. Hidden classes are unloaded once the programs holding
+ * them are no longer referenced.
+ */
+final class BytecodeCompiler {
+
+    /**
+     * The largest number of elements compiled, which keeps the generated
+     * method well within the JVM's limits.
+     */
+    private static final int MAX_ELEMENTS = 4000;
+
+    private static final String PROGRAM = "org/spiderland/Psh/BytecodeProgram";
+    private static final String INTERPRETER = "org/spiderland/Psh/Interpreter";
+
+    private BytecodeCompiler() {
+    }
+
+    /**
+     * Compiles a program for an interpreter.
+     *
+     * @return The compiled program, or null if the program is not
+     * straight-line.
+     */
+    static BytecodeProgram compile(Program inProgram, Interpreter inInterpreter) {
+        if (inInterpreter.useFrames)
+            return null;
+
+        List<Object> elements = new ArrayList<>();
+
+        if (!flatten(inProgram, inInterpreter, elements) || elements.size() > MAX_ELEMENTS)
+            return null;
+
+        ClassWriter writer = new ClassWriter();
+        byte[] bytes;
+
+        try {
+            bytes = writer.write(elements, inInterpreter);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+
+            // One step for each point, and one for the program itself
+            return (BytecodeProgram) lookup.lookupClass()
+                    .getDeclaredConstructor(int.class, int[].class, Class[].class, int[].class)
+                    .newInstance(inProgram.programSize() + 1,
+                            writer.opcodes.stream().mapToInt(Integer::intValue).toArray(),
+                            writer.classes.toArray(new Class<?>[0]),
+                            writer.names.stream().mapToInt(Integer::intValue).toArray());
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Lists the elements of a program in the order they are executed.
+     *
+     * @return False if the program is not straight-line.
+     */
+    private static boolean flatten(Program inProgram, Interpreter inInterpreter, List<Object> outElements) {
+        for (int n = 0; n < inProgram.size(); n++) {
+            Object o = inProgram.peek(n);
+
+            if (o instanceof Program p) {
+                if (!flatten(p, inInterpreter, outElements))
+                    return false;
+            } else if (o instanceof Integer || o instanceof Float) {
+                outElements.add(o);
+            } else if (o instanceof String name) {
+                Instruction i = instruction(inInterpreter, Opcodes.of(name));
+
+                if (i != null && !isStraightLine(i, inInterpreter))
+                    return false;
+
+                outElements.add(name);
+            } else {
+                return false;
+            }
+
+            if (outElements.size() > MAX_ELEMENTS)
+                return false;
+        }
+
+        return true;
+    }
+
+    private static Instruction instruction(Interpreter inInterpreter, int inOpcode) {
+        Instruction[] dispatch = inInterpreter.dispatch;
+
+        return inOpcode < dispatch.length ? dispatch[inOpcode] : null;
+    }
+
+    /**
+     * Returns whether an instruction leaves the exec and code stacks alone.
+     */
+    private static boolean isStraightLine(Instruction inInstruction, Interpreter inInterpreter) {
+        if (inInstruction instanceof StackInstruction i) {
+            Stack stack = i.stack(inInterpreter);
+
+            return stack != inInterpreter.execStack && stack != inInterpreter.codeStack;
+        }
+
+        return inInstruction instanceof BinaryIntegerInstruction || inInstruction instanceof UnaryIntInstruction
+                || inInstruction instanceof BinaryIntegerBoolInstruction
+                || inInstruction instanceof BinaryFloatInstruction || inInstruction instanceof UnaryFloatInstruction
+                || inInstruction instanceof BinaryFloatBoolInstruction || inInstruction instanceof BinaryBoolInstruction
+                || inInstruction instanceof BoolNot || inInstruction instanceof IntegerConstant
+                || inInstruction instanceof FloatConstant || inInstruction instanceof BooleanConstant
+                || inInstruction instanceof IntegerFromFloat || inInstruction instanceof IntegerFromBoolean
+                || inInstruction instanceof FloatFromInteger || inInstruction instanceof FloatFromBoolean
+                || inInstruction instanceof BooleanFromInteger || inInstruction instanceof BooleanFromFloat
+                || inInstruction instanceof IntegerRand || inInstruction instanceof FloatRand
+                || inInstruction instanceof BoolRand || inInstruction instanceof InputInN
+                || inInstruction instanceof InputInAll || inInstruction instanceof InputInRev
+                || inInstruction instanceof InputIndex || inInstruction instanceof ExecNoop;
+    }
+
+    /**
+     * Writes the class file of a BytecodeProgram subclass whose run method
+     * executes a list of elements.
+     */
+    private static final class ClassWriter {
+        private static final int ILOAD_1 = 0x1b;
+        private static final int ALOAD = 0x19;
+        private static final int ALOAD_0 = 0x2a;
+        private static final int ALOAD_1 = 0x2b;
+        private static final int ALOAD_2 = 0x2c;
+        private static final int ALOAD_3 = 0x2d;
+        private static final int ASTORE = 0x3a;
+        private static final int ASTORE_3 = 0x4e;
+        private static final int AALOAD = 0x32;
+        private static final int ICONST_0 = 0x03;
+        private static final int FCONST_0 = 0x0b;
+        private static final int BIPUSH = 0x10;
+        private static final int SIPUSH = 0x11;
+        private static final int LDC_W = 0x13;
+        private static final int GETFIELD = 0xb4;
+        private static final int INVOKEVIRTUAL = 0xb6;
+        private static final int INVOKESPECIAL = 0xb7;
+        private static final int CHECKCAST = 0xc0;
+        private static final int RETURN = 0xb1;
+
+        // The constructor, which passes its arguments on to BytecodeProgram's
+        private static final String INIT_TYPE = "(I[I[Ljava/lang/Class;[I)V";
+
+        // Locals of the run method
+        private static final int INT_STACK = 3;
+        private static final int FLOAT_STACK = 4;
+        private static final int NAME_STACK = 5;
+
+        final List<Integer> opcodes = new ArrayList<>();
+        final List<Class<?>> classes = new ArrayList<>();
+        final List<Integer> names = new ArrayList<>();
+
+        private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+        private final DataOutputStream poolOut = new DataOutputStream(pool);
+        private final Map<String, Integer> entries = new HashMap<>();
+        private int poolCount = 1;
+
+        byte[] write(List<Object> inElements, Interpreter inInterpreter) throws IOException {
+            ByteArrayOutputStream code = new ByteArrayOutputStream();
+
+            field(code, "intStack", "Lorg/spiderland/Psh/IntStack;", INT_STACK);
+            field(code, "floatStack", "Lorg/spiderland/Psh/FloatStack;", FLOAT_STACK);
+            field(code, "nameStack", "Lorg/spiderland/Psh/ObjectStack;", NAME_STACK);
+
+            for (Object o : inElements) {
+                if (o instanceof Integer i) {
+                    code.write(ALOAD_3);
+                    pushInt(code, i, true);
+                    invoke(code, INVOKEVIRTUAL, "org/spiderland/Psh/IntStack", "push", "(I)V");
+                } else if (o instanceof Float f) {
+                    code.write(ALOAD);
+                    code.write(FLOAT_STACK);
+
+                    if (Float.floatToRawIntBits(f) == 0 || f == 1.0f || f == 2.0f) {
+                        code.write(FCONST_0 + (int) (float) f);
+                    } else {
+                        code.write(LDC_W);
+                        short2(code, constant("F" + Float.floatToRawIntBits(f), 4, Float.floatToRawIntBits(f)));
+                    }
+
+                    invoke(code, INVOKEVIRTUAL, "org/spiderland/Psh/FloatStack", "push", "(F)V");
+                } else {
+                    String name = (String) o;
+                    int opcode = Opcodes.of(name);
+                    Instruction i = instruction(inInterpreter, opcode);
+
+                    if (i == null) {
+                        names.add(opcode);
+                        code.write(ALOAD);
+                        code.write(NAME_STACK);
+                        code.write(LDC_W);
+                        short2(code, string(name));
+                        invoke(code, INVOKEVIRTUAL, "org/spiderland/Psh/ObjectStack", "push", "(Ljava/lang/Object;)V");
+                    } else {
+                        String owner = i.getClass().getName().replace('.', '/');
+
+                        code.write(ALOAD_2);
+                        pushInt(code, opcodes.size(), false);
+                        code.write(AALOAD);
+                        code.write(CHECKCAST);
+                        short2(code, classRef(owner));
+                        code.write(ALOAD_1);
+                        invoke(code, INVOKEVIRTUAL, owner, "Execute", "(L" + INTERPRETER + ";)V");
+
+                        opcodes.add(opcode);
+                        classes.add(i.getClass());
+                    }
+                }
+            }
+
+            code.write(RETURN);
+
+            ByteArrayOutputStream init = new ByteArrayOutputStream();
+            init.write(ALOAD_0);
+            init.write(ILOAD_1);
+            init.write(ALOAD_2);
+            init.write(ALOAD_3);
+            init.write(ALOAD);
+            init.write(4);
+            invoke(init, INVOKESPECIAL, PROGRAM, "<init>", INIT_TYPE);
+            init.write(RETURN);
+
+            int thisClass = classRef(PROGRAM + "$Code");
+            int superClass = classRef(PROGRAM);
+            int initName = utf8("<init>");
+            int initType = utf8(INIT_TYPE);
+            int runName = utf8("run");
+            int runType = utf8("(L" + INTERPRETER + ";[Lorg/spiderland/Psh/Instruction;)V");
+            int codeName = utf8("Code");
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+
+            out.writeInt(0xcafebabe);
+            out.writeShort(0);
+            out.writeShort(61);
+            out.writeShort(poolCount);
+            pool.writeTo(out);
+            out.writeShort(0x0030); // final, super
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); // interfaces
+            out.writeShort(0); // fields
+            out.writeShort(2); // methods
+            method(out, 0x0001, initName, initType, codeName, 5, 5, init.toByteArray());
+            method(out, 0x0000, runName, runType, codeName, 2, 6, code.toByteArray());
+            out.writeShort(0); // attributes
+
+            return bytes.toByteArray();
+        }
+
+        private void method(DataOutputStream out, int inAccess, int inName, int inType, int inCodeName,
+                            int inMaxStack, int inMaxLocals, byte[] inCode) throws IOException {
+            out.writeShort(inAccess);
+            out.writeShort(inName);
+            out.writeShort(inType);
+            out.writeShort(1);
+            out.writeShort(inCodeName);
+            out.writeInt(12 + inCode.length);
+            out.writeShort(inMaxStack);
+            out.writeShort(inMaxLocals);
+            out.writeInt(inCode.length);
+            out.write(inCode);
+            out.writeShort(0); // exception table
+            out.writeShort(0); // attributes
+        }
+
+        /**
+         * Loads one of the interpreter's stacks into a local.
+         */
+        private void field(ByteArrayOutputStream code, String inName, String inType, int inLocal) {
+            code.write(ALOAD_1);
+            code.write(GETFIELD);
+            short2(code, memberRef(9, INTERPRETER, inName, inType));
+
+            if (inLocal == INT_STACK) {
+                code.write(ASTORE_3);
+            } else {
+                code.write(ASTORE);
+                code.write(inLocal);
+            }
+        }
+
+        private void invoke(ByteArrayOutputStream code, int inOp, String inOwner, String inName, String inType) {
+            code.write(inOp);
+            short2(code, memberRef(10, inOwner, inName, inType));
+        }
+
+        private void pushInt(ByteArrayOutputStream code, int inValue, boolean inAllowConstant) {
+            if (inValue >= -1 && inValue <= 5) {
+                code.write(ICONST_0 + inValue);
+            } else if (inValue >= Byte.MIN_VALUE && inValue <= Byte.MAX_VALUE) {
+                code.write(BIPUSH);
+                code.write(inValue);
+            } else if (inValue >= Short.MIN_VALUE && inValue <= Short.MAX_VALUE || !inAllowConstant) {
+                code.write(SIPUSH);
+                short2(code, inValue);
+            } else {
+                code.write(LDC_W);
+                short2(code, constant("I" + inValue, 3, inValue));
+            }
+        }
+
+        private static void short2(ByteArrayOutputStream code, int inValue) {
+            code.write(inValue >> 8);
+            code.write(inValue);
+        }
+
+        private int utf8(String inValue) {
+            return entry("U" + inValue, () -> {
+                poolOut.writeByte(1);
+                poolOut.writeUTF(inValue);
+            });
+        }
+
+        private int string(String inValue) {
+            int value = utf8(inValue);
+
+            return entry("S" + inValue, () -> {
+                poolOut.writeByte(8);
+                poolOut.writeShort(value);
+            });
+        }
+
+        private int classRef(String inName) {
+            int name = utf8(inName);
+
+            return entry("C" + inName, () -> {
+                poolOut.writeByte(7);
+                poolOut.writeShort(name);
+            });
+        }
+
+        private int constant(String inKey, int inTag, int inValue) {
+            return entry(inKey, () -> {
+                poolOut.writeByte(inTag);
+                poolOut.writeInt(inValue);
+            });
+        }
+
+        private int memberRef(int inTag, String inOwner, String inName, String inType) {
+            int owner = classRef(inOwner);
+            int name = utf8(inName);
+            int type = utf8(inType);
+            int nameAndType = entry("N" + inName + " " + inType, () -> {
+                poolOut.writeByte(12);
+                poolOut.writeShort(name);
+                poolOut.writeShort(type);
+            });
+
+            return entry("M" + inTag + inOwner + "." + inName + inType, () -> {
+                poolOut.writeByte(inTag);
+                poolOut.writeShort(owner);
+                poolOut.writeShort(nameAndType);
+            });
+        }
+
+        private int entry(String inKey, PoolWriter inWriter) {
+            Integer index = entries.get(inKey);
+
+            if (index == null) {
+                try {
+                    inWriter.write();
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+
+                index = poolCount++;
+                entries.put(inKey, index);
+            }
+
+            return index;
+        }
+
+        private interface PoolWriter {
+            void write() throws IOException;
+        }
+    }
+}
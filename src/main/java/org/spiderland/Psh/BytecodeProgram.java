@@ -0,0 +1,116 @@
+package org.spiderland.Psh;
+
+/**
+ * A straight-line Push program translated to JVM bytecode by
+ * BytecodeCompiler.
+ * <p>
+ * The generated subclass executes the program's elements in order with
+ * direct calls to each instruction's Execute method, so that HotSpot can
+ * inline the instruction bodies into it. The instructions themselves are
+ * looked up in the executing interpreter's dispatch table, which must
+ * resolve each name to an instruction of the same class as at compile time.
+ * The lookup is kept for as long as interpreters run the program with the
+ * same table.
+ */
+abstract class BytecodeProgram {
+
+    /**
+     * The number of steps the interpreter takes to execute the program.
+     */
+    final int steps;
+
+    /**
+     * The opcodes of the instructions called by the generated code, in order,
+     * and the class each must have.
+     */
+    final int[] opcodes;
+    final Class<?>[] classes;
+
+    /**
+     * The opcodes of the names pushed onto the name stack, which must not be
+     * instructions.
+     */
+    final int[] names;
+
+    /**
+     * The instructions last resolved, or null if the program cannot run with
+     * the dispatch table they were resolved against. A Resolution is
+     * immutable, so it can be shared by threads without synchronization.
+     */
+    private Resolution resolution;
+
+    BytecodeProgram(int inSteps, int[] inOpcodes, Class<?>[] inClasses, int[] inNames) {
+        steps = inSteps;
+        opcodes = inOpcodes;
+        classes = inClasses;
+        names = inNames;
+    }
+
+    /**
+     * Runs the generated code.
+     *
+     * @param inI            The interpreter to execute in.
+     * @param inInstructions The instruction for each entry of opcodes.
+     */
+    abstract void run(Interpreter inI, Instruction[] inInstructions);
+
+    /**
+     * Executes the program with an interpreter, if it can be done without the
+     * exec stack.
+     *
+     * @param inI        The interpreter to execute in.
+     * @param inMaxSteps The maximum number of steps, or negative for no limit.
+     * @return The number of steps taken, or -1 if the program was not
+     * executed because it would exceed the limit, or the interpreter
+     * defines its instructions differently.
+     */
+    int execute(Interpreter inI, int inMaxSteps) {
+        if (inMaxSteps >= 0 && steps > inMaxSteps)
+            return -1;
+
+        Resolution r = resolution;
+
+        if (r == null || r.dispatch() != inI.dispatch) {
+            r = new Resolution(inI.dispatch, resolve(inI.dispatch));
+            resolution = r;
+        }
+
+        if (r.instructions() == null)
+            return -1;
+
+        run(inI, r.instructions());
+
+        return steps;
+    }
+
+    /**
+     * Looks up the instructions called by the generated code in a dispatch
+     * table.
+     *
+     * @return The instruction for each entry of opcodes, or null if the table
+     * defines them differently.
+     */
+    private Instruction[] resolve(Instruction[] inDispatch) {
+        Instruction[] instructions = new Instruction[opcodes.length];
+
+        for (int n = 0; n < opcodes.length; n++) {
+            int opcode = opcodes[n];
+            Instruction i = opcode < inDispatch.length ? inDispatch[opcode] : null;
+
+            if (i == null || i.getClass() != classes[n])
+                return null;
+
+            instructions[n] = i;
+        }
+
+        for (int opcode : names) {
+            if (opcode < inDispatch.length && inDispatch[opcode] != null)
+                return null;
+        }
+
+        return instructions;
+    }
+
+    private record Resolution(Instruction[] dispatch, Instruction[] instructions) {
+    }
+}
@@ -0,0 +1,303 @@
+package org.spiderland.Psh;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the checkpoints of a run on a thread of its own, from the snapshots
+ * taken by GeneticAlgorithm.checkpoint, and reads them back.
+ * <p>
+ * A full checkpoint holds the serialized Checkpoint, whose algorithm has no
+ * populations and which has no report, followed by the report and the
+ * populations. A delta checkpoint holds the same, except that its report is
+ * only the output printed since the last full checkpoint, and that each
+ * program of its populations which is equal to one of the populations of
+ * that checkpoint is written as the index of that program. Reading a delta
+ * reads its full checkpoint first.
+ * <p>
+ * A checkpoint is written to a temporary file which is then renamed, so that
+ * checkpoint files are always complete. One snapshot at most waits to be
+ * written, and it is written once its report, which may still be being made
+ * on the report thread, is taken.
+ */
+final class CheckpointWriter {
+    private final int retention;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "checkpoint");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private Future<?> pending;
+
+    // Used by the writer thread only: the programs of the last full
+    // checkpoint, with the index of each, the name of its file, and the files
+    // kept, grouped by full checkpoint
+    private Map<Program, Integer> basePrograms;
+    private String baseName;
+    private final Deque<List<File>> kept = new ArrayDeque<>();
+
+    /**
+     * @param inRetention The number of full checkpoints to keep, with their
+     *                    deltas, or 0 to keep all.
+     */
+    CheckpointWriter(int inRetention) {
+        retention = inRetention;
+    }
+
+    /**
+     * The report of a checkpoint.
+     *
+     * @param text   The report, or for a delta the output printed since the
+     *               last full checkpoint.
+     * @param prefix For a delta, the length of the report of the full
+     *               checkpoint which precedes text.
+     */
+    record Report(String text, int prefix) {
+    }
+
+    /**
+     * Serializes a checkpoint without the populations of its algorithm and
+     * without its report, neither of which are read, as the run may be
+     * changing them.
+     */
+    static byte[] state(Checkpoint inCheckpoint) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (ObjectOutputStream out = new StateOutputStream(bytes, inCheckpoint)) {
+            out.writeObject(inCheckpoint);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes a checkpoint once the previous one is written and its report is
+     * taken.
+     *
+     * @param inFile        The checkpoint file.
+     * @param inFull        Whether the checkpoint is full, or a delta of the
+     *                      last full checkpoint.
+     * @param inState       The Checkpoint serialized by state.
+     * @param inPopulations Copies of the populations.
+     * @param inReport      The report of the checkpoint.
+     */
+    void write(File inFile, boolean inFull, byte[] inState, GAIndividual[][] inPopulations, Future<Report> inReport)
+            throws Exception {
+        await();
+
+        pending = executor.submit(() -> {
+            Report report;
+
+            try {
+                report = inReport.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception cause ? cause : e;
+            }
+
+            writeCheckpoint(inFile, inFull, inState, inPopulations, report);
+            return null;
+        });
+    }
+
+    /**
+     * Waits until the checkpoints submitted are written.
+     */
+    void await() throws Exception {
+        if (pending == null)
+            return;
+
+        try {
+            pending.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception cause)
+                throw cause;
+
+            throw e;
+        } finally {
+            pending = null;
+        }
+    }
+
+    private void writeCheckpoint(File inFile, boolean inFull, byte[] inState, GAIndividual[][] inPopulations,
+            Report inReport) throws IOException {
+        if (!inFull && basePrograms == null)
+            throw new IOException("No full checkpoint to write " + inFile + " as a delta of");
+
+        File temporary = new File(inFile.getPath() + ".tmp");
+
+        try (ObjectOutputStream out = new ReferencingOutputStream(
+                new GZIPOutputStream(new FileOutputStream(temporary)), inFull ? Map.of() : basePrograms)) {
+            out.writeObject(inState);
+            out.writeObject(inReport.text());
+            out.writeObject(inFull ? null : baseName);
+            out.writeInt(inReport.prefix());
+            out.writeObject(inPopulations);
+        }
+
+        Files.move(temporary.toPath(), inFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        System.out.println("Wrote checkpoint file " + inFile.getAbsolutePath());
+
+        if (inFull) {
+            List<Program> programs = programsOf(inPopulations);
+            basePrograms = new HashMap<>();
+            baseName = inFile.getName();
+
+            for (int n = 0; n < programs.size(); n++) {
+                if (programs.get(n) != null)
+                    basePrograms.putIfAbsent(programs.get(n), n);
+            }
+
+            kept.addLast(new ArrayList<>());
+        }
+
+        kept.getLast().add(inFile);
+
+        while (retention > 0 && kept.size() > retention) {
+            for (File file : kept.removeFirst())
+                Files.deleteIfExists(file.toPath());
+        }
+    }
+
+    /**
+     * Reads a checkpoint, with the full checkpoint of a delta, which is looked
+     * for next to it.
+     *
+     * @param inFile The checkpoint file.
+     * @return The checkpoint, whose algorithm has its populations.
+     */
+    static Checkpoint read(File inFile) throws Exception {
+        try (ResolvingInputStream in = new ResolvingInputStream(new GZIPInputStream(new FileInputStream(inFile)))) {
+            Object first = in.readObject();
+
+            // A checkpoint serialized whole, as written before snapshots
+            if (first instanceof Checkpoint checkpoint)
+                return checkpoint;
+
+            Checkpoint checkpoint;
+
+            try (ObjectInputStream state = new ObjectInputStream(new ByteArrayInputStream((byte[]) first))) {
+                checkpoint = (Checkpoint) state.readObject();
+            }
+
+            checkpoint.report = new StringBuffer((String) in.readObject());
+            String baseName = (String) in.readObject();
+            int reportPrefix = in.readInt();
+
+            if (baseName != null) {
+                Checkpoint base = read(new File(inFile.getAbsoluteFile().getParentFile(), baseName));
+
+                in.programs = programsOf(base.getGeneticAlgorithm().populations);
+                checkpoint.report.insert(0, base.report.substring(0, reportPrefix));
+            }
+
+            checkpoint.getGeneticAlgorithm().populations = (GAIndividual[][]) in.readObject();
+
+            return checkpoint;
+        }
+    }
+
+    /**
+     * Returns the programs of the individuals of populations, in order, with
+     * null for individuals without one.
+     */
+    private static List<Program> programsOf(GAIndividual[][] inPopulations) {
+        List<Program> result = new ArrayList<>();
+
+        for (GAIndividual[] population : inPopulations) {
+            for (GAIndividual individual : population)
+                result.add(individual instanceof PushGPIndividual pushIndividual ? pushIndividual.program : null);
+        }
+
+        return result;
+    }
+
+    /**
+     * A program of the last full checkpoint, written in its place in a delta.
+     */
+    private record ProgramReference(int index) implements Serializable {
+    }
+
+    private static final class StateOutputStream extends ObjectOutputStream {
+        private final GAIndividual[][] populations;
+        private final StringBuffer report;
+
+        StateOutputStream(OutputStream inOut, Checkpoint inCheckpoint) throws IOException {
+            super(inOut);
+            populations = inCheckpoint.getGeneticAlgorithm().populations;
+            report = inCheckpoint.report;
+            enableReplaceObject(true);
+        }
+
+        @Override
+        protected Object replaceObject(Object inObject) {
+            if (inObject == populations)
+                return null;
+
+            return inObject == report ? new StringBuffer() : inObject;
+        }
+    }
+
+    private static final class ReferencingOutputStream extends ObjectOutputStream {
+        private final Map<Program, Integer> references;
+
+        ReferencingOutputStream(OutputStream inOut, Map<Program, Integer> inReferences) throws IOException {
+            super(inOut);
+            references = inReferences;
+            enableReplaceObject(!inReferences.isEmpty());
+        }
+
+        @Override
+        protected Object replaceObject(Object inObject) {
+            if (inObject instanceof Program program && program.getClass() == Program.class) {
+                Integer index = references.get(program);
+
+                if (index != null)
+                    return new ProgramReference(index);
+            }
+
+            return inObject;
+        }
+    }
+
+    private static final class ResolvingInputStream extends ObjectInputStream {
+        private List<Program> programs = List.of();
+
+        ResolvingInputStream(InputStream inIn) throws IOException {
+            super(inIn);
+            enableResolveObject(true);
+        }
+
+        @Override
+        protected Object resolveObject(Object inObject) {
+            // Each individual owns its top level, which recycling overwrites
+            if (inObject instanceof ProgramReference reference)
+                return new Program(programs.get(reference.index()));
+
+            return inObject;
+        }
+    }
+}
@@ -12,6 +12,8 @@ import org.spiderland.Psh.TestCase.TestCaseGenerator;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This problem class implements symbolic regression for floating point numbers
@@ -25,7 +27,8 @@ public class CEFloatSymbolicRegression extends PushGP {
 
     protected float currentInput;
 
-    protected long effort;
+    // Counted from every evaluation thread
+    protected final AtomicLong effort = new AtomicLong();
     protected float predictorEffortPercent;
     protected PredictionGeneticAlgorithm predictorGeneticAlgorithm;
 
@@ -36,7 +39,7 @@ public class CEFloatSymbolicRegression extends PushGP {
     protected void initFromParameters() throws Exception {
         super.initFromParameters();
 
-        effort = 0;
+        effort.set(0);
 
         String cases = getParam("test-cases", true);
         String casesClass = getParam("test-case-class", true);
@@ -120,8 +123,9 @@ public class CEFloatSymbolicRegression extends PushGP {
 
     public float evaluateTestCase(GAIndividual inIndividual, Object inInput,
             Object inOutput) {
-        effort++;
+        effort.incrementAndGet();
 
+        Interpreter interpreter = getInterpreter();
         interpreter.clearStacks();
 
         currentInput = (Float) inInput;
@@ -133,7 +137,7 @@ public class CEFloatSymbolicRegression extends PushGP {
         // Must be included in order to use the input stack.
         interpreter.inputStack().push(currentInput);
 
-        interpreter.execute(((PushGPIndividual) inIndividual).program,
+        interpreter.execute(((PushGPIndividual) inIndividual).getProgram(),
                 executionLimit);
 
         float result = fstack.top();
@@ -182,6 +186,13 @@ public class CEFloatSymbolicRegression extends PushGP {
         return super.report();
     }
 
+    @Override
+    protected Callable<String> reportTask() {
+        success(); // Finds the real fitness of the best individual
+
+        return super.reportTask();
+    }
+
     private HashMap<String, String> GetPredictorParameters(
             HashMap<String, String> parameters) throws Exception {
 
@@ -230,7 +241,7 @@ public class CEFloatSymbolicRegression extends PushGP {
             if (i.getFitness() < bestMeanFitness) {
                 bestMeanFitness = i.getFitness();
                 bestIndividual = n;
-                bestSize = ((PushGPIndividual) i).program.programSize();
+                bestSize = ((PushGPIndividual) i).programSize();
                 bestErrors = i.getErrors();
             }
         }
@@ -254,13 +265,13 @@ public class CEFloatSymbolicRegression extends PushGP {
 
         for (int i = 0; i < steps; i++) {
             madeSimpler = false;
-            float method = random.nextInt(100);
+            float method = random().nextInt(100);
 
             if (trial.program.programSize() <= 0)
                 break;
             if (method < simplifyFlattenPercent) {
                 // Flatten random thing
-                int pointIndex = random.nextInt(trial.program.programSize());
+                int pointIndex = random().nextInt(trial.program.programSize());
                 Object point = trial.program.subtree(pointIndex);
 
                 if (point instanceof Program) {
@@ -269,13 +280,13 @@ public class CEFloatSymbolicRegression extends PushGP {
                 }
             } else {
                 // Remove small number of random things
-                int numberToRemove = random.nextInt(3) + 1;
+                int numberToRemove = random().nextInt(3) + 1;
 
                 for (int j = 0; j < numberToRemove; j++) {
                     int trialSize = trial.program.programSize();
 
                     if (trialSize > 0) {
-                        int pointIndex = random.nextInt(trialSize);
+                        int pointIndex = random().nextInt(trialSize);
                         trial.program.replaceSubtree(pointIndex, new Program());
                         trial.program.flatten(pointIndex);
                         madeSimpler = true;
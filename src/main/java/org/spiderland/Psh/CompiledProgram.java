@@ -0,0 +1,38 @@
+package org.spiderland.Psh;
+
+/**
+ * The compiled form of one level of a Push program: a dense array holding the
+ * opcode and inline operand of every element (see Opcodes), together with the
+ * elements themselves. Nested programs stay PROGRAM elements and are compiled
+ * on their own when they are executed.
+ */
+final class CompiledProgram {
+
+    /**
+     * Opcode and operand pairs, one pair per element.
+     */
+    final int[] code;
+
+    /**
+     * The elements of the program, in program order.
+     */
+    final Object[] elements;
+
+    CompiledProgram(Object[] inElements, int inSize) {
+        elements = new Object[inSize];
+        code = new int[2 * inSize];
+
+        for (int n = 0; n < inSize; n++) {
+            Object element = inElements[n];
+            int opcode = Opcodes.opcodeOf(element);
+
+            elements[n] = element;
+            code[2 * n] = opcode;
+            code[2 * n + 1] = Opcodes.operandOf(element, opcode);
+        }
+    }
+
+    int size() {
+        return elements.length;
+    }
+}
@@ -0,0 +1,469 @@
+package org.spiderland.Psh;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluates the populations of a genetic algorithm on worker processes, each
+ * connected with a RemoteEvaluator. Selection and reproduction stay with the
+ * algorithm, so the run is the same single population as without workers.
+ * <p>
+ * A population is split into batches of individuals, which are sent to the
+ * workers as they have room for them: each worker has at most a window of
+ * batches outstanding, so a slow worker holds only that much of the
+ * population and fast workers take the rest. The batches of a worker which
+ * disconnects are sent to another; a batch which has failed MAX_ATTEMPTS
+ * times, or finds no worker left, is evaluated by the algorithm itself. A
+ * worker which holds batches and returns none of them within the timeout is
+ * taken to have stalled, and is disconnected as if it had failed.
+ * <p>
+ * Messages are a type byte followed by their fields, written with
+ * DataOutputStream. Individuals are sent in the encoding of
+ * GeneticAlgorithm.encodeIndividual, and only their fitness and errors are
+ * sent back.
+ */
+final class EvaluationMaster {
+    // Master to worker: a batch id, a count and that many individuals
+    static final byte BATCH = 1;
+    // Worker to master: a batch id, a count and that many results
+    static final byte RESULTS = 2;
+
+    static final int MAX_ATTEMPTS = 3;
+
+    private final ServerSocket serverSocket;
+    private final int requiredWorkers;
+    private final int batchSize;
+    private final int window;
+    private final long timeout;
+
+    // Guarded by this
+    private final List<Worker> workers = new ArrayList<>();
+    private final Deque<Batch> queue = new ArrayDeque<>();
+    private int remaining;
+    private int nextBatch;
+    private int connected;
+    private int lost;
+    private boolean started;
+
+    /**
+     * Opens the master's port and starts accepting workers, which may connect
+     * or reconnect at any time.
+     *
+     * @param inPort      The port, or 0 for any free port.
+     * @param inWorkers   The number of workers to wait for before the first
+     *                    evaluation.
+     * @param inBatchSize The number of individuals sent to a worker at once.
+     * @param inWindow    The number of batches a worker may have outstanding.
+     * @param inTimeout   The milliseconds a worker may take to return a batch,
+     *                    counted from when it was sent or from the previous
+     *                    batch returned, whichever is later.
+     */
+    EvaluationMaster(int inPort, int inWorkers, int inBatchSize, int inWindow, long inTimeout)
+            throws IOException {
+        serverSocket = new ServerSocket(inPort);
+        requiredWorkers = inWorkers;
+        batchSize = Math.max(1, inBatchSize);
+        window = Math.max(1, inWindow);
+        timeout = Math.max(1, inTimeout);
+
+        Thread acceptor = new Thread(this::accept, "evaluation-master");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Opens the master of a run whose evaluation-server-port parameter is set,
+     * configured by the optional evaluation-workers, evaluation-batch-size,
+     * evaluation-window and evaluation-timeout parameters.
+     *
+     * @param inParameters The parameters of the run.
+     * @return the master, or null if evaluation-server-port is not set.
+     */
+    static EvaluationMaster create(HashMap<String, String> inParameters) throws Exception {
+        int defaultWorkers = 1;
+        int defaultBatchSize = 8;
+        int defaultWindow = 2;
+        float defaultTimeout = 60;
+
+        String port = inParameters.get("evaluation-server-port");
+
+        if (port == null)
+            return null;
+
+        int workers = (int) floatParameter(inParameters, "evaluation-workers", defaultWorkers);
+        int batchSize = (int) floatParameter(inParameters, "evaluation-batch-size", defaultBatchSize);
+        int window = (int) floatParameter(inParameters, "evaluation-window", defaultWindow);
+        float timeout = floatParameter(inParameters, "evaluation-timeout", defaultTimeout);
+
+        if (timeout <= 0)
+            throw new Exception("evaluation-timeout must be greater than 0. Currently set to " + timeout);
+
+        return new EvaluationMaster(Integer.parseInt(port), workers, batchSize, window, (long) (timeout * 1000));
+    }
+
+    private static float floatParameter(HashMap<String, String> inParameters, String inName, float inDefault) {
+        String value = inParameters.get(inName);
+        return value == null ? inDefault : Float.parseFloat(value);
+    }
+
+    int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Returns the number of workers currently connected.
+     */
+    synchronized int workers() {
+        return workers.size();
+    }
+
+    /**
+     * Returns the number of workers lost so far.
+     */
+    synchronized int lost() {
+        return lost;
+    }
+
+    /**
+     * Closes the master's port and its connections, which ends the workers.
+     */
+    void close() {
+        List<Worker> closing;
+
+        // Workers which are no longer listed are not counted as lost
+        synchronized (this) {
+            closing = new ArrayList<>(workers);
+            workers.clear();
+        }
+
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // Nothing left to release
+        }
+
+        for (Worker worker : closing)
+            worker.close();
+    }
+
+    private void accept() {
+        try {
+            while (true) {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+
+                Worker worker;
+
+                synchronized (this) {
+                    worker = new Worker(connected++, socket);
+                    workers.add(worker);
+                    notifyAll();
+                }
+
+                Thread receiver = new Thread(worker::receive, "evaluation-master-" + worker.id);
+                receiver.setDaemon(true);
+                receiver.start();
+            }
+        } catch (IOException e) {
+            // The master has been closed
+        }
+    }
+
+    /**
+     * Evaluates a population on the workers, setting the fitness and errors
+     * of every individual.
+     *
+     * @param inAlgorithm  The genetic algorithm the population belongs to.
+     * @param inPopulation The individuals to evaluate.
+     */
+    void evaluate(GeneticAlgorithm inAlgorithm, GAIndividual[] inPopulation) {
+        try {
+            synchronized (this) {
+                while (!started && connected < requiredWorkers)
+                    wait();
+
+                started = true;
+
+                for (int start = 0; start < inPopulation.length; start += batchSize) {
+                    int end = Math.min(start + batchSize, inPopulation.length);
+                    queue.add(new Batch(nextBatch++, inPopulation, start, end));
+                    remaining++;
+                }
+            }
+
+            while (true) {
+                List<Batch> local = new ArrayList<>();
+                List<Dispatch> sent = new ArrayList<>();
+
+                synchronized (this) {
+                    while (remaining > 0 && !dispatch(local, sent)) {
+                        long wait = expire();
+
+                        if (wait >= 0)
+                            wait(wait);
+                    }
+
+                    if (remaining == 0)
+                        return;
+                }
+
+                for (Dispatch dispatch : sent)
+                    dispatch.worker().send(inAlgorithm, dispatch.batch());
+
+                for (Batch batch : local) {
+                    for (int n = batch.start; n < batch.end; n++)
+                        inAlgorithm.evaluateSlot(batch.population, n);
+
+                    synchronized (this) {
+                        remaining--;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for evaluation workers", e);
+        }
+    }
+
+    /**
+     * Takes the queued batches which can be handled now: those which are to
+     * be evaluated locally, and those which fit in a worker's window. Must be
+     * called holding the lock.
+     *
+     * @return true if any batch was taken.
+     */
+    private boolean dispatch(List<Batch> outLocal, List<Dispatch> outSent) {
+        while (!queue.isEmpty()) {
+            Batch batch = queue.peek();
+
+            if (workers.isEmpty() || batch.attempts >= MAX_ATTEMPTS) {
+                outLocal.add(queue.poll());
+                continue;
+            }
+
+            Worker worker = null;
+
+            for (Worker w : workers) {
+                if (w.outstanding.size() < window && (worker == null
+                        || w.outstanding.size() < worker.outstanding.size()))
+                    worker = w;
+            }
+
+            if (worker == null)
+                break;
+
+            queue.poll();
+            batch.attempts++;
+
+            if (worker.outstanding.isEmpty())
+                worker.deadline = System.nanoTime() + timeout * 1_000_000;
+
+            worker.outstanding.put(batch.id, batch);
+            outSent.add(new Dispatch(worker, batch));
+        }
+
+        return !outLocal.isEmpty() || !outSent.isEmpty();
+    }
+
+    /**
+     * Disconnects the workers which have stalled, so that their batches go
+     * back to the queue. Must be called holding the lock.
+     *
+     * @return the milliseconds until the next worker could stall, 0 if no
+     *         worker has batches outstanding, or -1 if a worker was
+     *         disconnected and its batches are to be dispatched again.
+     */
+    private long expire() {
+        long now = System.nanoTime();
+        long next = Long.MAX_VALUE;
+        boolean expired = false;
+
+        for (Worker worker : new ArrayList<>(workers)) {
+            if (worker.outstanding.isEmpty())
+                continue;
+
+            if (worker.deadline - now <= 0) {
+                // Its receiver then ends without finding it listed
+                worker.close();
+                failed(worker);
+                expired = true;
+            } else {
+                next = Math.min(next, worker.deadline - now);
+            }
+        }
+
+        if (expired)
+            return -1;
+
+        return next == Long.MAX_VALUE ? 0 : next / 1_000_000 + 1;
+    }
+
+    private synchronized void completed(Worker inWorker, Batch inBatch) {
+        inWorker.outstanding.remove(inBatch.id);
+        inWorker.deadline = System.nanoTime() + timeout * 1_000_000;
+        remaining--;
+        notifyAll();
+    }
+
+    private synchronized void failed(Worker inWorker) {
+        if (!workers.remove(inWorker))
+            return;
+
+        lost++;
+
+        // Its batches go back to the front of the queue, for another worker
+        for (Batch batch : inWorker.outstanding.values())
+            queue.addFirst(batch);
+
+        inWorker.outstanding.clear();
+        notifyAll();
+    }
+
+    /**
+     * Writes the fitness and errors of an individual.
+     */
+    static void writeResult(DataOutputStream inOut, GAIndividual inIndividual) throws IOException {
+        float[] errors = inIndividual.getErrorArray();
+
+        inOut.writeFloat(inIndividual.getFitness());
+        inOut.writeInt(errors == null ? -1 : errors.length);
+
+        if (errors != null) {
+            for (float error : errors)
+                inOut.writeFloat(error);
+        }
+    }
+
+    /**
+     * Reads the fitness and errors of an individual written by writeResult.
+     */
+    static void readResult(DataInputStream inIn, GAIndividual inIndividual) throws IOException {
+        float fitness = inIn.readFloat();
+        int count = inIn.readInt();
+        float[] errors = null;
+
+        if (count >= 0) {
+            errors = new float[count];
+
+            for (int n = 0; n < count; n++)
+                errors[n] = inIn.readFloat();
+        }
+
+        // An individual has an error for each test case it was scored on
+        inIndividual.setFitness(fitness, Math.max(0, count));
+        inIndividual.setErrors(errors);
+    }
+
+    /**
+     * A range of a population, sent to a worker as one message.
+     */
+    private static final class Batch {
+        final int id;
+        final GAIndividual[] population;
+        final int start;
+        final int end;
+
+        int attempts;
+
+        Batch(int inId, GAIndividual[] inPopulation, int inStart, int inEnd) {
+            id = inId;
+            population = inPopulation;
+            start = inStart;
+            end = inEnd;
+        }
+    }
+
+    /**
+     * A batch to be sent to a worker, which is decided while holding the lock
+     * and done after releasing it.
+     */
+    private record Dispatch(Worker worker, Batch batch) {
+    }
+
+    /**
+     * The connection to one worker.
+     */
+    private final class Worker {
+        final int id;
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+
+        // The batches sent to the worker and not yet returned, and the
+        // System.nanoTime by which it must return the next of them; guarded
+        // by the master
+        final Map<Integer, Batch> outstanding = new HashMap<>();
+        long deadline;
+
+        Worker(int inId, Socket inSocket) throws IOException {
+            id = inId;
+            socket = inSocket;
+            in = new DataInputStream(new BufferedInputStream(inSocket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(inSocket.getOutputStream()));
+        }
+
+        void send(GeneticAlgorithm inAlgorithm, Batch inBatch) {
+            try {
+                synchronized (out) {
+                    out.writeByte(BATCH);
+                    out.writeInt(inBatch.id);
+                    out.writeInt(inBatch.end - inBatch.start);
+
+                    for (int n = inBatch.start; n < inBatch.end; n++)
+                        IslandServer.writeBlock(out, inAlgorithm.encodeIndividual(inBatch.population[n]));
+
+                    out.flush();
+                }
+            } catch (IOException e) {
+                close();
+                failed(this);
+            }
+        }
+
+        void receive() {
+            try (socket) {
+                while (true) {
+                    if (in.readByte() != RESULTS)
+                        throw new IOException("Unknown evaluation message");
+
+                    int id = in.readInt();
+                    int count = in.readInt();
+                    Batch batch;
+
+                    synchronized (EvaluationMaster.this) {
+                        batch = outstanding.get(id);
+                    }
+
+                    if (batch == null || count != batch.end - batch.start)
+                        throw new IOException("Unexpected results for batch " + id);
+
+                    for (int n = batch.start; n < batch.end; n++)
+                        readResult(in, batch.population[n]);
+
+                    completed(this, batch);
+                }
+            } catch (IOException e) {
+                failed(this);
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Nothing left to release
+            }
+        }
+    }
+}
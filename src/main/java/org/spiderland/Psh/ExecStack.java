@@ -0,0 +1,397 @@
+package org.spiderland.Psh;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.Arrays;
+
+/**
+ * The Push exec stack.
+ * <p>
+ * Alongside each item the exec stack keeps the item's opcode and inline
+ * operand (see Opcodes), so that the interpreter can dispatch on an int
+ * instead of inspecting the item. Unlike other object stacks, programs pushed
+ * onto the exec stack are not copied: exec items are only ever executed,
+ * moved or copied elsewhere, never edited in place.
+ * <p>
+ * Entering a program does not push its elements one by one. Instead a single
+ * slot holds a continuation: a compiled program and the index of its next
+ * element. Popping takes elements off the continuation in order, and the
+ * continuation is only expanded into separate items when an instruction
+ * needs to reach below its first element.
+ */
+public class ExecStack extends ObjectStack {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The opcode of a continuation slot, whose operand is the index of the
+     * next element of the compiled program held in the slot.
+     */
+    private static final int CONTINUATION = -5;
+
+    /**
+     * Opcode and operand pairs, one pair per slot. Opcodes are only
+     * meaningful within one JVM, so they are rebuilt on deserialization.
+     */
+    protected transient int[] codes;
+
+    /**
+     * The number of occupied slots. The size of the stack counts the items
+     * remaining in each continuation, so it may be larger.
+     */
+    protected int slots;
+
+    void resize(int inSize) {
+        Object[] newstack = new Object[inSize];
+        int[] newcodes = new int[2 * inSize];
+
+        if (stack != null) {
+            System.arraycopy(stack, 0, newstack, 0, slots);
+            System.arraycopy(codes, 0, newcodes, 0, 2 * slots);
+        }
+
+        stack = newstack;
+        codes = newcodes;
+        maxsize = inSize;
+    }
+
+    private void ensureCapacity(int inSlots) {
+        if (inSlots >= maxsize)
+            resize(Math.max(2 * maxsize, inSlots + 1));
+    }
+
+    /**
+     * Returns the opcode of the top item, or Opcodes.OBJECT if the stack is
+     * empty.
+     */
+    public int topOpcode() {
+        if (slots == 0)
+            return Opcodes.OBJECT;
+
+        int opcode = codes[2 * slots - 2];
+
+        if (opcode != CONTINUATION)
+            return opcode;
+
+        return ((CompiledProgram) stack[slots - 1]).code[2 * codes[2 * slots - 1]];
+    }
+
+    /**
+     * Returns the inline operand of the top item.
+     */
+    public int topOperand() {
+        if (slots == 0)
+            return 0;
+
+        if (codes[2 * slots - 2] != CONTINUATION)
+            return codes[2 * slots - 1];
+
+        return ((CompiledProgram) stack[slots - 1]).code[2 * codes[2 * slots - 1] + 1];
+    }
+
+    public Object top() {
+        if (slots == 0)
+            return null;
+
+        if (codes[2 * slots - 2] != CONTINUATION)
+            return stack[slots - 1];
+
+        return ((CompiledProgram) stack[slots - 1]).elements[codes[2 * slots - 1]];
+    }
+
+    public Object peek(int inIndex) {
+        if (inIndex < 0 || inIndex >= size)
+            return null;
+
+        expandTop(size - inIndex);
+
+        return stack[slots - size + inIndex];
+    }
+
+    public Object pop() {
+        if (slots == 0)
+            return null;
+
+        int slot = slots - 1;
+
+        size--;
+
+        if (codes[2 * slot] != CONTINUATION) {
+            slots = slot;
+            return stack[slot];
+        }
+
+        CompiledProgram program = (CompiledProgram) stack[slot];
+        int next = codes[2 * slot + 1];
+
+        if (next + 1 == program.size())
+            slots = slot;
+        else
+            codes[2 * slot + 1] = next + 1;
+
+        return program.elements[next];
+    }
+
+    public void popdiscard() {
+        pop();
+    }
+
+    public void clear() {
+        size = 0;
+        slots = 0;
+    }
+
+    public void push(Object inValue) {
+        int opcode = Opcodes.opcodeOf(inValue);
+
+        push(inValue, opcode, Opcodes.operandOf(inValue, opcode));
+    }
+
+    void push(Object inValue, int inOpcode, int inOperand) {
+        stack[slots] = inValue;
+        codes[2 * slots] = inOpcode;
+        codes[2 * slots + 1] = inOperand;
+        slots++;
+        size++;
+
+        if (slots >= maxsize)
+            resize(2 * maxsize);
+    }
+
+    /**
+     * Pushes the elements of a compiled program so that its first element is
+     * on top of the stack. This takes a single slot, whatever the size of the
+     * program.
+     */
+    void pushAllReverse(CompiledProgram inProgram) {
+        int length = inProgram.size();
+
+        if (length == 0)
+            return;
+
+        if (length == 1) {
+            push(inProgram.elements[0], inProgram.code[0], inProgram.code[1]);
+            return;
+        }
+
+        push(inProgram, CONTINUATION, 0);
+        size += length - 1;
+    }
+
+    public void pushAllReverse(ObjectStack inOther) {
+        expandTop(size);
+        super.pushAllReverse(inOther);
+    }
+
+    /**
+     * Expands continuations until the top items of the stack each have a
+     * slot of their own.
+     *
+     * @param inCount The number of items to expand.
+     */
+    private void expandTop(int inCount) {
+        int remaining = Math.min(inCount, size);
+        int slot = slots - 1;
+
+        while (remaining > 0) {
+            if (codes[2 * slot] != CONTINUATION) {
+                remaining--;
+                slot--;
+                continue;
+            }
+
+            CompiledProgram program = (CompiledProgram) stack[slot];
+            int next = codes[2 * slot + 1];
+            int available = program.size() - next;
+            int taken = Math.min(available, remaining);
+            boolean rest = taken < available;
+            int added = taken - (rest ? 0 : 1);
+
+            ensureCapacity(slots + added);
+
+            System.arraycopy(stack, slot + 1, stack, slot + 1 + added, slots - slot - 1);
+            System.arraycopy(codes, 2 * slot + 2, codes, 2 * (slot + 1 + added), 2 * (slots - slot - 1));
+
+            int k = slot;
+
+            if (rest) {
+                codes[2 * k + 1] = next + taken;
+                k++;
+            }
+
+            for (int n = next + taken - 1; n >= next; n--) {
+                stack[k] = program.elements[n];
+                codes[2 * k] = program.code[2 * n];
+                codes[2 * k + 1] = program.code[2 * n + 1];
+                k++;
+            }
+
+            slots += added;
+            remaining -= taken;
+            slot--;
+        }
+    }
+
+    /**
+     * Makes this stack a copy of another. Continuations are copied as they
+     * are, sharing their compiled programs.
+     */
+    void copyFrom(ExecStack inOther) {
+        if (maxsize <= inOther.slots)
+            resize(inOther.maxsize);
+
+        System.arraycopy(inOther.stack, 0, stack, 0, inOther.slots);
+        System.arraycopy(inOther.codes, 0, codes, 0, 2 * inOther.slots);
+        slots = inOther.slots;
+        size = inOther.size;
+    }
+
+    public void dup() {
+        if (size > 0)
+            push(top(), topOpcode(), topOperand());
+    }
+
+    public void yankdup(int inIndex) {
+        if (size > 0) {
+            if (inIndex < 0) {
+                inIndex = 0;
+            }
+            if (inIndex > size - 1) {
+                inIndex = size - 1;
+            }
+
+            expandTop(inIndex + 1);
+
+            int slot = slots - inIndex - 1;
+            push(stack[slot], codes[2 * slot], codes[2 * slot + 1]);
+        }
+    }
+
+    public void shove(Object obj, int n) {
+        if (n > size)
+            n = size;
+
+        expandTop(n);
+        ensureCapacity(slots + 1);
+
+        n = slots - n;
+
+        int opcode = Opcodes.opcodeOf(obj);
+
+        System.arraycopy(stack, n, stack, n + 1, slots - n);
+        System.arraycopy(codes, 2 * n, codes, 2 * n + 2, 2 * (slots - n));
+        stack[n] = obj;
+        codes[2 * n] = opcode;
+        codes[2 * n + 1] = Opcodes.operandOf(obj, opcode);
+        slots++;
+        size++;
+
+        if (slots >= maxsize)
+            resize(2 * maxsize);
+    }
+
+    public void shove(int inIndex) {
+        if (size > 0) {
+            if (inIndex < 0) {
+                inIndex = 0;
+            }
+            if (inIndex > size - 1) {
+                inIndex = size - 1;
+            }
+
+            expandTop(inIndex + 1);
+            move(slots - 1, slots - inIndex - 1);
+        }
+    }
+
+    public void swap() {
+        if (size > 1) {
+            expandTop(2);
+            move(slots - 1, slots - 2);
+        }
+    }
+
+    public void rot() {
+        if (size > 2) {
+            expandTop(3);
+            move(slots - 3, slots - 1);
+        }
+    }
+
+    public void yank(int inIndex) {
+        if (size > 0) {
+            if (inIndex < 0) {
+                inIndex = 0;
+            }
+            if (inIndex > size - 1) {
+                inIndex = size - 1;
+            }
+
+            expandTop(inIndex + 1);
+            move(slots - inIndex - 1, slots - 1);
+        }
+    }
+
+    /**
+     * Moves the item in one slot to another, shifting the slots between them
+     * by one place.
+     */
+    private void move(int inFrom, int inTo) {
+        if (inFrom == inTo)
+            return;
+
+        Object item = stack[inFrom];
+        int opcode = codes[2 * inFrom];
+        int operand = codes[2 * inFrom + 1];
+
+        if (inFrom < inTo) {
+            System.arraycopy(stack, inFrom + 1, stack, inFrom, inTo - inFrom);
+            System.arraycopy(codes, 2 * inFrom + 2, codes, 2 * inFrom, 2 * (inTo - inFrom));
+        } else {
+            System.arraycopy(stack, inTo, stack, inTo + 1, inFrom - inTo);
+            System.arraycopy(codes, 2 * inTo, codes, 2 * inTo + 2, 2 * (inFrom - inTo));
+        }
+
+        stack[inTo] = item;
+        codes[2 * inTo] = opcode;
+        codes[2 * inTo + 1] = operand;
+    }
+
+    public boolean equals(Object inOther) {
+        expandTop(size);
+        return super.equals(inOther);
+    }
+
+    boolean compareStack(Object[] inOther, int inOtherSize) {
+        expandTop(size);
+        return super.compareStack(inOther, inOtherSize);
+    }
+
+    public String toString() {
+        expandTop(size);
+        return super.toString();
+    }
+
+    /**
+     * Expands all continuations before the stack is serialized, as compiled
+     * programs are never serialized. This has to happen before the fields of
+     * ObjectStack are written, hence writeReplace rather than writeObject.
+     */
+    private Object writeReplace() {
+        expandTop(size);
+        Arrays.fill(stack, slots, stack.length, null);
+        return this;
+    }
+
+    private void readObject(ObjectInputStream inStream) throws IOException, ClassNotFoundException {
+        inStream.defaultReadObject();
+
+        codes = new int[2 * maxsize];
+
+        for (int n = 0; n < slots; n++) {
+            int opcode = Opcodes.opcodeOf(stack[n]);
+
+            codes[2 * n] = opcode;
+            codes[2 * n + 1] = Opcodes.operandOf(stack[n], opcode);
+        }
+    }
+}
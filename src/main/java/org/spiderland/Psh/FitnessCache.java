@@ -0,0 +1,93 @@
+package org.spiderland.Psh;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of the fitness and errors of recently evaluated programs,
+ * keyed by program structure. When full, the least recently used program is
+ * forgotten. The cache is only correct for problems whose fitness depends on
+ * nothing but the program, so it is disabled by default.
+ */
+public class FitnessCache {
+
+    private final Map<Program, Entry> entries;
+
+    private long hits;
+    private long misses;
+
+    /**
+     * Constructs a cache remembering up to a given number of programs.
+     *
+     * @param inCapacity The maximum number of programs to remember.
+     */
+    public FitnessCache(int inCapacity) {
+        entries = new LinkedHashMap<>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Program, Entry> inEldest) {
+                return size() > inCapacity;
+            }
+        };
+    }
+
+    /**
+     * Sets the fitness and errors of an individual from the cache, if its
+     * program has been evaluated before.
+     *
+     * @param inProgram    The program of the individual.
+     * @param inIndividual The individual to set the fitness of.
+     * @return True if the program was found in the cache.
+     */
+    public synchronized boolean lookup(Program inProgram, GAIndividual inIndividual) {
+        Entry entry = entries.get(inProgram);
+
+        if (entry == null) {
+            misses++;
+            return false;
+        }
+
+        hits++;
+        inIndividual.setFitness(entry.fitness, entry.errors.length);
+        inIndividual.setErrors(entry.errors);
+
+        return true;
+    }
+
+    /**
+     * Remembers the fitness and errors of a program. The errors array is shared
+     * by all individuals that later hit this entry, and must not be modified.
+     *
+     * @param inProgram The evaluated program.
+     * @param inFitness The fitness of the program.
+     * @param inErrors  The errors of the program.
+     */
+    public synchronized void store(Program inProgram, float inFitness, float[] inErrors) {
+        // The program may be modified once evaluated, so the cache keeps its
+        // own copy, which shares the nested programs.
+        entries.put(new Program(inProgram), new Entry(inFitness, inErrors));
+    }
+
+    /**
+     * Forgets all programs, for instance when the test cases change.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private record Entry(float fitness, float[] errors) {
+    }
+}
@@ -1,9 +1,11 @@
 package org.spiderland.Psh;
 
 import java.io.Serializable;
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
+import java.util.RandomAccess;
 
 /**
  * An abstract GP individual class containing a fitness value. The fitness value
@@ -17,24 +19,119 @@ public abstract class GAIndividual implements Serializable {
     private static final long serialVersionUID = 1L;
 
     private float fitness;
-    private List<Float> errors;
+    private float[] errors;
     protected boolean fitnessSet;
 
+    // The number of test cases the fitness was computed on, which is fewer
+    // than all for an individual eliminated by racing, or 0 if not known
+    private int fitnessCases;
+
     public float getFitness() {
         return fitness;
     }
 
     public void setFitness(float inFitness) {
+        setFitness(inFitness, 0);
+    }
+
+    /**
+     * Sets the fitness of an individual computed on a number of test cases.
+     *
+     * @param inFitness The fitness.
+     * @param inCases   The number of test cases it was computed on, or 0 if
+     *                  that is not known.
+     */
+    public void setFitness(float inFitness, int inCases) {
         fitness = inFitness;
         fitnessSet = true;
+        fitnessCases = inCases;
+    }
+
+    public int getFitnessCases() {
+        return fitnessCases;
+    }
+
+    /**
+     * Clears the fitness and errors of the individual, as for a new clone.
+     */
+    protected void resetFitness() {
+        fitness = 0;
+        errors = null;
+        fitnessSet = false;
+        fitnessCases = 0;
+    }
+
+    /**
+     * Returns a clone of the individual which keeps its fitness and errors,
+     * for a checkpoint to write while the population moves on, or for a
+     * migrant. Error arrays are never written once set, so they are shared.
+     */
+    GAIndividual evaluatedCopy() {
+        GAIndividual result = clone();
+        result.fitness = fitness;
+        result.errors = errors;
+        result.fitnessSet = fitnessSet;
+        result.fitnessCases = fitnessCases;
+
+        return result;
+    }
+
+    /**
+     * Returns whether this individual is fitter than another. An individual
+     * whose fitness was computed on more test cases outranks one eliminated by
+     * racing after fewer; otherwise the lower fitness is the fitter, and
+     * any fitness is fitter than NaN.
+     */
+    public boolean isFitterThan(GAIndividual inOther) {
+        return isFitter(fitness, fitnessCases, inOther.fitness, inOther.fitnessCases);
+    }
+
+    /**
+     * Compares two fitness values, and the numbers of test cases they were
+     * computed on, as isFitterThan.
+     */
+    static boolean isFitter(float inFitness, int inCases, float inOtherFitness, int inOtherCases) {
+        if (inCases != inOtherCases && inCases > 0 && inOtherCases > 0)
+            return inCases > inOtherCases;
+
+        return inFitness < inOtherFitness || (Float.isNaN(inOtherFitness) && !Float.isNaN(inFitness));
     }
 
+    /**
+     * Returns the errors of the individual on each test case, as a read-only
+     * view of getErrorArray.
+     */
     public List<Float> getErrors() {
+        return errors == null ? null : new ErrorList(errors);
+    }
+
+    /**
+     * Returns the errors of the individual on each test case. The array is
+     * shared, and must not be modified.
+     */
+    public float[] getErrorArray() {
         return errors;
     }
 
-    public void setErrors(List<Float> errors) {
-        this.errors = errors;
+    public void setErrors(List<Float> inErrors) {
+        if (inErrors == null) {
+            errors = null;
+        } else if (inErrors instanceof ErrorList list) {
+            errors = list.errors;
+        } else {
+            errors = new float[inErrors.size()];
+
+            for (int n = 0; n < errors.length; n++)
+                errors[n] = inErrors.get(n);
+        }
+    }
+
+    /**
+     * Sets the errors of the individual on each test case. The array is kept,
+     * and must not be modified afterwards.
+     */
+    public void setErrors(float[] inErrors) {
+        errors = inErrors;
     }
 
     public boolean isFitnessSet() {
@@ -46,13 +143,48 @@ public abstract class GAIndividual implements Serializable {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         GAIndividual that = (GAIndividual) o;
-        return Float.compare(that.fitness, fitness) == 0 && fitnessSet == that.fitnessSet && Objects.equals(errors, that.errors);
+        return Float.compare(that.fitness, fitness) == 0 && fitnessSet == that.fitnessSet && Arrays.equals(errors, that.errors);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(fitness, errors, fitnessSet);
+        return Objects.hash(fitness, Arrays.hashCode(errors), fitnessSet);
+    }
+
+    /**
+     * A read-only list of errors, which boxes each error only as it is read.
+     */
+    private static final class ErrorList extends AbstractList<Float> implements RandomAccess, Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final float[] errors;
+
+        ErrorList(float[] inErrors) {
+            errors = inErrors;
+        }
+
+        @Override
+        public Float get(int inIndex) {
+            return errors[inIndex];
+        }
+
+        @Override
+        public int size() {
+            return errors.length;
+        }
     }
 
     public abstract GAIndividual clone();
+
+    /**
+     * Returns a clone of this individual, reusing the storage of an individual
+     * which is no longer needed where possible. By default the storage is not
+     * reused and clone is returned.
+     *
+     * @param inDiscarded An individual which is no longer referenced, or null.
+     * @return The clone, which may be inDiscarded.
+     */
+    public GAIndividual cloneInto(GAIndividual inDiscarded) {
+        return clone();
+    }
 }
@@ -1,18 +1,30 @@
 package org.spiderland.Psh;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Random;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * An abstract class for running genetic algorithms.
@@ -20,6 +32,10 @@ import java.util.zip.GZIPOutputStream;
 public abstract class GeneticAlgorithm implements Serializable {
     private static final long serialVersionUID = 1L;
 
+    // The slots of a population, for reading and replacing individuals while
+    // other threads do the same.
+    static final VarHandle POPULATION_SLOT = MethodHandles.arrayElementVarHandle(GAIndividual[].class);
+
     protected GAIndividual[][] populations;
     protected int currentPopulation;
     protected int generationCount;
@@ -36,8 +52,55 @@ public abstract class GeneticAlgorithm implements Serializable {
     protected int maxGenerations;
     protected int tournamentSize;
     protected int trivialGeographyRadius;
+    protected int evaluationThreads;
+
+    // With the steady-state reproduction mode, the number of evaluations
+    // between reports, and the number of children evaluated so far
+    protected boolean steadyState;
+    protected int reportInterval;
+    protected long steadyStateEvaluations;
+
+    // With the background report mode, the thread generational reports are
+    // made on, the last report submitted to it, and, on that thread, the
+    // test cases of the generation being reported on
+    protected boolean backgroundReports;
+    protected transient ExecutorService reportExecutor;
+    private transient Future<?> pendingReport;
+    private transient ThreadLocal<List<GATestCase>> reportedTestCases;
+
+    // The selection mode, the fraction of the test cases each generation is
+    // evaluated on with downsampled-lexicase, and that generation's sample
+    protected String selectionMode;
+    protected float downsampleRate;
+    protected List<GATestCase> caseSample;
+    protected transient LexicaseSelection lexicaseSelection;
+
+    // The fitness, fitness cases and selection sizes of the current
+    // population, copied while a generation is reproduced so that tournaments
+    // compare primitives
+    private transient float[] selectionFitness;
+    private transient int[] selectionCases;
+    private transient int[] selectionSizes;
+    private transient boolean selectionColumns;
+
+    // While a generation is reproduced, the population it replaces, whose
+    // individuals are recycled as the clones for their slots
+    private transient GAIndividual[] discarded;
+
+    // With racing evaluation, the number of test cases every individual is
+    // scored on, or 0, and the fraction kept after each round
+    protected int racingCases;
+    protected float racingSurvival;
 
     protected Random random;
+    protected long seed;
+
+    // The random number generator of the reproduction or evaluation event
+    // each thread is running, if any.
+    private transient ThreadLocal<Random> reproductionRandom;
+
+    // Keeps the evaluation streams apart from those of the reproduction slots
+    private static final long EVALUATION_STREAMS = 1L << 62;
 
     protected HashMap<String, String> parameters;
     public List<GATestCase> testCases;
@@ -45,11 +108,42 @@ public abstract class GeneticAlgorithm implements Serializable {
     protected Class<?> individualClass;
 
     protected transient OutputStream outputStream;
+    protected transient ForkJoinPool evaluationPool;
 
     protected Checkpoint checkpoint;
+
+    // The islands of the run, if it has more than one: the island model or
+    // server of the algorithm coordinating them, or the link of an island
+    // to the others and which island it is
+    protected IslandModel islandModel;
+    protected transient IslandServer islandServer;
+    protected IslandLink islandLink;
+    protected int island = -1;
+
+    // The workers evaluating the populations of this algorithm, or the
+    // connection of this algorithm, as a worker, to the run it evaluates for
+    protected transient EvaluationMaster evaluationMaster;
+    protected transient RemoteEvaluator remoteEvaluator;
     protected String checkpointPrefix;
     protected String outputFile;
 
+    // Every how many checkpoints one is full rather than a delta of the last
+    // full one, how many full checkpoints are kept, the writer of the
+    // checkpoints, and how many were written since the last full one, whose
+    // report had the given length
+    protected int fullCheckpointInterval;
+    protected int checkpointRetention;
+    protected transient CheckpointWriter checkpointWriter;
+    private transient int checkpointsSinceFull;
+    private transient int fullReportLength;
+
+    // The run log, if any, and the size of its files, and whether reports
+    // show the errors of the best program on each test case
+    protected String runLogPath;
+    protected long runLogSize;
+    protected transient RunLog runLog;
+    protected boolean reportErrors;
+
     /**
      * Factor method for creating a GA object, with the GA class specified by
      * the problem-class parameter.
@@ -73,17 +167,18 @@ public abstract class GeneticAlgorithm implements Serializable {
 
     public static GeneticAlgorithm gaWithCheckpoint(String checkpointFilename) throws Exception {
         File checkpointFile = new File(checkpointFilename);
-        try (ObjectInputStream oin = new ObjectInputStream(new GZIPInputStream(new FileInputStream(checkpointFile)))) {
-            Checkpoint checkpoint = (Checkpoint) oin.readObject();
-            GeneticAlgorithm geneticAlgorithm = checkpoint.getGeneticAlgorithm();
-            geneticAlgorithm.checkpoint = checkpoint;
-            geneticAlgorithm.checkpoint.checkpointNumber++; // because it gets increased only after checkpoint is written
+        Checkpoint checkpoint = CheckpointWriter.read(checkpointFile);
+        GeneticAlgorithm geneticAlgorithm = checkpoint.getGeneticAlgorithm();
+        geneticAlgorithm.checkpoint = checkpoint;
+        geneticAlgorithm.checkpoint.checkpointNumber++; // because it gets increased only after checkpoint is written
 
-            System.out.println(checkpoint.report.toString());
-            geneticAlgorithm.outputStream = geneticAlgorithm.outputFile == null ? System.out : new FileOutputStream(geneticAlgorithm.outputFile);
+        System.out.println(checkpoint.report.toString());
+        geneticAlgorithm.outputStream = geneticAlgorithm.outputFile == null ? System.out
+                : new BufferedOutputStream(new FileOutputStream(geneticAlgorithm.outputFile));
 
-            return geneticAlgorithm;
-        }
+        geneticAlgorithm.openRunLog();
+
+        return geneticAlgorithm;
     }
 
     protected GeneticAlgorithm() {
@@ -180,6 +275,21 @@ public abstract class GeneticAlgorithm implements Serializable {
         // Default parameters to be used when optional parameters are not
         // given.
         int defaultTrivialGeographyRadius = 0;
+        int defaultEvaluationThreads = 1;
+        int defaultIslands = 1;
+        int defaultMigrationInterval = 10;
+        int defaultMigrationSize = 5;
+        String defaultMigrationTopology = "ring";
+        String defaultReproductionMode = "generational";
+        String defaultReportMode = "foreground";
+        long defaultRunLogSize = 100000000;
+        int defaultFullCheckpointInterval = 1;
+        int defaultCheckpointRetention = 0;
+        String defaultReportVerbosity = "errors";
+        String defaultSelectionMode = "tournament";
+        float defaultDownsampleRate = 0.25f;
+        int defaultRacingCases = 0;
+        float defaultRacingSurvival = 0.5f;
         String defaultIndividualClass = "org.spiderland.Psh.PushGPIndividual";
 
         String individualClass = getParam("individual-class", true);
@@ -200,15 +310,199 @@ public abstract class GeneticAlgorithm implements Serializable {
             trivialGeographyRadius = (int) getFloatParam("trivial-geography-radius", true);
         }
 
+        // random-seed is an optional parameter
+        String seedString = getParam("random-seed", true);
+        if (seedString == null) {
+            seed = random.nextLong();
+        } else {
+            seed = Long.parseLong(seedString);
+            random.setSeed(seed);
+        }
+
+        // evaluation-threads is an optional parameter
+        if (Float.isNaN(getFloatParam("evaluation-threads", true))) {
+            evaluationThreads = defaultEvaluationThreads;
+        } else {
+            evaluationThreads = (int) getFloatParam("evaluation-threads", true);
+        }
+
+        // reproduction-mode and report-interval are optional parameters
+        String reproductionMode = getParam("reproduction-mode", true);
+        if (reproductionMode == null) {
+            reproductionMode = defaultReproductionMode;
+        }
+
+        if (!reproductionMode.equals("generational") && !reproductionMode.equals("steady-state")) {
+            throw new Exception("reproduction-mode must be set to generational or steady-state. Currently set to "
+                    + reproductionMode);
+        }
+
+        steadyState = reproductionMode.equals("steady-state");
+
+        // report-mode is an optional parameter
+        String reportMode = getParam("report-mode", true);
+        if (reportMode == null) {
+            reportMode = defaultReportMode;
+        }
+
+        if (!reportMode.equals("foreground") && !reportMode.equals("background")) {
+            throw new Exception("report-mode must be set to foreground or background. Currently set to "
+                    + reportMode);
+        }
+
+        backgroundReports = reportMode.equals("background");
+
+        if (Float.isNaN(getFloatParam("report-interval", true))) {
+            reportInterval = (int) getFloatParam("population-size");
+        } else {
+            reportInterval = Math.max(1, (int) getFloatParam("report-interval", true));
+        }
+
+        // selection-mode and downsample-rate are optional parameters
+        selectionMode = getParam("selection-mode", true);
+        if (selectionMode == null) {
+            selectionMode = defaultSelectionMode;
+        }
+
+        if (!selectionMode.equals("tournament") && !selectionMode.equals("lexicase")
+                && !selectionMode.equals("epsilon-lexicase") && !selectionMode.equals("downsampled-lexicase")) {
+            throw new Exception("selection-mode must be set to tournament, lexicase, epsilon-lexicase or "
+                    + "downsampled-lexicase. Currently set to " + selectionMode);
+        }
+
+        // The steady-state mode evaluates children as they are bred, never
+        // the population as a whole, so it has no generation to sample for
+        if (steadyState && selectionMode.equals("downsampled-lexicase")) {
+            throw new Exception("selection-mode cannot be set to downsampled-lexicase when reproduction-mode is set "
+                    + "to steady-state");
+        }
+
+        if (Float.isNaN(getFloatParam("downsample-rate", true))) {
+            downsampleRate = defaultDownsampleRate;
+        } else {
+            downsampleRate = getFloatParam("downsample-rate", true);
+        }
+
+        // racing-cases and racing-survival are optional parameters
+        if (Float.isNaN(getFloatParam("racing-cases", true))) {
+            racingCases = defaultRacingCases;
+        } else {
+            racingCases = (int) getFloatParam("racing-cases", true);
+        }
+
+        if (Float.isNaN(getFloatParam("racing-survival", true))) {
+            racingSurvival = defaultRacingSurvival;
+        } else {
+            racingSurvival = getFloatParam("racing-survival", true);
+        }
+
+        // Individuals eliminated by racing have errors on only some of the
+        // test cases, which lexicase selection cannot compare
+        if (racingCases > 0 && !selectionMode.equals("tournament")) {
+            throw new Exception("racing-cases must be 0 when selection-mode is set to " + selectionMode
+                    + ". Currently set to " + racingCases);
+        }
+
         checkpointPrefix = getParam("checkpoint-prefix", true);
         checkpoint = new Checkpoint(this);
 
-        resizeAndInitialize((int) getFloatParam("population-size"));
+        // full-checkpoint-interval and checkpoint-retention are optional
+        // parameters
+        fullCheckpointInterval = defaultFullCheckpointInterval;
+        if (!Float.isNaN(getFloatParam("full-checkpoint-interval", true))) {
+            fullCheckpointInterval = Math.max(1, (int) getFloatParam("full-checkpoint-interval", true));
+        }
+
+        checkpointRetention = defaultCheckpointRetention;
+        if (!Float.isNaN(getFloatParam("checkpoint-retention", true))) {
+            checkpointRetention = Math.max(0, (int) getFloatParam("checkpoint-retention", true));
+        }
+
+        // islands and the migration parameters are optional parameters
+        int islands = defaultIslands;
+        if (!Float.isNaN(getFloatParam("islands", true))) {
+            islands = (int) getFloatParam("islands", true);
+        }
+
+        int migrationInterval = defaultMigrationInterval;
+        if (!Float.isNaN(getFloatParam("migration-interval", true))) {
+            migrationInterval = (int) getFloatParam("migration-interval", true);
+        }
+
+        int migrationSize = defaultMigrationSize;
+        if (!Float.isNaN(getFloatParam("migration-size", true))) {
+            migrationSize = (int) getFloatParam("migration-size", true);
+        }
+
+        String migrationTopology = getParam("migration-topology", true);
+        if (migrationTopology == null) {
+            migrationTopology = defaultMigrationTopology;
+        }
+
+        // evaluation-server makes this a worker evaluating for the run whose
+        // evaluation-server-port it is
+        remoteEvaluator = RemoteEvaluator.create(parameters);
+
+        // Otherwise island-server-port makes this the coordinator of islands
+        // running in other processes, and island-server one of those islands
+        RemoteIslandLink link = null;
+
+        if (remoteEvaluator == null)
+            islandServer = IslandServer.create(parameters, islands, migrationTopology);
+
+        if (remoteEvaluator == null && islandServer == null)
+            link = RemoteIslandLink.create(parameters, migrationInterval, migrationSize);
+
+        if (remoteEvaluator != null) {
+            resizeAndInitialize(0);
+        } else if (islandServer != null) {
+            resizeAndInitialize(0);
+        } else if (link != null) {
+            islandLink = link;
+            island = link.island();
+
+            // Each island evolves from a seed of its own
+            seed += island;
+            random.setSeed(seed);
+
+            resizeAndInitialize((int) getFloatParam("population-size"));
+        } else if (islands > 1) {
+            // The population lives on the islands
+            islandModel = new IslandModel(this, parameters, islands, seed, migrationInterval, migrationSize,
+                    migrationTopology);
+            resizeAndInitialize(0);
+        } else {
+            resizeAndInitialize((int) getFloatParam("population-size"));
+
+            // evaluation-server-port evaluates the population on workers
+            evaluationMaster = EvaluationMaster.create(parameters);
+        }
 
         outputFile = getParam("output-file", true);
 
         if (outputFile != null)
-            outputStream = new FileOutputStream(outputFile);
+            outputStream = new BufferedOutputStream(new FileOutputStream(outputFile));
+
+        // run-log, run-log-size and report-verbosity are optional parameters
+        runLogPath = getParam("run-log", true);
+        runLogSize = defaultRunLogSize;
+        if (!Float.isNaN(getFloatParam("run-log-size", true))) {
+            runLogSize = (long) getFloatParam("run-log-size", true);
+        }
+
+        openRunLog();
+
+        String reportVerbosity = getParam("report-verbosity", true);
+        if (reportVerbosity == null) {
+            reportVerbosity = defaultReportVerbosity;
+        }
+
+        if (!reportVerbosity.equals("summary") && !reportVerbosity.equals("errors")) {
+            throw new Exception("report-verbosity must be set to summary or errors. Currently set to "
+                    + reportVerbosity);
+        }
+
+        reportErrors = reportVerbosity.equals("errors");
     }
 
     /**
@@ -229,11 +523,22 @@ public abstract class GeneticAlgorithm implements Serializable {
             throw new Exception(
                     "individual-class must inherit from class GAIndividual");
 
-        for (int i = 0; i < inSize; i++) {
+        for (int i = 0; i < inSize; i++)
             populations[0][i] = individual.clone();
-            initIndividual(populations[0][i]);
-        }
 
+        initIndividuals(populations[0]);
+    }
+
+    /**
+     * Initializes a whole population of new individuals. By default each is
+     * initialized with initIndividual.
+     *
+     * @param inIndividuals the individuals to initialize.
+     */
+
+    protected void initIndividuals(GAIndividual[] inIndividuals) {
+        for (GAIndividual individual : inIndividuals)
+            initIndividual(individual);
     }
 
     /**
@@ -257,6 +562,69 @@ public abstract class GeneticAlgorithm implements Serializable {
      */
 
     public boolean run(int inGenerations) throws Exception {
+        // The run log closed when an earlier call returned is appended to
+        if (runLog == null)
+            openRunLog();
+
+        try {
+            return runGenerations(inGenerations);
+        } finally {
+            flushOutput();
+
+            if (checkpointWriter != null)
+                checkpointWriter.await();
+
+            // The pool's threads are not left idling between calls; the next
+            // evaluation creates a new one
+            if (evaluationPool != null) {
+                evaluationPool.shutdown();
+                evaluationPool = null;
+            }
+
+            if (runLog != null) {
+                runLog.close();
+                runLog = null;
+            }
+        }
+    }
+
+    /**
+     * Opens the run log, closing the one open, if any.
+     */
+    private void openRunLog() throws Exception {
+        if (runLog != null)
+            runLog.close();
+
+        runLog = runLogPath == null ? null : new RunLog(runLogPath, runLogSize);
+    }
+
+    private boolean runGenerations(int inGenerations) throws Exception {
+        if (remoteEvaluator != null) {
+            remoteEvaluator.serve(this);
+            return false;
+        }
+
+        if (islandServer != null)
+            return islandServer.run(this);
+
+        if (islandModel != null && island < 0)
+            return islandModel.run(this, inGenerations);
+
+        if (islandLink != null) {
+            // An island in a process of its own
+            if (runIsland(inGenerations))
+                print(finalReport());
+
+            return (generationCount < maxGenerations);
+        }
+
+        if (steadyState) {
+            if (reproductionRandom == null)
+                reproductionRandom = new ThreadLocal<>();
+
+            return new SteadyState(this).run(inGenerations);
+        }
+
         // inGenerations below must have !=, not >, since often inGenerations
         // is called at -1
         while (!terminate() && inGenerations != 0) {
@@ -267,28 +635,141 @@ public abstract class GeneticAlgorithm implements Serializable {
 
             endGeneration();
 
-            print(report());
+            printReport();
 
             checkpoint();
 
-            System.gc();
-
             currentPopulation = (currentPopulation == 0 ? 1 : 0);
             generationCount++;
             inGenerations--;
         }
 
+        awaitReports();
+
         if (terminate()) {
             // Since this value was changed after termination conditions were
             // set, revert back to previous state.
             currentPopulation = (currentPopulation == 0 ? 1 : 0);
 
+            if (caseSample != null)
+                evaluateOnAllTestCases();
+
             print(finalReport());
+
+            // Which ends the workers
+            if (evaluationMaster != null)
+                evaluationMaster.close();
         }
 
         return (generationCount < maxGenerations);
     }
 
+    /**
+     * Runs the generation loop of an island, until it
+     * terminates, any island succeeds, or the given number of generations has
+     * elapsed. Unlike run, this prints no final report and writes no
+     * checkpoints.
+     *
+     * @param inGenerations The maximum number of generations to run, or -1.
+     * @return true if the island is done.
+     */
+    boolean runIsland(int inGenerations) throws Exception {
+        while (!terminate() && !islandLink.finished() && inGenerations != 0) {
+            beginGeneration();
+
+            evaluate();
+            islandLink.evaluated(island, bestMeanFitness);
+            islandLink.migrate(this);
+            reproduce();
+
+            endGeneration();
+
+            print(report());
+
+            currentPopulation = (currentPopulation == 0 ? 1 : 0);
+            generationCount++;
+            inGenerations--;
+        }
+
+        boolean done = terminate() || islandLink.finished();
+
+        if (done) {
+            // As in run, go back to the last evaluated population
+            currentPopulation = (currentPopulation == 0 ? 1 : 0);
+
+            islandLink.done(this);
+        }
+
+        return done;
+    }
+
+    /**
+     * Takes over the state of the best island at the end of an island run, so
+     * that the final report describes it. Subclasses with state of their own
+     * to report should extend this.
+     *
+     * @param inIsland The best island.
+     */
+    protected void adoptIsland(GeneticAlgorithm inIsland) {
+        populations = inIsland.populations;
+        currentPopulation = inIsland.currentPopulation;
+        generationCount = inIsland.generationCount;
+        bestMeanFitness = inIsland.bestMeanFitness;
+        populationMeanFitness = inIsland.populationMeanFitness;
+        bestIndividual = inIsland.bestIndividual;
+        bestErrors = inIsland.bestErrors;
+        testCases = inIsland.testCases;
+    }
+
+    /**
+     * Takes over the best individual returned by the islands of a run in
+     * other processes, as a population of one, so that the final report
+     * describes it. Subclasses with state of their own to report should
+     * extend this.
+     *
+     * @param inBest            The best individual.
+     * @param inGenerationCount The largest generation count of the islands.
+     */
+    protected void adoptBest(GAIndividual inBest, int inGenerationCount) {
+        populations = new GAIndividual[][]{{inBest}, {inBest}};
+        currentPopulation = 0;
+        generationCount = inGenerationCount;
+        bestMeanFitness = inBest.getFitness();
+        populationMeanFitness = inBest.getFitness();
+        bestIndividual = 0;
+        bestErrors = inBest.getErrors();
+    }
+
+    /**
+     * Encodes an individual, with its fitness, to be sent to another process.
+     * By default the individual is serialized; subclasses may override this
+     * and decodeIndividual with a more compact encoding.
+     *
+     * @param inIndividual The individual.
+     * @return The encoded individual.
+     */
+    protected byte[] encodeIndividual(GAIndividual inIndividual) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(inIndividual);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes an individual encoded by encodeIndividual.
+     *
+     * @param inBytes The encoded individual.
+     * @return The individual.
+     */
+    protected GAIndividual decodeIndividual(byte[] inBytes) throws Exception {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(inBytes))) {
+            return (GAIndividual) in.readObject();
+        }
+    }
+
     /**
      * Determine whether the GA should terminate. This method may be overridden
      * by subclasses to customize GA behavior.
@@ -312,17 +793,92 @@ public abstract class GeneticAlgorithm implements Serializable {
      * method may be overridden by subclasses to customize GA behavior.
      */
     protected void evaluate() {
+        if (selectionMode.equals("downsampled-lexicase"))
+            caseSample = sampleTestCases();
+
+        evaluatePopulation(populations[currentPopulation]);
+        summarize();
+    }
+
+    /**
+     * Returns the test cases individuals are evaluated on: those of the
+     * generation's sample with downsampled-lexicase selection, otherwise all.
+     */
+    protected List<GATestCase> evaluationTestCases() {
+        List<GATestCase> reported = reportedTestCases == null ? null : reportedTestCases.get();
+
+        if (reported != null)
+            return reported;
+
+        return caseSample != null ? caseSample : testCases;
+    }
+
+    /**
+     * Draws the sample of test cases for a generation, keeping their order.
+     */
+    private List<GATestCase> sampleTestCases() {
+        int size = Math.max(1, Math.min(testCases.size(), Math.round(downsampleRate * testCases.size())));
+        boolean[] sampled = new boolean[testCases.size()];
+
+        // Floyd's algorithm, which draws size numbers
+        for (int n = testCases.size() - size; n < testCases.size(); n++) {
+            int draw = random.nextInt(n + 1);
+            sampled[sampled[draw] ? n : draw] = true;
+        }
+
+        List<GATestCase> result = new ArrayList<>(size);
+
+        for (int n = 0; n < sampled.length; n++) {
+            if (sampled[n])
+                result.add(testCases.get(n));
+        }
+
+        return result;
+    }
+
+    /**
+     * Evaluates the current population on all test cases, after a run with
+     * downsampled-lexicase selection, so that the final report describes
+     * the best individual on all of them.
+     */
+    private void evaluateOnAllTestCases() throws Exception {
+        caseSample = null;
+
+        beginGeneration();
+        evaluatePopulation(populations[currentPopulation]);
+        summarize();
+        endGeneration();
+    }
+
+    /**
+     * Prepares the selection of parents from the evaluated current
+     * population, for the lexicase selection modes.
+     */
+    void prepareSelection() {
+        if (selectionMode.equals("tournament")) {
+            lexicaseSelection = null;
+        } else {
+            lexicaseSelection = LexicaseSelection.create(populations[currentPopulation],
+                    selectionMode.equals("epsilon-lexicase"));
+        }
+    }
+
+    /**
+     * Computes the statistics of the evaluated current population which are
+     * reported on. This method may be overridden by subclasses which report
+     * statistics of their own.
+     */
+    protected void summarize() {
         double totalFitness = 0;
-        bestMeanFitness = Float.MAX_VALUE;
+        GAIndividual best = null;
 
         for (int n = 0; n < populations[currentPopulation].length; n++) {
             GAIndividual i = populations[currentPopulation][n];
 
-            evaluateIndividual(i);
-
             totalFitness += i.getFitness();
 
-            if (i.getFitness() < bestMeanFitness) {
+            if (best == null || i.isFitterThan(best)) {
+                best = i;
                 bestMeanFitness = i.getFitness();
                 bestIndividual = n;
                 bestErrors = i.getErrors();
@@ -332,28 +888,217 @@ public abstract class GeneticAlgorithm implements Serializable {
         populationMeanFitness = totalFitness / populations[currentPopulation].length;
     }
 
+    /**
+     * Runs evaluateIndividual on every individual of a population. When
+     * evaluation-threads is greater than one, the individuals are evaluated on
+     * a work-stealing pool; otherwise they are evaluated in order on the
+     * calling thread. With an evaluation-server-port, they are evaluated on
+     * the workers connected to it instead. Statistics must be aggregated by
+     * the caller afterwards, in index order, so that all modes produce
+     * identical results. Each individual is evaluated with random() returning
+     * a generator of its own, seeded from the run seed, the generation and
+     * its index, so that random instructions draw the same numbers for any
+     * number of threads.
+     * <p>
+     * With racing-cases, the individuals are instead raced over the test
+     * cases by a RacingEvaluator, and only the fittest are scored on all.
+     *
+     * @param inPopulation The individuals to evaluate.
+     */
+    protected void evaluatePopulation(GAIndividual[] inPopulation) {
+        if (reproductionRandom == null)
+            reproductionRandom = new ThreadLocal<>();
+
+        if (evaluationMaster != null) {
+            evaluationMaster.evaluate(this, inPopulation);
+        } else if (racingCases > 0) {
+            new RacingEvaluator(this, racingCases, racingSurvival).evaluate(inPopulation, random);
+        } else if (evaluationThreads <= 1) {
+            for (int n = 0; n < inPopulation.length; n++)
+                evaluateSlot(inPopulation, n);
+        } else {
+            getEvaluationPool().invoke(new EvaluationTask(inPopulation, 0, inPopulation.length));
+        }
+    }
+
+    /**
+     * Returns the pool used for parallel evaluation, creating it on first use.
+     */
+    protected ForkJoinPool getEvaluationPool() {
+        if (evaluationPool == null)
+            evaluationPool = createEvaluationPool();
+
+        return evaluationPool;
+    }
+
+    /**
+     * Creates the pool used for parallel evaluation. Subclasses which need
+     * per-thread evaluation state (such as an interpreter) may override this
+     * to install their own worker thread factory.
+     */
+    protected ForkJoinPool createEvaluationPool() {
+        return new ForkJoinPool(evaluationThreads);
+    }
+
     /**
      * Reproduces the current population into the next population slot. This
      * method may be overridden by subclasses to customize GA behavior.
+     * <p>
+     * Each slot is filled by reproduceIndividual, with random() returning a
+     * random number generator of its own, seeded from the run seed, the
+     * generation and the slot. Like evaluation, the slots are filled on the
+     * evaluation pool when evaluation-threads is greater than one, and the
+     * next population is the same for any number of threads.
      */
     protected void reproduce() {
-        int nextPopulation = currentPopulation == 0 ? 1 : 0;
+        GAIndividual[] next = populations[currentPopulation == 0 ? 1 : 0];
 
-        for (int n = 0; n < populations[currentPopulation].length; n++) {
-            float method = random.nextInt(100);
-            GAIndividual next;
+        if (reproductionRandom == null)
+            reproductionRandom = new ThreadLocal<>();
+
+        prepareSelection();
+        prepareSelectionColumns();
+        discarded = next;
 
-            if (method < mutationPercent) {
-                next = reproduceByMutation(n);
-            } else if (method < crossoverPercent + mutationPercent) {
-                next = reproduceByCrossover(n);
+        try {
+            if (evaluationThreads <= 1) {
+                for (int n = 0; n < next.length; n++)
+                    reproduceSlot(next, n);
             } else {
-                next = reproduceByClone(n);
+                getEvaluationPool().invoke(new ReproductionTask(next, 0, next.length));
             }
+        } finally {
+            selectionColumns = false;
+            discarded = null;
+        }
+    }
+
+    /**
+     * Copies the fitness and selection size of the current population into
+     * the selection columns. The population must not change until
+     * selectionColumns is cleared, which rules out the steady-state mode.
+     */
+    private void prepareSelectionColumns() {
+        GAIndividual[] population = populations[currentPopulation];
 
-            populations[nextPopulation][n] = next;
+        if (selectionFitness == null || selectionFitness.length != population.length) {
+            selectionFitness = new float[population.length];
+            selectionCases = new int[population.length];
+            selectionSizes = new int[population.length];
+        }
 
+        for (int n = 0; n < population.length; n++) {
+            selectionFitness[n] = population[n].getFitness();
+            selectionCases[n] = population[n].getFitnessCases();
+            selectionSizes[n] = selectionSize(population[n]);
         }
+
+        selectionColumns = true;
+    }
+
+    /**
+     * Evaluates one individual of a population in its evaluation stream.
+     */
+    void evaluateSlot(GAIndividual[] inPopulation, int inIndex) {
+        inStream(evaluationStream(generationCount, inIndex), () -> evaluateIndividual(inPopulation[inIndex]));
+    }
+
+    /**
+     * Returns the stream number of the evaluation of an individual, which no
+     * reproduction slot or report uses.
+     */
+    static long evaluationStream(int inGeneration, int inIndex) {
+        return EVALUATION_STREAMS | (((long) inGeneration << 32) + inIndex);
+    }
+
+    private void reproduceSlot(GAIndividual[] outPopulation, int inIndex) {
+        long stream = ((long) generationCount << 32) + inIndex;
+
+        inStream(stream, () -> outPopulation[inIndex] = reproduceIndividual(inIndex));
+    }
+
+    /**
+     * Runs a reproduction or evaluation event with random() returning a
+     * generator of its own, seeded from the run seed and the given stream
+     * number.
+     */
+    void inStream(long inStream, Runnable inEvent) {
+        inStream(streamRandom(seed, inStream), inEvent);
+    }
+
+    /**
+     * Runs an event with random() returning the given generator, and then the
+     * generator of the event it is part of, if any. Subclasses whose
+     * evaluation draws from generators of their own, such as an
+     * interpreter's, may override this to draw from inRandom instead.
+     */
+    void inStream(Random inRandom, Runnable inEvent) {
+        // Parallel events are only started once this is set
+        if (reproductionRandom == null)
+            reproductionRandom = new ThreadLocal<>();
+
+        Random outer = reproductionRandom.get();
+        reproductionRandom.set(inRandom);
+
+        try {
+            inEvent.run();
+        } finally {
+            if (outer != null)
+                reproductionRandom.set(outer);
+            else
+                reproductionRandom.remove();
+        }
+    }
+
+    /**
+     * Produces the individual for one slot of the next population. This method
+     * may be overridden by subclasses to customize GA behavior, and may be
+     * called concurrently for different slots.
+     *
+     * @param inIndex The slot to produce the individual for.
+     * @return The new individual.
+     */
+    protected GAIndividual reproduceIndividual(int inIndex) {
+        float method = random().nextInt(100);
+
+        if (method < mutationPercent) {
+            return reproduceByMutation(inIndex);
+        } else if (method < crossoverPercent + mutationPercent) {
+            return reproduceByCrossover(inIndex);
+        } else {
+            return reproduceByClone(inIndex);
+        }
+    }
+
+    /**
+     * Returns the random number generator to be used by the calling thread.
+     * Reproduction operators must draw from it rather than from random, so
+     * that each slot of the next population is reproduced from its own stream.
+     *
+     * @return The generator of the current reproduction event, or random.
+     */
+    protected Random random() {
+        Random result = reproductionRandom == null ? null : reproductionRandom.get();
+
+        return result != null ? result : random;
+    }
+
+    /**
+     * Returns a generator of its own for a stream of numbered events, such as
+     * the slots of a generation, seeded from a seed and the event's number.
+     */
+    static Random streamRandom(long inSeed, long inStream) {
+        return new SplittableStreamRandom(mix(inSeed ^ mix(inStream)));
+    }
+
+    /**
+     * The MurmurHash3 finalizer, used to derive independent seeds.
+     */
+    private static long mix(long inValue) {
+        inValue = (inValue ^ (inValue >>> 33)) * 0xff51afd7ed558ccdL;
+        inValue = (inValue ^ (inValue >>> 33)) * 0xc4ceb9fe1a85ec53L;
+
+        return inValue ^ (inValue >>> 33);
     }
 
     /**
@@ -377,9 +1122,117 @@ public abstract class GeneticAlgorithm implements Serializable {
         report += "-------------;;\n";
         report += ";;--------------------------------------------------------;;\n";
 
+        if (islandLink != null) {
+            report += ";; Island " + island + " of " + islandLink.size()
+                    + ", Global Best Fitness (mean): " + islandLink.bestFitness()
+                    + " on Island " + islandLink.bestIsland() + "\n";
+        }
+
         return report;
     }
 
+    /**
+     * Takes what report describes of the generation just reproduced and
+     * returns the task making the report from it. With the background report
+     * mode, the task is called on the report thread while the next
+     * generations run, so it may only use what it is given here, random()
+     * and evaluationTestCases(). Subclasses whose reports are costly to make
+     * may override this to make them in the task; by default the report is
+     * made at once.
+     *
+     * @return The task returning the report.
+     */
+    protected Callable<String> reportTask() {
+        String report = report();
+
+        return () -> report;
+    }
+
+    /**
+     * Prints the report of the generation just reproduced, or, with the
+     * background report mode, has the report thread print it once made.
+     * Reports are printed in the order of their generations.
+     */
+    protected void printReport() throws Exception {
+        if (!backgroundReports) {
+            print(report());
+            return;
+        }
+
+        // Raise the failure of an earlier report as soon as it is known
+        if (pendingReport != null && pendingReport.isDone())
+            awaitReports();
+
+        if (reportExecutor == null)
+            reportExecutor = createReportExecutor();
+        if (reportedTestCases == null)
+            reportedTestCases = new ThreadLocal<>();
+        if (reproductionRandom == null)
+            reproductionRandom = new ThreadLocal<>();
+
+        // The report draws from a stream no slot of the generation uses
+        long stream = ((long) generationCount << 32) - 1;
+        List<GATestCase> cases = evaluationTestCases();
+        Callable<String> task = reportTask();
+
+        pendingReport = reportExecutor.submit(() -> {
+            String[] report = new String[1];
+            Exception[] failure = new Exception[1];
+            reportedTestCases.set(cases);
+
+            try {
+                inStream(stream, () -> {
+                    try {
+                        report[0] = task.call();
+                    } catch (Exception e) {
+                        failure[0] = e;
+                    }
+                });
+            } finally {
+                reportedTestCases.remove();
+            }
+
+            if (failure[0] != null)
+                throw failure[0];
+
+            print(report[0]);
+            return null;
+        });
+    }
+
+    /**
+     * Waits until the reports submitted to the report thread are printed.
+     */
+    protected void awaitReports() throws Exception {
+        if (pendingReport == null)
+            return;
+
+        try {
+            pendingReport.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception cause)
+                throw cause;
+
+            throw e;
+        } finally {
+            pendingReport = null;
+        }
+    }
+
+    /**
+     * Creates the executor of the background report mode, whose single thread
+     * makes and prints the reports in turn. Subclasses which need per-thread
+     * state to make reports (such as an interpreter) may override this to
+     * install their own thread factory.
+     */
+    protected ExecutorService createReportExecutor() {
+        return Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "report");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
     protected String finalReport() {
         boolean success = success();
         String report = "\n";
@@ -395,20 +1248,65 @@ public abstract class GeneticAlgorithm implements Serializable {
         report += " at Generation " + (generationCount - 1) + "\n";
         report += "<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>\n";
 
+        if (islandModel != null && island < 0)
+            report += islandModel.report();
+        if (islandServer != null)
+            report += islandServer.report();
+
         return report;
     }
 
     /**
      * Logs output of the GA run to the appropriate location (which may be
-     * stdout, or a file).
+     * stdout, or a file), and to the run log. Output to a file is buffered
+     * until flushOutput.
+     * <p>
+     * With a run log, which keeps the whole output, the checkpoint only keeps
+     * the output since the previous checkpoint.
      */
 
     protected void print(String inStr) throws Exception {
         if (outputStream != null) {
             outputStream.write(inStr.getBytes());
-            outputStream.flush();
+            if (outputFile == null)
+                outputStream.flush();
         }
-        checkpoint.report.append(inStr);
+        if (runLog != null)
+            runLog.append(inStr);
+        if (runLog == null || checkpointPrefix != null)
+            checkpoint.report.append(inStr);
+    }
+
+    /**
+     * Writes out the output printed so far, to the output file and run log.
+     * Called at checkpoints and when run returns.
+     */
+    protected void flushOutput() throws Exception {
+        if (outputStream != null)
+            outputStream.flush();
+        if (runLog != null)
+            runLog.flush();
+    }
+
+    /**
+     * Returns the size by which a tournament breaks ties between equally fit
+     * individuals, the smaller winning. By default there are no ties to
+     * break, and every individual has size 0.
+     */
+    protected int selectionSize(GAIndividual inIndividual) {
+        return 0;
+    }
+
+    /**
+     * Returns whether a tournament candidate wins against the best so far: if
+     * it is fitter, or as fit and smaller by selectionSize.
+     */
+    private static boolean winsTournament(float inFitness, int inCases, int inSize, float inBestFitness,
+                                          int inBestCases, int inBestSize) {
+        if (GAIndividual.isFitter(inFitness, inCases, inBestFitness, inBestCases))
+            return true;
+
+        return inSize < inBestSize && !GAIndividual.isFitter(inBestFitness, inBestCases, inFitness, inCases);
     }
 
     /**
@@ -420,22 +1318,48 @@ public abstract class GeneticAlgorithm implements Serializable {
      */
 
     protected GAIndividual tournamentSelect(int inSize, int inIndex) {
-        int popsize = populations[currentPopulation].length;
+        // With a lexicase selection mode, parents are selected by lexicase
+        // instead, unless the population has no per-case errors
+        if (lexicaseSelection != null)
+            return lexicaseSelection.select(random());
 
-        int best = tournamentSelectionIndex(inIndex, popsize);
-        float bestFitness = populations[currentPopulation][best].getFitness();
+        GAIndividual[] population = populations[currentPopulation];
+        int popsize = population.length;
+
+        if (selectionColumns) {
+            int best = tournamentSelectionIndex(inIndex, popsize);
+
+            for (int n = 0; n < inSize - 1; n++) {
+                int candidate = tournamentSelectionIndex(inIndex, popsize);
+
+                if (winsTournament(selectionFitness[candidate], selectionCases[candidate],
+                        selectionSizes[candidate], selectionFitness[best], selectionCases[best],
+                        selectionSizes[best]))
+                    best = candidate;
+            }
+
+            return population[best];
+        }
+
+        // The slots are read with acquire semantics, since in the
+        // steady-state mode other threads replace individuals meanwhile
+        GAIndividual best = (GAIndividual) POPULATION_SLOT.getAcquire(population,
+                tournamentSelectionIndex(inIndex, popsize));
+        int bestSize = selectionSize(best);
 
         for (int n = 0; n < inSize - 1; n++) {
-            int candidate = tournamentSelectionIndex(inIndex, popsize);
-            float candidateFitness = populations[currentPopulation][candidate].getFitness();
+            GAIndividual candidate = (GAIndividual) POPULATION_SLOT.getAcquire(population,
+                    tournamentSelectionIndex(inIndex, popsize));
+            int size = selectionSize(candidate);
 
-            if (candidateFitness < bestFitness) {
+            if (winsTournament(candidate.getFitness(), candidate.getFitnessCases(), size, best.getFitness(),
+                    best.getFitnessCases(), bestSize)) {
                 best = candidate;
-                bestFitness = candidateFitness;
+                bestSize = size;
             }
         }
 
-        return populations[currentPopulation][best];
+        return best;
     }
 
     /**
@@ -449,25 +1373,33 @@ public abstract class GeneticAlgorithm implements Serializable {
 
     protected int tournamentSelectionIndex(int inIndex, int inPopsize) {
         if (trivialGeographyRadius > 0) {
-            int index = (random.nextInt(trivialGeographyRadius * 2) - trivialGeographyRadius)
+            int index = (random().nextInt(trivialGeographyRadius * 2) - trivialGeographyRadius)
                     + inIndex;
             if (index < 0)
                 index += inPopsize;
 
             return (index % inPopsize);
         } else {
-            return random.nextInt(inPopsize);
+            return random().nextInt(inPopsize);
         }
     }
 
     /**
-     * Clones an individual selected through tournament selection.
+     * Clones an individual selected through tournament selection. While a
+     * generation is reproduced, the clone reuses the storage of the individual
+     * that the slot held two generations earlier.
      *
      * @return the cloned individual.
      */
 
     protected GAIndividual reproduceByClone(int inIndex) {
-        return tournamentSelect(tournamentSize, inIndex).clone();
+        GAIndividual parent = tournamentSelect(tournamentSize, inIndex);
+        GAIndividual[] population = discarded;
+
+        if (population != null)
+            return parent.cloneInto(population[inIndex]);
+
+        return parent.clone();
     }
 
     /**
@@ -486,6 +1418,22 @@ public abstract class GeneticAlgorithm implements Serializable {
         return (total / inArray.size());
     }
 
+    /**
+     * Computes the absolute-average-of-errors fitness from an error vector.
+     *
+     * @return the average error value for the vector.
+     */
+    protected float absoluteAverageOfErrors(float[] inErrors) {
+        float total = 0.0f;
+
+        for (float error : inErrors) total += Math.abs(error);
+
+        if (Float.isInfinite(total))
+            return Float.MAX_VALUE;
+
+        return (total / inErrors.length);
+    }
+
     /**
      * Retrieves GAIndividual at index i from the current population.
      *
@@ -553,16 +1501,162 @@ public abstract class GeneticAlgorithm implements Serializable {
 
     abstract protected GAIndividual reproduceByMutation(int inIndex);
 
+    /**
+     * Evaluates a range of a population, splitting it in halves so that idle
+     * workers can steal the evaluation of expensive individuals.
+     */
+    private class EvaluationTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final GAIndividual[] population;
+        private final int start;
+        private final int end;
+
+        EvaluationTask(GAIndividual[] inPopulation, int inStart, int inEnd) {
+            population = inPopulation;
+            start = inStart;
+            end = inEnd;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start == 1) {
+                evaluateSlot(population, start);
+            } else if (end > start) {
+                int middle = (start + end) >>> 1;
+                invokeAll(new EvaluationTask(population, start, middle),
+                        new EvaluationTask(population, middle, end));
+            }
+        }
+    }
+
+    /**
+     * Reproduces a range of the next population, splitting it in halves like
+     * EvaluationTask.
+     */
+    private class ReproductionTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final GAIndividual[] population;
+        private final int start;
+        private final int end;
+
+        ReproductionTask(GAIndividual[] inPopulation, int inStart, int inEnd) {
+            population = inPopulation;
+            start = inStart;
+            end = inEnd;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start == 1) {
+                reproduceSlot(population, start);
+            } else if (end > start) {
+                int middle = (start + end) >>> 1;
+                invokeAll(new ReproductionTask(population, start, middle),
+                        new ReproductionTask(population, middle, end));
+            }
+        }
+    }
+
+    /**
+     * A Random drawing from a SplittableRandom stream, for the code which
+     * takes a java.util.Random.
+     */
+    private static class SplittableStreamRandom extends Random {
+        private static final long serialVersionUID = 1L;
+
+        private final transient SplittableRandom stream;
+
+        SplittableStreamRandom(long inSeed) {
+            // Random's own state is unused; a fixed seed avoids the shared
+            // seed uniquifier of the default constructor
+            super(0);
+            stream = new SplittableRandom(inSeed);
+        }
+
+        @Override
+        protected int next(int inBits) {
+            return (int) (stream.nextLong() >>> (64 - inBits));
+        }
+    }
+
+    /**
+     * Writes a checkpoint of the run. The checkpoint is taken from a snapshot:
+     * the algorithm without its populations and report is serialized, and
+     * the individuals of the populations, which the run goes on to change in
+     * place, are copied, sharing their nested programs. The checkpoint is
+     * then written by the CheckpointWriter while the run goes on. Every
+     * full-checkpoint-interval checkpoints one is full, and the others are
+     * deltas of the last full one.
+     * <p>
+     * The checkpoint holds the reports of the generations so far. With the
+     * background report mode, those still being made are waited for by the
+     * report and checkpoint threads, not by the run, which only waits for
+     * the previous checkpoint to be written.
+     */
     protected void checkpoint() throws Exception {
         if (checkpointPrefix == null)
             return;
 
-        File file = new File(checkpointPrefix + checkpoint.checkpointNumber + ".gz");
-        try (ObjectOutputStream out = new ObjectOutputStream(new GZIPOutputStream(new FileOutputStream(file)))) {
-            out.writeObject(checkpoint);
+        if (checkpointWriter == null) {
+            checkpointWriter = new CheckpointWriter(checkpointRetention);
+            checkpointsSinceFull = fullCheckpointInterval;
+        }
+
+        boolean full = checkpointsSinceFull >= fullCheckpointInterval;
+
+        if (full)
+            checkpointsSinceFull = 0;
+
+        checkpointsSinceFull++;
+
+        GAIndividual[][] snapshot = new GAIndividual[populations.length][];
+
+        for (int p = 0; p < populations.length; p++) {
+            snapshot[p] = new GAIndividual[populations[p].length];
+
+            for (int i = 0; i < snapshot[p].length; i++) {
+                if (populations[p][i] != null)
+                    snapshot[p][i] = populations[p][i].evaluatedCopy();
+            }
         }
 
-        System.out.println("Wrote checkpoint file " + file.getAbsolutePath());
+        byte[] state = CheckpointWriter.state(checkpoint);
+        Future<CheckpointWriter.Report> report;
+
+        // Reports are printed in turn by the report thread, which takes the
+        // checkpoint's report once those of the generations so far are
+        if (pendingReport != null) {
+            report = reportExecutor.submit(() -> checkpointReport(full));
+            pendingReport = report;
+        } else {
+            report = CompletableFuture.completedFuture(checkpointReport(full));
+        }
+
+        File file = new File(checkpointPrefix + checkpoint.checkpointNumber + ".gz");
+        checkpointWriter.write(file, full, state, snapshot, report);
         checkpoint.checkpointNumber++;
     }
+
+    /**
+     * Takes the report of a checkpoint, once the output printed so far is
+     * written out: for a full checkpoint the whole report, and for a delta
+     * the output printed since the last full checkpoint. With a run log, the
+     * report is cleared at every checkpoint.
+     */
+    private CheckpointWriter.Report checkpointReport(boolean inFull) throws Exception {
+        flushOutput();
+
+        if (inFull)
+            fullReportLength = runLog == null ? checkpoint.report.length() : 0;
+
+        int prefix = inFull ? 0 : fullReportLength;
+        String text = checkpoint.report.substring(prefix);
+
+        if (runLog != null)
+            checkpoint.report.setLength(0);
+
+        return new CheckpointWriter.Report(text, prefix);
+    }
 }
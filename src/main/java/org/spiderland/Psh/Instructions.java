@@ -1,24 +1,42 @@
 package org.spiderland.Psh;
 
-import java.util.Random;
-
 //
 // All instructions 
 //
 
 /**
  * Abstract instruction class for instructions which operate on any of the
- * built-in stacks.
+ * built-in stacks. The stack is looked up in the interpreter executing the
+ * instruction, so one instruction object can serve many interpreters.
  */
 
 abstract class StackInstruction extends Instruction {
     private static final long serialVersionUID = 1L;
 
+    /**
+     * A custom stack, or null for one of the interpreter's stacks.
+     */
     protected Stack stack;
 
+    /**
+     * The interpreter stack to use when there is no custom stack.
+     */
+    protected int stackType;
+
     StackInstruction(Stack inStack) {
         stack = inStack;
     }
+
+    StackInstruction(int inStackType) {
+        stackType = inStackType;
+    }
+
+    /**
+     * Returns the stack operated on, as found in the executing interpreter.
+     */
+    Stack stack(Interpreter inI) {
+        return stack != null ? stack : inI.stack(stackType);
+    }
 }
 
 /**
@@ -29,11 +47,30 @@ abstract class StackInstruction extends Instruction {
 abstract class ObjectStackInstruction extends Instruction {
     private static final long serialVersionUID = 1L;
 
+    /**
+     * A custom stack, or null for one of the interpreter's stacks.
+     */
     protected ObjectStack stack;
 
+    /**
+     * The interpreter stack to use when there is no custom stack.
+     */
+    protected int stackType;
+
     ObjectStackInstruction(ObjectStack inStack) {
         stack = inStack;
     }
+
+    ObjectStackInstruction(int inStackType) {
+        stackType = inStackType;
+    }
+
+    /**
+     * Returns the stack operated on, as found in the executing interpreter.
+     */
+    ObjectStack stack(Interpreter inI) {
+        return stack != null ? stack : (ObjectStack) inI.stack(stackType);
+    }
 }
 
 class Quote extends Instruction {
@@ -59,8 +96,14 @@ class Pop extends StackInstruction {
         super(inStack);
     }
 
+    Pop(int inStackType) {
+        super(inStackType);
+    }
+
     @Override
     public void Execute(Interpreter inI) {
+        Stack stack = stack(inI);
+
         if (stack.size() > 0)
             stack.popdiscard();
     }
@@ -73,9 +116,13 @@ class Flush extends StackInstruction {
         super(inStack);
     }
 
+    Flush(int inStackType) {
+        super(inStackType);
+    }
+
     @Override
     public void Execute(Interpreter inI) {
-        stack.clear();
+        stack(inI).clear();
     }
 }
 
@@ -86,9 +133,13 @@ class Dup extends StackInstruction {
         super(inStack);
     }
 
+    Dup(int inStackType) {
+        super(inStackType);
+    }
+
     @Override
     public void Execute(Interpreter inI) {
-        stack.dup();
+        stack(inI).dup();
     }
 }
 
@@ -99,8 +150,14 @@ class Rot extends StackInstruction {
         super(inStack);
     }
 
+    Rot(int inStackType) {
+        super(inStackType);
+    }
+
     @Override
     public void Execute(Interpreter inI) {
+        Stack stack = stack(inI);
+
         if (stack.size() > 2)
             stack.rot();
     }
@@ -113,8 +170,14 @@ class Shove extends StackInstruction {
         super(inStack);
     }
 
+    Shove(int inStackType) {
+        super(inStackType);
+    }
+
     @Override
     public void Execute(Interpreter inI) {
+        Stack stack = stack(inI);
+
         IntStack iStack = inI.intStack();
 
         if (iStack.size() > 0) {
@@ -135,8 +198,14 @@ class Swap extends StackInstruction {
         super(inStack);
     }
 
+    Swap(int inStackType) {
+        super(inStackType);
+    }
+
     @Override
     public void Execute(Interpreter inI) {
+        Stack stack = stack(inI);
+
         if (stack.size() > 1)
             stack.swap();
     }
@@ -149,8 +218,14 @@ class Yank extends StackInstruction {
         super(inStack);
     }
 
+    Yank(int inStackType) {
+        super(inStackType);
+    }
+
     @Override
     public void Execute(Interpreter inI) {
+        Stack stack = stack(inI);
+
         IntStack iStack = inI.intStack();
 
         if (iStack.size() > 0) {
@@ -171,8 +246,14 @@ class YankDup extends StackInstruction {
         super(inStack);
     }
 
+    YankDup(int inStackType) {
+        super(inStackType);
+    }
+
     @Override
     public void Execute(Interpreter inI) {
+        Stack stack = stack(inI);
+
         IntStack iStack = inI.intStack();
 
         if (iStack.size() > 0) {
@@ -193,10 +274,13 @@ class Depth extends StackInstruction {
         super(inStack);
     }
 
+    Depth(int inStackType) {
+        super(inStackType);
+    }
+
     @Override
     public void Execute(Interpreter inI) {
-        IntStack stack = inI.intStack();
-        stack.push(this.stack.size());
+        inI.intStack().push(stack(inI).size());
     }
 }
 
@@ -257,7 +341,7 @@ class ObjectConstant extends ObjectStackInstruction {
 
     @Override
     public void Execute(Interpreter inI) {
-        stack.push(value);
+        stack(inI).push(value);
     }
 }
 
@@ -495,17 +579,11 @@ class IntegerLn extends UnaryIntInstruction {
 class IntegerRand extends Instruction {
     private static final long serialVersionUID = 1L;
 
-    Random random;
-
-    IntegerRand() {
-        random = new Random();
-    }
-
     @Override
     public void Execute(Interpreter inI) {
         int range = (inI.maxRandomInt - inI.minRandomInt)
                 / inI.randomIntResolution;
-        int randInt = (random.nextInt(range) * inI.randomIntResolution)
+        int randInt = (inI.random.nextInt(range) * inI.randomIntResolution)
                 + inI.minRandomInt;
         inI.intStack().push(randInt);
     }
@@ -887,19 +965,13 @@ class FloatLn extends UnaryFloatInstruction {
 class FloatRand extends Instruction {
     private static final long serialVersionUID = 1L;
 
-    Random random;
-
-    FloatRand() {
-        random = new Random();
-    }
-
     @Override
     public void Execute(Interpreter inI) {
 
 
         float range = (inI.maxRandomFloat - inI.minRandomFloat)
                 / inI.randomFloatResolution;
-        float randFloat = (random.nextFloat() * range * inI.randomFloatResolution)
+        float randFloat = (inI.random.nextFloat() * range * inI.randomFloatResolution)
                 + inI.minRandomFloat;
         inI.floatStack().push(randFloat);
     }
@@ -1063,15 +1135,9 @@ class BoolNot extends Instruction {
 class BoolRand extends Instruction {
     private static final long serialVersionUID = 1L;
 
-    Random random;
-
-    BoolRand() {
-        random = new Random();
-    }
-
     @Override
     public void Execute(Interpreter inI) {
-        inI.boolStack().push(random.nextBoolean());
+        inI.boolStack().push(inI.random.nextBoolean());
     }
 }
 
@@ -1129,12 +1195,13 @@ class InputInN extends Instruction {
 class InputInAll extends ObjectStackInstruction {
     private static final long serialVersionUID = 1L;
 
-    InputInAll(ObjectStack inStack) {
-        super(inStack);
+    InputInAll(int inStackType) {
+        super(inStackType);
     }
 
     @Override
     public void Execute(Interpreter inI) {
+        ObjectStack stack = stack(inI);
 
         if (stack.size() > 0) {
             for (int index = 0; index < stack.size(); index++) {
@@ -1147,12 +1214,13 @@ class InputInAll extends ObjectStackInstruction {
 class InputInRev extends ObjectStackInstruction {
     private static final long serialVersionUID = 1L;
 
-    InputInRev(ObjectStack inStack) {
-        super(inStack);
+    InputInRev(int inStackType) {
+        super(inStackType);
     }
 
     @Override
     public void Execute(Interpreter inI) {
+        ObjectStack stack = stack(inI);
 
         if (stack.size() > 0) {
             for (int index = stack.size() - 1; index >= 0; index--) {
@@ -1165,12 +1233,14 @@ class InputInRev extends ObjectStackInstruction {
 class InputIndex extends ObjectStackInstruction {
     private static final long serialVersionUID = 1L;
 
-    InputIndex(ObjectStack inStack) {
-        super(inStack);
+    InputIndex(int inStackType) {
+        super(inStackType);
     }
 
     @Override
     public void Execute(Interpreter inI) {
+        ObjectStack stack = stack(inI);
+
         IntStack istack = inI.intStack();
 
         if (istack.size() > 0 && stack.size() > 0) {
@@ -1197,12 +1267,14 @@ class InputIndex extends ObjectStackInstruction {
 class CodeDoRange extends ObjectStackInstruction {
     private static final long serialVersionUID = 1L;
 
-    CodeDoRange(Interpreter inI) {
-        super(inI.codeStack());
+    CodeDoRange() {
+        super(Interpreter.CODE_STACK);
     }
 
     @Override
     public void Execute(Interpreter inI) {
+        ObjectStack stack = stack(inI);
+
         IntStack istack = inI.intStack();
         ObjectStack estack = inI.execStack();
 
@@ -1239,12 +1311,14 @@ class CodeDoRange extends ObjectStackInstruction {
 class CodeDoTimes extends ObjectStackInstruction {
     private static final long serialVersionUID = 1L;
 
-    CodeDoTimes(Interpreter inI) {
-        super(inI.codeStack());
+    CodeDoTimes() {
+        super(Interpreter.CODE_STACK);
     }
 
     @Override
     public void Execute(Interpreter inI) {
+        ObjectStack stack = stack(inI);
+
         IntStack istack = inI.intStack();
         ObjectStack estack = inI.execStack();
 
@@ -1287,12 +1361,14 @@ class CodeDoTimes extends ObjectStackInstruction {
 class CodeDoCount extends ObjectStackInstruction {
     private static final long serialVersionUID = 1L;
 
-    CodeDoCount(Interpreter inI) {
-        super(inI.codeStack());
+    CodeDoCount() {
+        super(Interpreter.CODE_STACK);
     }
 
     @Override
     public void Execute(Interpreter inI) {
+        ObjectStack stack = stack(inI);
+
         IntStack istack = inI.intStack();
         ObjectStack estack = inI.execStack();
 
@@ -1373,12 +1449,14 @@ class CodeFromFloat extends Instruction {
 class ExecDoRange extends ObjectStackInstruction {
     private static final long serialVersionUID = 1L;
 
-    ExecDoRange(Interpreter inI) {
-        super(inI.execStack());
+    ExecDoRange() {
+        super(Interpreter.EXEC_STACK);
     }
 
     @Override
     public void Execute(Interpreter inI) {
+        ObjectStack stack = stack(inI);
+
         IntStack istack = inI.intStack();
         ObjectStack estack = inI.execStack();
 
@@ -1401,7 +1479,7 @@ class ExecDoRange extends ObjectStackInstruction {
                     recursiveCallProgram.push(Integer.valueOf(start));
                     recursiveCallProgram.push(Integer.valueOf(stop));
                     recursiveCallProgram.push("exec.do*range");
-                    recursiveCallProgram.push(code);
+                    recursiveCallProgram.pushShared(code);
                     estack.push(recursiveCallProgram);
                 } catch (Exception e) {
                     System.err.println("Error while initializing a program.");
@@ -1416,12 +1494,14 @@ class ExecDoRange extends ObjectStackInstruction {
 class ExecDoTimes extends ObjectStackInstruction {
     private static final long serialVersionUID = 1L;
 
-    ExecDoTimes(Interpreter inI) {
-        super(inI.execStack());
+    ExecDoTimes() {
+        super(Interpreter.EXEC_STACK);
     }
 
     @Override
     public void Execute(Interpreter inI) {
+        ObjectStack stack = stack(inI);
+
         IntStack istack = inI.intStack();
         ObjectStack estack = inI.execStack();
 
@@ -1430,14 +1510,18 @@ class ExecDoTimes extends ObjectStackInstruction {
                 Object bodyObj = stack.pop();
 
                 if (bodyObj instanceof Program) {
-                    // insert integer.pop in front of program
-                    ((Program) bodyObj).shove("integer.pop", ((Program) bodyObj).size);
+                    // insert integer.pop in front of a new program; exec
+                    // stack items are shared and must not be modified
+                    Program newProgram = new Program();
+                    newProgram.push("integer.pop");
+                    ((Program) bodyObj).copyTo(newProgram);
+                    bodyObj = newProgram;
                 } else {
                     // create a new program with integer.pop in front of
                     // the popped object
                     Program newProgram = new Program();
                     newProgram.push("integer.pop");
-                    newProgram.push(bodyObj);
+                    newProgram.pushShared(bodyObj);
                     bodyObj = newProgram;
                 }
 
@@ -1448,7 +1532,7 @@ class ExecDoTimes extends ObjectStackInstruction {
                     doRangeMacroProgram.push(Integer.valueOf(0));
                     doRangeMacroProgram.push(Integer.valueOf(stop));
                     doRangeMacroProgram.push("exec.do*range");
-                    doRangeMacroProgram.push(bodyObj);
+                    doRangeMacroProgram.pushShared(bodyObj);
                     estack.push(doRangeMacroProgram);
                 } catch (Exception e) {
                     System.err.println("Error while initializing a program.");
@@ -1463,12 +1547,14 @@ class ExecDoTimes extends ObjectStackInstruction {
 class ExecDoCount extends ObjectStackInstruction {
     private static final long serialVersionUID = 1L;
 
-    ExecDoCount(Interpreter inI) {
-        super(inI.execStack());
+    ExecDoCount() {
+        super(Interpreter.EXEC_STACK);
     }
 
     @Override
     public void Execute(Interpreter inI) {
+        ObjectStack stack = stack(inI);
+
         IntStack istack = inI.intStack();
         ObjectStack estack = inI.execStack();
 
@@ -1482,7 +1568,7 @@ class ExecDoCount extends ObjectStackInstruction {
                     doRangeMacroProgram.push(Integer.valueOf(0));
                     doRangeMacroProgram.push(Integer.valueOf(stop));
                     doRangeMacroProgram.push("exec.do*range");
-                    doRangeMacroProgram.push(bodyObj);
+                    doRangeMacroProgram.pushShared(bodyObj);
                     estack.push(doRangeMacroProgram);
                 } catch (Exception e) {
                     System.err.println("Error while initializing a program.");
@@ -1498,12 +1584,14 @@ class ExecDoCount extends ObjectStackInstruction {
 class ExecK extends ObjectStackInstruction {
     private static final long serialVersionUID = 1L;
 
-    ExecK(ObjectStack inStack) {
-        super(inStack);
+    ExecK(int inStackType) {
+        super(inStackType);
     }
 
     @Override
     public void Execute(Interpreter inI) {
+        ObjectStack stack = stack(inI);
+
         // Removes the second item on the stack
         if (stack.size() > 1) {
             stack.swap();
@@ -1517,13 +1605,15 @@ class ExecS extends ObjectStackInstruction {
 
     int maxPointsInProgram;
 
-    ExecS(ObjectStack inStack, int inMaxPointsInProgram) {
-        super(inStack);
+    ExecS(int inStackType, int inMaxPointsInProgram) {
+        super(inStackType);
         maxPointsInProgram = inMaxPointsInProgram;
     }
 
     @Override
     public void Execute(Interpreter inI) {
+        ObjectStack stack = stack(inI);
+
         // Removes the second item on the stack
         if (stack.size() > 2) {
             Object a = stack.pop();
@@ -1531,8 +1621,8 @@ class ExecS extends ObjectStackInstruction {
             Object c = stack.pop();
             Program listBC = new Program();
 
-            listBC.push(b);
-            listBC.push(c);
+            listBC.pushShared(b);
+            listBC.pushShared(c);
 
             if (listBC.programSize() > maxPointsInProgram) {
                 // If the new list is too large, turn into a noop by re-pushing
@@ -1553,19 +1643,21 @@ class ExecS extends ObjectStackInstruction {
 class ExecY extends ObjectStackInstruction {
     private static final long serialVersionUID = 1L;
 
-    ExecY(ObjectStack inStack) {
-        super(inStack);
+    ExecY(int inStackType) {
+        super(inStackType);
     }
 
     @Override
     public void Execute(Interpreter inI) {
+        ObjectStack stack = stack(inI);
+
         // Removes the second item on the stack
         if (stack.size() > 0) {
             Object a = stack.pop();
             Program listExecYA = new Program();
 
             listExecYA.push("exec.y");
-            listExecYA.push(a);
+            listExecYA.pushShared(a);
 
             stack.push(listExecYA);
             stack.push(a);
@@ -1585,15 +1677,14 @@ class ExecNoop extends Instruction {
 class RandomPushCode extends ObjectStackInstruction {
     private static final long serialVersionUID = 1L;
 
-    Random random;
-
-    RandomPushCode(ObjectStack inStack) {
-        super(inStack);
-        random = new Random();
+    RandomPushCode(int inStackType) {
+        super(inStackType);
     }
 
     @Override
     public void Execute(Interpreter inI) {
+        ObjectStack stack = stack(inI);
+
         int randCodeMaxPoints = 0;
 
         if (inI.intStack().size() > 0) {
@@ -1603,7 +1694,7 @@ class RandomPushCode extends ObjectStackInstruction {
 
             int randomCodeSize;
             if (randCodeMaxPoints > 0) {
-                randomCodeSize = random.nextInt(randCodeMaxPoints) + 2;
+                randomCodeSize = inI.random.nextInt(randCodeMaxPoints) + 2;
             } else {
                 randomCodeSize = 2;
             }
@@ -1618,12 +1709,14 @@ class RandomPushCode extends ObjectStackInstruction {
 class ObjectEquals extends ObjectStackInstruction {
     private static final long serialVersionUID = 1L;
 
-    ObjectEquals(ObjectStack inStack) {
-        super(inStack);
+    ObjectEquals(int inStackType) {
+        super(inStackType);
     }
 
     @Override
     public void Execute(Interpreter inI) {
+        ObjectStack stack = stack(inI);
+
         BooleanStack bstack = inI.boolStack();
 
         if (stack.size() > 1) {
@@ -1638,12 +1731,14 @@ class ObjectEquals extends ObjectStackInstruction {
 class If extends ObjectStackInstruction {
     private static final long serialVersionUID = 1L;
 
-    If(ObjectStack inStack) {
-        super(inStack);
+    If(int inStackType) {
+        super(inStackType);
     }
 
     @Override
     public void Execute(Interpreter inI) {
+        ObjectStack stack = stack(inI);
+
         BooleanStack bstack = inI.boolStack();
         ObjectStack estack = inI.execStack();
 
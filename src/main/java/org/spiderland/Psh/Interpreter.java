@@ -1,11 +1,14 @@
 package org.spiderland.Psh;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 
 /**
@@ -15,8 +18,65 @@ import java.util.Random;
 public class Interpreter implements Serializable {
     private static final long serialVersionUID = 1L;
 
+    private static final int FRAME_PUSH = Opcodes.of("frame.push");
+    private static final int FRAME_POP = Opcodes.of("frame.pop");
+
     protected HashMap<String, Instruction> instructions = new HashMap<>();
 
+    // The instructions indexed by opcode. Opcodes are only valid within one
+    // JVM, so the table is rebuilt from the instructions map when the
+    // interpreter is deserialized.
+    // The table is never changed once set, but replaced by a changed copy,
+    // so that compiled programs can keep what they resolved against it.
+    protected transient Instruction[] dispatch = new Instruction[0];
+
+    // Identifiers of the interpreter's stacks, for instructions which look up
+    // their stack in the interpreter executing them
+    static final int INTEGER_STACK = 0;
+    static final int FLOAT_STACK = 1;
+    static final int BOOLEAN_STACK = 2;
+    static final int CODE_STACK = 3;
+    static final int NAME_STACK = 4;
+    static final int EXEC_STACK = 5;
+    static final int INPUT_STACK = 6;
+
+    // The built-in instructions. They keep no state of their own, so one
+    // immutable table is shared by all interpreters, which copy the dispatch
+    // table only when they define instructions of their own.
+    private static final Map<String, Instruction> BUILT_IN_INSTRUCTIONS;
+    private static final Map<String, AtomGenerator> BUILT_IN_GENERATORS;
+    private static final Instruction[] BUILT_IN_DISPATCH;
+
+    static {
+        Map<String, Instruction> instructions = new HashMap<>();
+
+        defineBuiltInInstructions(instructions);
+
+        Map<String, AtomGenerator> generators = new HashMap<>();
+
+        for (String name : instructions.keySet())
+            generators.put(name, new InstructionAtomGenerator(name));
+
+        BUILT_IN_INSTRUCTIONS = Map.copyOf(instructions);
+        BUILT_IN_GENERATORS = Map.copyOf(generators);
+        BUILT_IN_DISPATCH = dispatchTable(instructions);
+    }
+
+    private static Instruction[] dispatchTable(Map<String, Instruction> inInstructions) {
+        Instruction[] dispatch = new Instruction[0];
+
+        for (Map.Entry<String, Instruction> entry : inInstructions.entrySet()) {
+            int opcode = Opcodes.of(entry.getKey());
+
+            if (opcode >= dispatch.length)
+                dispatch = Arrays.copyOf(dispatch, Math.max(opcode + 1, 2 * dispatch.length));
+
+            dispatch[opcode] = entry.getValue();
+        }
+
+        return dispatch;
+    }
+
     // All generators
 
     protected HashMap<String, AtomGenerator> generators = new HashMap<>();
@@ -28,7 +88,7 @@ public class Interpreter implements Serializable {
     protected BooleanStack boolStack;
     protected ObjectStack codeStack;
     protected ObjectStack nameStack;
-    protected ObjectStack execStack = new ObjectStack();
+    protected ExecStack execStack = new ExecStack();
 
     protected ObjectStack inputStack = new ObjectStack();
 
@@ -47,9 +107,14 @@ public class Interpreter implements Serializable {
 
     protected boolean useFrames;
 
-    protected int totalStepsTaken;
+    protected long totalStepsTaken;
     protected long evaluationExecutions = 0;
 
+    protected transient BatchInterpreter batchInterpreter;
+    protected transient RandomCodeGenerator randomCodeGenerator;
+
+    protected int compileThreshold;
+
     protected int maxRandomInt;
     protected int minRandomInt;
     protected int randomIntResolution;
@@ -69,103 +134,124 @@ public class Interpreter implements Serializable {
         useFrames = false;
         pushStacks();
 
-        defineInstruction("integer.+", new IntegerAdd());
-        defineInstruction("integer.-", new IntegerSub());
-        defineInstruction("integer./", new IntegerDiv());
-        defineInstruction("integer.%", new IntegerMod());
-        defineInstruction("integer.*", new IntegerMul());
-        defineInstruction("integer.pow", new IntegerPow());
-        defineInstruction("integer.log", new IntegerLog());
-        defineInstruction("integer.=", new IntegerEquals());
-        defineInstruction("integer.>", new IntegerGreaterThan());
-        defineInstruction("integer.<", new IntegerLessThan());
-        defineInstruction("integer.min", new IntegerMin());
-        defineInstruction("integer.max", new IntegerMax());
-        defineInstruction("integer.abs", new IntegerAbs());
-        defineInstruction("integer.neg", new IntegerNeg());
-        defineInstruction("integer.ln", new IntegerLn());
-        defineInstruction("integer.fromfloat", new IntegerFromFloat());
-        defineInstruction("integer.fromboolean", new IntegerFromBoolean());
-        defineInstruction("integer.rand", new IntegerRand());
-
-        defineInstruction("float.+", new FloatAdd());
-        defineInstruction("float.-", new FloatSub());
-        defineInstruction("float./", new FloatDiv());
-        defineInstruction("float.%", new FloatMod());
-        defineInstruction("float.*", new FloatMul());
-        defineInstruction("float.pow", new FloatPow());
-        defineInstruction("float.log", new FloatLog());
-        defineInstruction("float.=", new FloatEquals());
-        defineInstruction("float.>", new FloatGreaterThan());
-        defineInstruction("float.<", new FloatLessThan());
-        defineInstruction("float.min", new FloatMin());
-        defineInstruction("float.max", new FloatMax());
-        defineInstruction("float.sin", new FloatSin());
-        defineInstruction("float.cos", new FloatCos());
-        defineInstruction("float.tan", new FloatTan());
-        defineInstruction("float.exp", new FloatExp());
-        defineInstruction("float.abs", new FloatAbs());
-        defineInstruction("float.neg", new FloatNeg());
-        defineInstruction("float.ln", new FloatLn());
-        defineInstruction("float.frominteger", new FloatFromInteger());
-        defineInstruction("float.fromboolean", new FloatFromBoolean());
-        defineInstruction("float.rand", new FloatRand());
-
-        defineInstruction("boolean.=", new BoolEquals());
-        defineInstruction("boolean.not", new BoolNot());
-        defineInstruction("boolean.and", new BoolAnd());
-        defineInstruction("boolean.or", new BoolOr());
-        defineInstruction("boolean.xor", new BoolXor());
-        defineInstruction("boolean.frominteger", new BooleanFromInteger());
-        defineInstruction("boolean.fromfloat", new BooleanFromFloat());
-        defineInstruction("boolean.rand", new BoolRand());
-
-        defineInstruction("code.quote", new Quote());
-        defineInstruction("code.fromboolean", new CodeFromBoolean());
-        defineInstruction("code.frominteger", new CodeFromInteger());
-        defineInstruction("code.fromfloat", new CodeFromFloat());
-        defineInstruction("code.noop", new ExecNoop());
-
-        defineInstruction("exec.k", new ExecK(execStack));
-        defineInstruction("exec.s", new ExecS(execStack, maxPointsInProgram));
-        defineInstruction("exec.y", new ExecY(execStack));
-        defineInstruction("exec.noop", new ExecNoop());
-
-        defineInstruction("exec.do*times", new ExecDoTimes(this));
-        defineInstruction("code.do*times", new CodeDoTimes(this));
-        defineInstruction("exec.do*count", new ExecDoCount(this));
-        defineInstruction("code.do*count", new CodeDoCount(this));
-        defineInstruction("exec.do*range", new ExecDoRange(this));
-        defineInstruction("code.do*range", new CodeDoRange(this));
-        defineInstruction("code.=", new ObjectEquals(codeStack));
-        defineInstruction("exec.=", new ObjectEquals(execStack));
-        defineInstruction("code.if", new If(codeStack));
-        defineInstruction("exec.if", new If(execStack));
-        defineInstruction("code.rand", new RandomPushCode(codeStack));
-        defineInstruction("exec.rand", new RandomPushCode(execStack));
-
-        defineInstruction("true", new BooleanConstant(true));
-        defineInstruction("false", new BooleanConstant(false));
-
-        defineInstruction("input.index", new InputIndex(inputStack));
-        defineInstruction("input.inall", new InputInAll(inputStack));
-        defineInstruction("input.inallrev", new InputInRev(inputStack));
-        defineInstruction("input.stackdepth", new Depth(inputStack));
-
-        defineStackInstructions("integer", intStack);
-        defineStackInstructions("float", floatStack);
-        defineStackInstructions("boolean", boolStack);
-        defineStackInstructions("name", nameStack);
-        defineStackInstructions("code", codeStack);
-        defineStackInstructions("exec", execStack);
-
-        defineInstruction("frame.push", new PushFrame());
-        defineInstruction("frame.pop", new PopFrame());
+        instructions.putAll(BUILT_IN_INSTRUCTIONS);
+        generators.putAll(BUILT_IN_GENERATORS);
+        dispatch = BUILT_IN_DISPATCH;
 
         generators.put("float.erc", new FloatAtomGenerator());
         generators.put("integer.erc", new IntAtomGenerator());
     }
 
+    private static void defineBuiltInInstructions(Map<String, Instruction> outInstructions) {
+        outInstructions.put("integer.+", new IntegerAdd());
+        outInstructions.put("integer.-", new IntegerSub());
+        outInstructions.put("integer./", new IntegerDiv());
+        outInstructions.put("integer.%", new IntegerMod());
+        outInstructions.put("integer.*", new IntegerMul());
+        outInstructions.put("integer.pow", new IntegerPow());
+        outInstructions.put("integer.log", new IntegerLog());
+        outInstructions.put("integer.=", new IntegerEquals());
+        outInstructions.put("integer.>", new IntegerGreaterThan());
+        outInstructions.put("integer.<", new IntegerLessThan());
+        outInstructions.put("integer.min", new IntegerMin());
+        outInstructions.put("integer.max", new IntegerMax());
+        outInstructions.put("integer.abs", new IntegerAbs());
+        outInstructions.put("integer.neg", new IntegerNeg());
+        outInstructions.put("integer.ln", new IntegerLn());
+        outInstructions.put("integer.fromfloat", new IntegerFromFloat());
+        outInstructions.put("integer.fromboolean", new IntegerFromBoolean());
+        outInstructions.put("integer.rand", new IntegerRand());
+
+        outInstructions.put("float.+", new FloatAdd());
+        outInstructions.put("float.-", new FloatSub());
+        outInstructions.put("float./", new FloatDiv());
+        outInstructions.put("float.%", new FloatMod());
+        outInstructions.put("float.*", new FloatMul());
+        outInstructions.put("float.pow", new FloatPow());
+        outInstructions.put("float.log", new FloatLog());
+        outInstructions.put("float.=", new FloatEquals());
+        outInstructions.put("float.>", new FloatGreaterThan());
+        outInstructions.put("float.<", new FloatLessThan());
+        outInstructions.put("float.min", new FloatMin());
+        outInstructions.put("float.max", new FloatMax());
+        outInstructions.put("float.sin", new FloatSin());
+        outInstructions.put("float.cos", new FloatCos());
+        outInstructions.put("float.tan", new FloatTan());
+        outInstructions.put("float.exp", new FloatExp());
+        outInstructions.put("float.abs", new FloatAbs());
+        outInstructions.put("float.neg", new FloatNeg());
+        outInstructions.put("float.ln", new FloatLn());
+        outInstructions.put("float.frominteger", new FloatFromInteger());
+        outInstructions.put("float.fromboolean", new FloatFromBoolean());
+        outInstructions.put("float.rand", new FloatRand());
+
+        outInstructions.put("boolean.=", new BoolEquals());
+        outInstructions.put("boolean.not", new BoolNot());
+        outInstructions.put("boolean.and", new BoolAnd());
+        outInstructions.put("boolean.or", new BoolOr());
+        outInstructions.put("boolean.xor", new BoolXor());
+        outInstructions.put("boolean.frominteger", new BooleanFromInteger());
+        outInstructions.put("boolean.fromfloat", new BooleanFromFloat());
+        outInstructions.put("boolean.rand", new BoolRand());
+
+        outInstructions.put("code.quote", new Quote());
+        outInstructions.put("code.fromboolean", new CodeFromBoolean());
+        outInstructions.put("code.frominteger", new CodeFromInteger());
+        outInstructions.put("code.fromfloat", new CodeFromFloat());
+        outInstructions.put("code.noop", new ExecNoop());
+
+        outInstructions.put("exec.k", new ExecK(EXEC_STACK));
+        // exec.s keeps the limit it has always been built with, that of an
+        // interpreter under construction
+        outInstructions.put("exec.s", new ExecS(EXEC_STACK, 0));
+        outInstructions.put("exec.y", new ExecY(EXEC_STACK));
+        outInstructions.put("exec.noop", new ExecNoop());
+
+        outInstructions.put("exec.do*times", new ExecDoTimes());
+        outInstructions.put("code.do*times", new CodeDoTimes());
+        outInstructions.put("exec.do*count", new ExecDoCount());
+        outInstructions.put("code.do*count", new CodeDoCount());
+        outInstructions.put("exec.do*range", new ExecDoRange());
+        outInstructions.put("code.do*range", new CodeDoRange());
+        outInstructions.put("code.=", new ObjectEquals(CODE_STACK));
+        outInstructions.put("exec.=", new ObjectEquals(EXEC_STACK));
+        outInstructions.put("code.if", new If(CODE_STACK));
+        outInstructions.put("exec.if", new If(EXEC_STACK));
+        outInstructions.put("code.rand", new RandomPushCode(CODE_STACK));
+        outInstructions.put("exec.rand", new RandomPushCode(EXEC_STACK));
+
+        outInstructions.put("true", new BooleanConstant(true));
+        outInstructions.put("false", new BooleanConstant(false));
+
+        outInstructions.put("input.index", new InputIndex(INPUT_STACK));
+        outInstructions.put("input.inall", new InputInAll(INPUT_STACK));
+        outInstructions.put("input.inallrev", new InputInRev(INPUT_STACK));
+        outInstructions.put("input.stackdepth", new Depth(INPUT_STACK));
+
+        defineBuiltInStackInstructions(outInstructions, "integer", INTEGER_STACK);
+        defineBuiltInStackInstructions(outInstructions, "float", FLOAT_STACK);
+        defineBuiltInStackInstructions(outInstructions, "boolean", BOOLEAN_STACK);
+        defineBuiltInStackInstructions(outInstructions, "name", NAME_STACK);
+        defineBuiltInStackInstructions(outInstructions, "code", CODE_STACK);
+        defineBuiltInStackInstructions(outInstructions, "exec", EXEC_STACK);
+
+        outInstructions.put("frame.push", new PushFrame());
+        outInstructions.put("frame.pop", new PopFrame());
+    }
+
+    private static void defineBuiltInStackInstructions(Map<String, Instruction> outInstructions, String inTypeName,
+        int inStack) {
+        outInstructions.put(inTypeName + ".pop", new Pop(inStack));
+        outInstructions.put(inTypeName + ".swap", new Swap(inStack));
+        outInstructions.put(inTypeName + ".rot", new Rot(inStack));
+        outInstructions.put(inTypeName + ".flush", new Flush(inStack));
+        outInstructions.put(inTypeName + ".dup", new Dup(inStack));
+        outInstructions.put(inTypeName + ".stackdepth", new Depth(inStack));
+        outInstructions.put(inTypeName + ".shove", new Shove(inStack));
+        outInstructions.put(inTypeName + ".yank", new Yank(inStack));
+        outInstructions.put(inTypeName + ".yankdup", new YankDup(inStack));
+    }
+
     /**
      * Enables experimental Push "frames"
      * <p>
@@ -276,15 +362,25 @@ public class Interpreter implements Serializable {
     public void addInstruction(String inName, Instruction inInstruction) {
         InstructionAtomGenerator iag = new InstructionAtomGenerator(inName);
         instructions.put(inName, inInstruction);
+        setDispatch(inName, inInstruction);
         generators.put(inName, iag);
         randomGenerators.add(iag);
     }
 
     protected void defineInstruction(String inName, Instruction inInstruction) {
         instructions.put(inName, inInstruction);
+        setDispatch(inName, inInstruction);
         generators.put(inName, new InstructionAtomGenerator(inName));
     }
 
+    private void setDispatch(String inName, Instruction inInstruction) {
+        int opcode = Opcodes.of(inName);
+        Instruction[] copy = Arrays.copyOf(dispatch, Math.max(opcode + 1, dispatch.length));
+
+        copy[opcode] = inInstruction;
+        dispatch = copy;
+    }
+
     protected void defineStackInstructions(String inTypeName, Stack inStack) {
         defineInstruction(inTypeName + ".pop", new Pop(inStack));
         defineInstruction(inTypeName + ".swap", new Swap(inStack));
@@ -334,10 +430,56 @@ public class Interpreter implements Serializable {
 
     public int execute(Program inProgram, int inMaxSteps) {
         evaluationExecutions++;
+
+        if (compileThreshold > 0) {
+            BytecodeProgram bytecode = inProgram.bytecode(this, compileThreshold);
+
+            if (bytecode != null) {
+                codeStack.push(inProgram);
+
+                int executed = bytecode.execute(this, inMaxSteps);
+
+                if (executed >= 0) {
+                    totalStepsTaken += executed;
+
+                    // Anything left on the exec stack runs after the program
+                    if (execStack.size() > 0)
+                        executed += Step(inMaxSteps < 0 ? inMaxSteps : inMaxSteps - executed);
+
+                    return executed;
+                }
+
+                execStack.push(inProgram);
+                return Step(inMaxSteps);
+            }
+        }
+
         loadProgram(inProgram); // Initializes program
         return Step(inMaxSteps);
     }
 
+    /**
+     * Sets the number of times a program is executed before it is compiled to
+     * JVM bytecode, if it is straight-line (see BytecodeCompiler). Zero, the
+     * default, never compiles.
+     */
+
+    public void setCompileThreshold(int inThreshold) {
+        compileThreshold = inThreshold;
+    }
+
+    /**
+     * Returns a batch interpreter which executes programs on many inputs at
+     * once with this interpreter.
+     */
+
+    public BatchInterpreter batchInterpreter() {
+        if (batchInterpreter == null)
+            batchInterpreter = new BatchInterpreter(this);
+
+        return batchInterpreter;
+    }
+
     /**
      * Loads a Push program into the interpreter's exec and code stacks.
      *
@@ -362,7 +504,10 @@ public class Interpreter implements Serializable {
     public int Step(int inMaxSteps) {
         int executed = 0;
         while (inMaxSteps != 0 && execStack.size() > 0) {
-            executeInstruction(execStack.pop());
+            int opcode = execStack.topOpcode();
+            int operand = execStack.topOperand();
+
+            executeInstruction(execStack.pop(), opcode, operand);
             inMaxSteps--;
             executed++;
         }
@@ -373,50 +518,85 @@ public class Interpreter implements Serializable {
     }
 
     public int executeInstruction(Object inObject) {
+        int opcode = Opcodes.opcodeOf(inObject);
 
-        if (inObject instanceof Program p) {
+        return executeInstruction(inObject, opcode, Opcodes.operandOf(inObject, opcode));
+    }
 
-            if (useFrames) {
-                execStack.push("frame.pop");
-            }
+    /**
+     * Executes an item given its opcode and inline operand (see Opcodes).
+     *
+     * @return 0 if the item was executed, -1 if it is not executable.
+     */
 
-            p.pushAllReverse(execStack);
+    protected int executeInstruction(Object inObject, int inOpcode, int inOperand) {
+        if (inOpcode >= 0) {
+            Instruction i = inOpcode < dispatch.length ? dispatch[inOpcode] : null;
 
-            if (useFrames) {
-                execStack.push("frame.push");
+            if (i != null) {
+                i.Execute(this);
+            } else {
+                nameStack.push(inObject);
             }
 
             return 0;
         }
 
-        if (inObject instanceof Integer) {
-            intStack.push((Integer) inObject);
-            return 0;
-        }
+        switch (inOpcode) {
+            case Opcodes.INTEGER:
+                intStack.push(inOperand);
+                return 0;
 
-        if (inObject instanceof Number) {
-            floatStack.push(((Number) inObject).floatValue());
-            return 0;
-        }
+            case Opcodes.FLOAT:
+                floatStack.push(Float.intBitsToFloat(inOperand));
+                return 0;
 
-        if (inObject instanceof Instruction) {
-            ((Instruction) inObject).Execute(this);
-            return 0;
-        }
+            case Opcodes.PROGRAM:
+                if (useFrames) {
+                    execStack.push("frame.pop", FRAME_POP, 0);
+                }
 
-        if (inObject instanceof String) {
-            Instruction i = instructions.get(inObject);
+                execStack.pushAllReverse(((Program) inObject).compile());
 
-            if (i != null) {
-                i.Execute(this);
-            } else {
-                nameStack.push(inObject);
-            }
+                if (useFrames) {
+                    execStack.push("frame.push", FRAME_PUSH, 0);
+                }
 
-            return 0;
+                return 0;
+
+            default:
+                if (inObject instanceof Instruction) {
+                    ((Instruction) inObject).Execute(this);
+                    return 0;
+                }
+
+                return -1;
         }
+    }
+
+    /**
+     * Returns one of the active stacks by its identifier.
+     */
 
-        return -1;
+    Stack stack(int inStack) {
+        switch (inStack) {
+            case INTEGER_STACK:
+                return intStack;
+            case FLOAT_STACK:
+                return floatStack;
+            case BOOLEAN_STACK:
+                return boolStack;
+            case CODE_STACK:
+                return codeStack;
+            case NAME_STACK:
+                return nameStack;
+            case EXEC_STACK:
+                return execStack;
+            case INPUT_STACK:
+                return inputStack;
+            default:
+                throw new IllegalArgumentException("Unknown stack " + inStack);
+        }
     }
 
     /**
@@ -698,20 +878,31 @@ public class Interpreter implements Serializable {
      */
 
     public Program randomCode(int inSize) {
-        Program p = new Program();
+        return randomCodeGenerator().generate(inSize);
+    }
 
-        List<Integer> distribution = randomCodeDistribution(inSize - 1,
-                inSize - 1);
+    /**
+     * Generates many random Push programs, as for initializing a population.
+     *
+     * @param inSizes The requested size for each program to be generated.
+     * @return A random Push program of each of the given sizes.
+     */
 
-        for (int count : distribution) {
-            if (count == 1) {
-                p.push(randomAtom());
-            } else {
-                p.push(randomCode(count));
-            }
-        }
+    public Program[] randomCode(int[] inSizes) {
+        RandomCodeGenerator generator = randomCodeGenerator();
+        Program[] result = new Program[inSizes.length];
 
-        return p;
+        for (int n = 0; n < inSizes.length; n++)
+            result[n] = generator.generate(inSizes[n]);
+
+        return result;
+    }
+
+    private RandomCodeGenerator randomCodeGenerator() {
+        if (randomCodeGenerator == null)
+            randomCodeGenerator = new RandomCodeGenerator(this);
+
+        return randomCodeGenerator;
     }
 
     /**
@@ -755,6 +946,12 @@ public class Interpreter implements Serializable {
         randomCodeDistribution(ioList, inCount - thisSize, inMaxElements - 1);
     }
 
+    private void readObject(ObjectInputStream inStream) throws IOException, ClassNotFoundException {
+        inStream.defaultReadObject();
+
+        dispatch = dispatchTable(instructions);
+    }
+
     abstract static class AtomGenerator implements Serializable {
         private static final long serialVersionUID = 1L;
 
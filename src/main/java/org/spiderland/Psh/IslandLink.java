@@ -0,0 +1,51 @@
+package org.spiderland.Psh;
+
+/**
+ * The connection of an island to the other islands of a run, which are
+ * either threads of the same process (IslandModel) or other processes
+ * (RemoteIslandLink).
+ */
+interface IslandLink {
+
+    /**
+     * Returns the number of islands of the run.
+     */
+    int size();
+
+    /**
+     * Records the best fitness an island has found in the generation it has
+     * just evaluated.
+     */
+    void evaluated(int inIsland, float inFitness);
+
+    /**
+     * Returns the best fitness found on any island so far.
+     */
+    float bestFitness();
+
+    /**
+     * Returns the island on which the best fitness so far was found.
+     */
+    int bestIsland();
+
+    /**
+     * Exchanges migrants with the other islands, if an island's evaluated
+     * population is due for it.
+     *
+     * @param inIsland The island.
+     */
+    void migrate(GeneticAlgorithm inIsland) throws Exception;
+
+    /**
+     * Returns whether an island has succeeded, so that all should stop.
+     */
+    boolean finished();
+
+    /**
+     * Called when an island is done, with its last evaluated population
+     * current.
+     *
+     * @param inIsland The island.
+     */
+    void done(GeneticAlgorithm inIsland) throws Exception;
+}
@@ -0,0 +1,281 @@
+package org.spiderland.Psh;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a genetic algorithm as a number of islands, each an independent
+ * GeneticAlgorithm of the same problem class with its own populations,
+ * interpreter and thread.
+ * <p>
+ * Every migration-interval generations an island sends copies of its
+ * migration-size best individuals, which keep their fitness and errors, to a
+ * neighbour (the next island in a ring, or a random one), and replaces its
+ * worst individuals with those which have arrived from other islands since.
+ * Migrants are exchanged through queues, so islands never wait for each
+ * other. When an island succeeds the others stop after their current
+ * generation, and the run's final report is that of the best island.
+ */
+final class IslandModel implements IslandLink, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final GeneticAlgorithm[] islands;
+    private final List<Queue<GAIndividual>> inboxes = new ArrayList<>();
+
+    private final int migrationInterval;
+    private final int migrationSize;
+    private final boolean randomTopology;
+
+    private volatile boolean finished;
+
+    // The best fitness found on any island so far, and where
+    private float bestFitness = Float.MAX_VALUE;
+    private int bestIsland = -1;
+
+    /**
+     * Creates the islands of a run. Each island is initialized from the run's
+     * parameters, with its share of the population, a seed of its own and a
+     * single evaluation thread.
+     *
+     * @param inAlgorithm  The genetic algorithm coordinating the islands.
+     * @param inParameters The parameters of the run.
+     * @param inIslands    The number of islands.
+     * @param inSeed       The seed of the run.
+     */
+    IslandModel(GeneticAlgorithm inAlgorithm, HashMap<String, String> inParameters, int inIslands, long inSeed,
+            int inMigrationInterval, int inMigrationSize, String inTopology) throws Exception {
+        if (!"ring".equals(inTopology) && !"random".equals(inTopology))
+            throw new Exception("migration-topology must be set to ring or random. Currently set to " + inTopology);
+
+        islands = new GeneticAlgorithm[inIslands];
+        migrationInterval = inMigrationInterval;
+        migrationSize = inMigrationSize;
+        randomTopology = "random".equals(inTopology);
+
+        int populationSize = (int) Float.parseFloat(inParameters.get("population-size"));
+
+        for (int n = 0; n < inIslands; n++) {
+            HashMap<String, String> parameters = new HashMap<>(inParameters);
+
+            parameters.remove("islands");
+            parameters.remove("output-file");
+            parameters.remove("run-log");
+            parameters.remove("checkpoint-prefix");
+            parameters.remove("evaluation-server-port");
+            parameters.put("population-size", String.valueOf((populationSize + inIslands - 1) / inIslands));
+            parameters.put("random-seed", String.valueOf(inSeed + n));
+            parameters.put("evaluation-threads", "1");
+
+            GeneticAlgorithm island = inAlgorithm.getClass().getDeclaredConstructor().newInstance();
+
+            // The islands' parameter summaries would repeat the run's
+            island.outputStream = null;
+            island.islandLink = this;
+            island.island = n;
+            island.setParams(parameters);
+            island.initFromParameters();
+
+            islands[n] = island;
+            inboxes.add(new ConcurrentLinkedQueue<>());
+        }
+    }
+
+    @Override
+    public int size() {
+        return islands.length;
+    }
+
+    GeneticAlgorithm island(int inIsland) {
+        return islands[inIsland];
+    }
+
+    /**
+     * Runs every island on its own thread until it terminates, or for a
+     * number of generations. When all islands have terminated, the
+     * coordinating algorithm takes over the state of the best island and
+     * prints the final report.
+     *
+     * @param inAlgorithm   The genetic algorithm coordinating the islands.
+     * @param inGenerations The maximum number of generations to run during
+     *                      this call, or -1 for no limit.
+     * @return The result of GeneticAlgorithm.run.
+     */
+    boolean run(GeneticAlgorithm inAlgorithm, int inGenerations) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(islands.length);
+        List<Future<Boolean>> results = new ArrayList<>();
+
+        try {
+            for (GeneticAlgorithm island : islands) {
+                island.outputStream = inAlgorithm.outputStream;
+                island.runLog = inAlgorithm.runLog;
+
+                Callable<Boolean> task = () -> island.runIsland(inGenerations);
+                results.add(executor.submit(task));
+            }
+
+            boolean done = true;
+
+            for (Future<Boolean> result : results)
+                done &= result.get();
+
+            if (!done)
+                return true;
+
+            inAlgorithm.adoptIsland(islands[best()]);
+
+            // Islands stopped by another's success may be a generation behind
+            for (GeneticAlgorithm island : islands)
+                inAlgorithm.generationCount = Math.max(inAlgorithm.generationCount, island.generationCount);
+
+            inAlgorithm.print(inAlgorithm.finalReport());
+
+            return inAlgorithm.generationCount < inAlgorithm.maxGenerations;
+        } catch (ExecutionException e) {
+            finished = true;
+
+            if (e.getCause() instanceof Exception cause)
+                throw cause;
+
+            throw e;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Override
+    public boolean finished() {
+        return finished;
+    }
+
+    @Override
+    public void done(GeneticAlgorithm inIsland) {
+        if (inIsland.success())
+            finished = true;
+    }
+
+    @Override
+    public synchronized void evaluated(int inIsland, float inFitness) {
+        if (inFitness < bestFitness) {
+            bestFitness = inFitness;
+            bestIsland = inIsland;
+        }
+    }
+
+    @Override
+    public synchronized float bestFitness() {
+        return bestFitness;
+    }
+
+    @Override
+    public synchronized int bestIsland() {
+        return bestIsland;
+    }
+
+    @Override
+    public void migrate(GeneticAlgorithm inIsland) {
+        if (!migrates(inIsland, migrationInterval, migrationSize) || islands.length < 2)
+            return;
+
+        GAIndividual[] population = inIsland.populations[inIsland.currentPopulation];
+        int[] order = fitnessOrder(population);
+        int count = Math.min(migrationSize, population.length);
+
+        int target;
+
+        if (randomTopology) {
+            target = inIsland.random.nextInt(islands.length - 1);
+
+            if (target >= inIsland.island)
+                target++;
+        } else {
+            target = (inIsland.island + 1) % islands.length;
+        }
+
+        Queue<GAIndividual> outbox = inboxes.get(target);
+
+        for (int n = 0; n < count; n++)
+            outbox.add(population[order[n]].evaluatedCopy());
+
+        // Immigrants replace the worst individuals, but never the best
+        Queue<GAIndividual> inbox = inboxes.get(inIsland.island);
+        GAIndividual immigrant;
+
+        for (int n = population.length - 1; n > 0 && (immigrant = inbox.poll()) != null; n--)
+            population[order[n]] = immigrant;
+    }
+
+    /**
+     * Returns whether an island migrates after evaluating its current
+     * generation.
+     */
+    static boolean migrates(GeneticAlgorithm inIsland, int inMigrationInterval, int inMigrationSize) {
+        return inMigrationInterval > 0 && inMigrationSize > 0
+                && (inIsland.generationCount + 1) % inMigrationInterval == 0;
+    }
+
+    /**
+     * Returns the indices of a population from the fittest to the least fit.
+     */
+    static int[] fitnessOrder(GAIndividual[] inPopulation) {
+        long[] keys = new long[inPopulation.length];
+
+        for (int n = 0; n < keys.length; n++) {
+            int bits = Float.floatToIntBits(inPopulation[n].getFitness());
+
+            // Orders the float bits as signed ints
+            bits ^= (bits >> 31) & 0x7fffffff;
+            keys[n] = ((long) bits << 32) | n;
+        }
+
+        Arrays.sort(keys);
+
+        int[] result = new int[keys.length];
+
+        for (int n = 0; n < keys.length; n++)
+            result[n] = (int) keys[n];
+
+        return result;
+    }
+
+    private int best() {
+        int result = 0;
+
+        for (int n = 1; n < islands.length; n++) {
+            if (islands[n].bestMeanFitness < islands[result].bestMeanFitness)
+                result = n;
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns a summary of the best individual of each island.
+     */
+    String report() {
+        StringBuilder report = new StringBuilder();
+        int best = best();
+
+        for (int n = 0; n < islands.length; n++) {
+            report.append(">> Island ").append(n).append(": Best Fitness (mean) ")
+                    .append(islands[n].bestMeanFitness).append(" at Generation ")
+                    .append(islands[n].generationCount - 1);
+
+            if (n == best)
+                report.append(" (best)");
+
+            report.append("\n");
+        }
+
+        return report.append("\n").toString();
+    }
+}
@@ -0,0 +1,292 @@
+package org.spiderland.Psh;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Coordinates a run whose islands are separate processes, on this or other
+ * hosts, each connected with a RemoteIslandLink.
+ * <p>
+ * The server passes each island's migrants on to the next island of a ring,
+ * or to a random one, tells the islands about the best fitness found so far,
+ * and stops them all once one succeeds. When every island is done (or has
+ * disconnected), the run's final report is that of the best individual any
+ * island has returned.
+ * <p>
+ * Messages are a type byte followed by their fields, written with
+ * DataOutputStream. Individuals are sent as length-prefixed blocks in the
+ * encoding of GeneticAlgorithm.encodeIndividual, which the server relays
+ * without decoding.
+ */
+final class IslandServer {
+    // Server to island: the island's index and the number of islands
+    static final byte WELCOME = 1;
+    // Island to server: the best fitness of the island's latest generation
+    static final byte REPORT = 2;
+    // Both ways: a count followed by that many individuals
+    static final byte MIGRANTS = 3;
+    // Island to server: success, generation count and best individual
+    static final byte DONE = 4;
+    // Server to island: the best fitness so far and its island
+    static final byte BEST = 5;
+    // Server to island: stop after the current generation
+    static final byte STOP = 6;
+
+    private final ServerSocket serverSocket;
+    private final int islandCount;
+    private final boolean randomTopology;
+    private final Random random = new Random();
+
+    private final List<Connection> connections = new ArrayList<>();
+
+    private float bestFitness = Float.MAX_VALUE;
+    private int bestIsland = -1;
+
+    private GAIndividual best;
+    private int generationCount;
+    private final StringBuilder summary = new StringBuilder();
+
+    /**
+     * Opens the server's port. Islands may connect from then on.
+     *
+     * @param inPort     The port, or 0 for any free port.
+     * @param inIslands  The number of islands to wait for.
+     * @param inTopology ring or random.
+     */
+    IslandServer(int inPort, int inIslands, String inTopology) throws Exception {
+        if (!"ring".equals(inTopology) && !"random".equals(inTopology))
+            throw new Exception("migration-topology must be set to ring or random. Currently set to " + inTopology);
+
+        serverSocket = new ServerSocket(inPort, inIslands);
+        islandCount = inIslands;
+        randomTopology = "random".equals(inTopology);
+    }
+
+    /**
+     * Opens the server of a run whose island-server-port parameter is set.
+     *
+     * @param inParameters The parameters of the run.
+     * @param inIslands    The number of islands to wait for.
+     * @param inTopology   ring or random.
+     * @return the server, or null if island-server-port is not set.
+     */
+    static IslandServer create(HashMap<String, String> inParameters, int inIslands, String inTopology)
+            throws Exception {
+        String port = inParameters.get("island-server-port");
+
+        if (port == null)
+            return null;
+
+        return new IslandServer(Integer.parseInt(port), inIslands, inTopology);
+    }
+
+    int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    int size() {
+        return islandCount;
+    }
+
+    /**
+     * Waits for all islands to connect, coordinates them until all are done,
+     * and prints the final report of the run.
+     *
+     * @param inAlgorithm The genetic algorithm coordinating the run.
+     * @return The result of GeneticAlgorithm.run.
+     */
+    boolean run(GeneticAlgorithm inAlgorithm) throws Exception {
+        CountDownLatch done = new CountDownLatch(islandCount);
+
+        try {
+            for (int n = 0; n < islandCount; n++) {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+
+                connections.add(new Connection(n, socket));
+            }
+
+            for (Connection connection : connections) {
+                connection.send(WELCOME, out -> {
+                    out.writeInt(connection.island);
+                    out.writeInt(islandCount);
+                });
+
+                Thread receiver = new Thread(() -> {
+                    connection.receive(inAlgorithm);
+                    done.countDown();
+                }, "island-server-" + connection.island);
+                receiver.setDaemon(true);
+                receiver.start();
+            }
+
+            done.await();
+        } finally {
+            serverSocket.close();
+        }
+
+        if (best == null)
+            throw new Exception("No island returned a result");
+
+        inAlgorithm.adoptBest(best, generationCount);
+        inAlgorithm.print(inAlgorithm.finalReport());
+
+        return inAlgorithm.generationCount < inAlgorithm.maxGenerations;
+    }
+
+    /**
+     * Returns a summary of the result of each island.
+     */
+    synchronized String report() {
+        return summary + "\n";
+    }
+
+    private synchronized void reported(int inIsland, float inFitness) {
+        if (inFitness < bestFitness) {
+            bestFitness = inFitness;
+            bestIsland = inIsland;
+
+            for (Connection connection : connections) {
+                connection.send(BEST, out -> {
+                    out.writeFloat(inFitness);
+                    out.writeInt(inIsland);
+                });
+            }
+        }
+    }
+
+    private void relay(int inIsland, List<byte[]> inMigrants) {
+        int target;
+
+        synchronized (this) {
+            if (randomTopology) {
+                target = random.nextInt(islandCount - 1);
+
+                if (target >= inIsland)
+                    target++;
+            } else {
+                target = (inIsland + 1) % islandCount;
+            }
+        }
+
+        connections.get(target).send(MIGRANTS, out -> {
+            out.writeInt(inMigrants.size());
+
+            for (byte[] migrant : inMigrants)
+                writeBlock(out, migrant);
+        });
+    }
+
+    private synchronized void done(int inIsland, boolean inSuccess, int inGenerationCount,
+            GAIndividual inBest) {
+        summary.append(">> Island ").append(inIsland).append(": Best Fitness (mean) ")
+                .append(inBest.getFitness()).append(" at Generation ").append(inGenerationCount - 1)
+                .append(inSuccess ? " (success)" : "").append("\n");
+
+        generationCount = Math.max(generationCount, inGenerationCount);
+
+        if (best == null || inBest.getFitness() < best.getFitness())
+            best = inBest;
+
+        if (inSuccess) {
+            for (Connection connection : connections)
+                connection.send(STOP, out -> {
+                });
+        }
+    }
+
+    private synchronized void lost(int inIsland, Exception inCause) {
+        summary.append(">> Island ").append(inIsland).append(": Lost (").append(inCause).append(")\n");
+    }
+
+    static void writeBlock(DataOutputStream inOut, byte[] inBlock) throws IOException {
+        inOut.writeInt(inBlock.length);
+        inOut.write(inBlock);
+    }
+
+    static byte[] readBlock(DataInputStream inIn) throws IOException {
+        byte[] result = new byte[inIn.readInt()];
+
+        inIn.readFully(result);
+
+        return result;
+    }
+
+    private interface MessageWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * The connection to one island.
+     */
+    private class Connection {
+        final int island;
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+
+        Connection(int inIsland, Socket inSocket) throws IOException {
+            island = inIsland;
+            socket = inSocket;
+            in = new DataInputStream(new BufferedInputStream(inSocket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(inSocket.getOutputStream()));
+        }
+
+        /**
+         * Sends a message, unless the island has disconnected.
+         */
+        void send(byte inMessage, MessageWriter inWriter) {
+            synchronized (out) {
+                try {
+                    out.writeByte(inMessage);
+                    inWriter.write(out);
+                    out.flush();
+                } catch (IOException e) {
+                    // The island is gone; its receiver reports it
+                }
+            }
+        }
+
+        void receive(GeneticAlgorithm inAlgorithm) {
+            try (socket) {
+                while (true) {
+                    byte message = in.readByte();
+
+                    if (message == REPORT) {
+                        reported(island, in.readFloat());
+                    } else if (message == MIGRANTS) {
+                        List<byte[]> migrants = new ArrayList<>();
+
+                        for (int n = in.readInt(); n > 0; n--)
+                            migrants.add(readBlock(in));
+
+                        relay(island, migrants);
+                    } else if (message == DONE) {
+                        boolean success = in.readBoolean();
+                        int generations = in.readInt();
+
+                        done(island, success, generations, inAlgorithm.decodeIndividual(readBlock(in)));
+                        return;
+                    } else {
+                        throw new IOException("Unknown island message " + message);
+                    }
+                }
+            } catch (EOFException e) {
+                lost(island, new IOException("disconnected"));
+            } catch (Exception e) {
+                lost(island, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package org.spiderland.Psh;
+
+/**
+ * A stack of integers, floats or booleans for the BatchInterpreter, holding
+ * one value per lane in each slot. Each slot is a column array indexed by
+ * lane, so stack manipulation moves whole columns at once.
+ */
+final class LaneStack {
+    static final int FLOAT = 0;
+    static final int INT = 1;
+    static final int BOOLEAN = 2;
+
+    final int type;
+    int lanes;
+    int size;
+
+    /**
+     * The columns of the stack. Columns above size are kept for reuse; each
+     * column is referenced from exactly one slot.
+     */
+    private Object[] columns = new Object[8];
+
+    LaneStack(int inType, int inLanes) {
+        type = inType;
+        lanes = inLanes;
+    }
+
+    /**
+     * Pushes a column, whose values the caller must then set for every lane.
+     *
+     * @return The pushed column.
+     */
+    Object push() {
+        if (size == columns.length) {
+            Object[] newcolumns = new Object[2 * size];
+            System.arraycopy(columns, 0, newcolumns, 0, size);
+            columns = newcolumns;
+        }
+
+        Object column = columns[size];
+
+        if (column == null) {
+            column = switch (type) {
+                case FLOAT -> new float[lanes];
+                case INT -> new int[lanes];
+                default -> new boolean[lanes];
+            };
+            columns[size] = column;
+        }
+
+        size++;
+
+        return column;
+    }
+
+    void push(float inValue) {
+        float[] column = (float[]) push();
+
+        for (int l = 0; l < lanes; l++)
+            column[l] = inValue;
+    }
+
+    void push(int inValue) {
+        int[] column = (int[]) push();
+
+        for (int l = 0; l < lanes; l++)
+            column[l] = inValue;
+    }
+
+    void push(boolean inValue) {
+        boolean[] column = (boolean[]) push();
+
+        for (int l = 0; l < lanes; l++)
+            column[l] = inValue;
+    }
+
+    /**
+     * Returns a column by its depth from the top of the stack.
+     */
+    Object column(int inDepth) {
+        return columns[size - 1 - inDepth];
+    }
+
+    void popdiscard() {
+        if (size > 0)
+            size--;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    void dup() {
+        if (size > 0)
+            copyToTop(size - 1);
+    }
+
+    void swap() {
+        if (size > 1)
+            move(size - 1, size - 2);
+    }
+
+    void rot() {
+        if (size > 2)
+            move(size - 3, size - 1);
+    }
+
+    void shove(int inIndex) {
+        if (size > 0)
+            move(size - 1, size - clamp(inIndex) - 1);
+    }
+
+    void yank(int inIndex) {
+        if (size > 0)
+            move(size - clamp(inIndex) - 1, size - 1);
+    }
+
+    void yankdup(int inIndex) {
+        if (size > 0)
+            copyToTop(size - clamp(inIndex) - 1);
+    }
+
+    /**
+     * Clamps a stack index like the scalar stacks do.
+     */
+    int clamp(int inIndex) {
+        return Math.max(0, Math.min(inIndex, size - 1));
+    }
+
+    private void copyToTop(int inSlot) {
+        Object source = columns[inSlot];
+        System.arraycopy(source, 0, push(), 0, lanes);
+    }
+
+    private void move(int inFrom, int inTo) {
+        Object column = columns[inFrom];
+
+        if (inFrom < inTo)
+            System.arraycopy(columns, inFrom + 1, columns, inFrom, inTo - inFrom);
+        else
+            System.arraycopy(columns, inTo, columns, inTo + 1, inFrom - inTo);
+
+        columns[inTo] = column;
+    }
+
+    /**
+     * Returns a new stack holding the given lanes of this one.
+     *
+     * @param inLanes The lanes to keep, in ascending order.
+     * @param inCount The number of lanes to keep.
+     */
+    LaneStack select(int[] inLanes, int inCount) {
+        LaneStack result = new LaneStack(type, inCount);
+
+        for (int n = 0; n < size; n++)
+            gather(columns[n], inLanes, inCount, result.push());
+
+        return result;
+    }
+
+    /**
+     * Keeps only the given lanes of this stack.
+     *
+     * @param inLanes The lanes to keep, in ascending order.
+     * @param inCount The number of lanes to keep.
+     */
+    void retain(int[] inLanes, int inCount) {
+        for (int n = 0; n < size; n++)
+            gather(columns[n], inLanes, inCount, columns[n]);
+
+        lanes = inCount;
+    }
+
+    private void gather(Object inFrom, int[] inLanes, int inCount, Object outTo) {
+        switch (type) {
+            case FLOAT -> {
+                float[] from = (float[]) inFrom;
+                float[] to = (float[]) outTo;
+                for (int n = 0; n < inCount; n++)
+                    to[n] = from[inLanes[n]];
+            }
+            case INT -> {
+                int[] from = (int[]) inFrom;
+                int[] to = (int[]) outTo;
+                for (int n = 0; n < inCount; n++)
+                    to[n] = from[inLanes[n]];
+            }
+            default -> {
+                boolean[] from = (boolean[]) inFrom;
+                boolean[] to = (boolean[]) outTo;
+                for (int n = 0; n < inCount; n++)
+                    to[n] = from[inLanes[n]];
+            }
+        }
+    }
+
+    /**
+     * Copies the values of one lane onto a scalar stack, which is cleared
+     * first.
+     */
+    void load(int inLane, Stack outStack) {
+        outStack.clear();
+
+        for (int n = 0; n < size; n++) {
+            switch (type) {
+                case FLOAT -> ((FloatStack) outStack).push(((float[]) columns[n])[inLane]);
+                case INT -> ((IntStack) outStack).push(((int[]) columns[n])[inLane]);
+                default -> ((BooleanStack) outStack).push(((boolean[]) columns[n])[inLane]);
+            }
+        }
+    }
+}
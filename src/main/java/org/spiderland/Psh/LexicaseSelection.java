@@ -0,0 +1,156 @@
+package org.spiderland.Psh;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Lexicase selection over the errors of an evaluated population.
+ * <p>
+ * A selection event goes through the test cases in a random order, keeping
+ * at each case only the candidates with the lowest error on it (or, for
+ * epsilon-lexicase, within the median absolute deviation of the population's
+ * errors on the case of the lowest), until one candidate is left or the cases
+ * run out.
+ * <p>
+ * The absolute errors are copied once per generation into one array per test
+ * case, so that filtering on a case reads contiguous floats, and each event
+ * filters the indices of its candidates in place in a per-thread buffer. The
+ * case order is shuffled lazily, so an event which is decided after a few
+ * cases draws only that many.
+ */
+final class LexicaseSelection {
+    private final GAIndividual[] population;
+
+    // errors[c][i] is the absolute error of individual i on case c
+    private final float[][] errors;
+    private final float[] epsilons;
+
+    private final ThreadLocal<Buffers> buffers;
+
+    private LexicaseSelection(GAIndividual[] inPopulation, float[][] inErrors, float[] inEpsilons) {
+        population = inPopulation;
+        errors = inErrors;
+        epsilons = inEpsilons;
+        buffers = ThreadLocal.withInitial(() -> new Buffers(inPopulation.length, inErrors.length));
+    }
+
+    /**
+     * Creates the selection for a population.
+     *
+     * @param inPopulation The evaluated population. It is copied, so that
+     *                     selection is unaffected by later replacements.
+     * @param inEpsilon    true for epsilon-lexicase selection.
+     * @return The selection, or null if the individuals do not all have
+     * errors on the same number of cases.
+     */
+    static LexicaseSelection create(GAIndividual[] inPopulation, boolean inEpsilon) {
+        GAIndividual[] population = inPopulation.clone();
+        float[] first = population.length == 0 ? null : population[0].getErrorArray();
+
+        if (first == null || first.length == 0)
+            return null;
+
+        float[][] errors = new float[first.length][population.length];
+
+        for (int i = 0; i < population.length; i++) {
+            float[] individualErrors = population[i].getErrorArray();
+
+            if (individualErrors == null || individualErrors.length != errors.length)
+                return null;
+
+            for (int c = 0; c < errors.length; c++) {
+                float error = Math.abs(individualErrors[c]);
+                errors[c][i] = Float.isNaN(error) || Float.isInfinite(error) ? Float.MAX_VALUE : error;
+            }
+        }
+
+        float[] epsilons = new float[errors.length];
+
+        if (inEpsilon) {
+            float[] scratch = new float[population.length];
+
+            for (int c = 0; c < errors.length; c++)
+                epsilons[c] = medianAbsoluteDeviation(errors[c], scratch);
+        }
+
+        return new LexicaseSelection(population, errors, epsilons);
+    }
+
+    /**
+     * Returns the median absolute deviation of a case's errors.
+     */
+    private static float medianAbsoluteDeviation(float[] inErrors, float[] inScratch) {
+        System.arraycopy(inErrors, 0, inScratch, 0, inErrors.length);
+        Arrays.sort(inScratch);
+
+        float median = inScratch[inScratch.length / 2];
+
+        for (int i = 0; i < inErrors.length; i++)
+            inScratch[i] = Math.abs(inErrors[i] - median);
+
+        Arrays.sort(inScratch);
+
+        return inScratch[inScratch.length / 2];
+    }
+
+    /**
+     * Selects an individual.
+     *
+     * @param inRandom The generator of the reproduction event.
+     * @return The selected individual.
+     */
+    GAIndividual select(Random inRandom) {
+        Buffers buffer = buffers.get();
+        int[] candidates = buffer.candidates;
+        int[] cases = buffer.cases;
+        int count = candidates.length;
+        int remainingCases = cases.length;
+
+        for (int i = 0; i < count; i++)
+            candidates[i] = i;
+
+        for (int c = 0; c < remainingCases; c++)
+            cases[c] = c;
+
+        while (count > 1 && remainingCases > 0) {
+            // Draw the next case of the shuffled order
+            int draw = inRandom.nextInt(remainingCases);
+            int c = cases[draw];
+            cases[draw] = cases[--remainingCases];
+
+            float[] caseErrors = errors[c];
+            float best = Float.MAX_VALUE;
+
+            for (int i = 0; i < count; i++)
+                best = Math.min(best, caseErrors[candidates[i]]);
+
+            float threshold = best + epsilons[c];
+            int kept = 0;
+
+            for (int i = 0; i < count; i++) {
+                int candidate = candidates[i];
+
+                if (caseErrors[candidate] <= threshold)
+                    candidates[kept++] = candidate;
+            }
+
+            count = kept;
+        }
+
+        return population[candidates[count == 1 ? 0 : inRandom.nextInt(count)]];
+    }
+
+    /**
+     * The candidates and case order of the selection event a thread is
+     * running.
+     */
+    private static final class Buffers {
+        final int[] candidates;
+        final int[] cases;
+
+        Buffers(int inPopulationSize, int inCases) {
+            candidates = new int[inPopulationSize];
+            cases = new int[inCases];
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package org.spiderland.Psh;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Dense integer opcodes for the items of Push programs.
+ * <p>
+ * Instruction names are interned into non-negative opcodes which are shared
+ * by all interpreters in the JVM, so that a compiled program can be executed
+ * by any of them; each interpreter maps opcodes to its own instruction
+ * objects. Literals use the negative opcodes below, with the literal value
+ * (or its float bits) carried inline as the operand. Opcodes are only valid
+ * within one JVM and are never serialized.
+ */
+final class Opcodes {
+
+    /**
+     * An integer literal; the operand is the value.
+     */
+    static final int INTEGER = -1;
+
+    /**
+     * A float literal; the operand holds the raw float bits.
+     */
+    static final int FLOAT = -2;
+
+    /**
+     * A nested program.
+     */
+    static final int PROGRAM = -3;
+
+    /**
+     * Any other object, such as an Instruction placed directly in a program.
+     */
+    static final int OBJECT = -4;
+
+    private static final ConcurrentHashMap<String, Integer> opcodes = new ConcurrentHashMap<>();
+    private static final AtomicInteger nextOpcode = new AtomicInteger();
+
+    private Opcodes() {
+    }
+
+    /**
+     * Returns the opcode of an instruction name, interning the name if it has
+     * not been seen before.
+     */
+    static int of(String inName) {
+        Integer opcode = opcodes.get(inName);
+
+        if (opcode == null)
+            opcode = opcodes.computeIfAbsent(inName, name -> nextOpcode.getAndIncrement());
+
+        return opcode;
+    }
+
+    /**
+     * Returns the opcode an interpreter dispatches on for a program item.
+     */
+    static int opcodeOf(Object inItem) {
+        if (inItem instanceof Program)
+            return PROGRAM;
+
+        if (inItem instanceof Integer)
+            return INTEGER;
+
+        if (inItem instanceof Number)
+            return FLOAT;
+
+        if (inItem instanceof String)
+            return of((String) inItem);
+
+        return OBJECT;
+    }
+
+    /**
+     * Returns the inline operand of a program item with the given opcode.
+     */
+    static int operandOf(Object inItem, int inOpcode) {
+        if (inOpcode == INTEGER)
+            return (Integer) inItem;
+
+        if (inOpcode == FLOAT)
+            return Float.floatToRawIntBits(((Number) inItem).floatValue());
+
+        return 0;
+    }
+}
@@ -0,0 +1,115 @@
+package org.spiderland.Psh;
+
+/**
+ * The point addressing of one level of a Push program.
+ * <p>
+ * The points of a program are its own elements, followed by the points of
+ * each nested program in turn. The index records where the points of each
+ * nested program begin, and how many leaf (non-program) and internal
+ * (program) points come before them, so that a point can be found by binary
+ * search at each level instead of by summing the sizes of the siblings.
+ */
+final class PointIndex {
+
+    /**
+     * The number of points in the program.
+     */
+    final int programSize;
+
+    /**
+     * The number of leaf points in the program.
+     */
+    final int leaves;
+
+    /**
+     * The positions of the program's own elements which are not programs.
+     */
+    final int[] ownLeaves;
+
+    /**
+     * The positions of the program's own elements which are programs.
+     */
+    final int[] children;
+
+    /**
+     * For each nested program, the point at which its points begin.
+     */
+    final int[] childStart;
+
+    /**
+     * For each nested program, the number of leaf points in the nested
+     * programs before it.
+     */
+    final int[] childLeaves;
+
+    /**
+     * For each nested program, the number of internal points in the nested
+     * programs before it.
+     */
+    final int[] childInternals;
+
+    PointIndex(Object[] inElements, int inSize) {
+        int childCount = 0;
+
+        for (int n = 0; n < inSize; n++) {
+            if (inElements[n] instanceof Program)
+                childCount++;
+        }
+
+        ownLeaves = new int[inSize - childCount];
+        children = new int[childCount];
+        childStart = new int[childCount];
+        childLeaves = new int[childCount];
+        childInternals = new int[childCount];
+
+        int start = inSize;
+        int leafCount = 0;
+        int internalCount = 0;
+        int k = 0;
+
+        for (int n = 0; n < inSize; n++) {
+            if (inElements[n] instanceof Program child) {
+                PointIndex points = child.points();
+
+                children[k] = n;
+                childStart[k] = start;
+                childLeaves[k] = leafCount;
+                childInternals[k] = internalCount;
+                k++;
+
+                start += points.programSize;
+                leafCount += points.leaves;
+                internalCount += points.programSize - points.leaves;
+            } else {
+                ownLeaves[n - k] = n;
+            }
+        }
+
+        programSize = start;
+        leaves = ownLeaves.length + leafCount;
+    }
+
+    /**
+     * Returns the last nested program whose count in the given array does not
+     * exceed a value.
+     *
+     * @param inCounts One of childStart, childLeaves or childInternals.
+     * @param inValue  The value to search for.
+     * @return The index of the nested program in children.
+     */
+    static int find(int[] inCounts, int inValue) {
+        int low = 0;
+        int high = inCounts.length - 1;
+
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+
+            if (inCounts[mid] <= inValue)
+                low = mid;
+            else
+                high = mid - 1;
+        }
+
+        return low;
+    }
+}
@@ -63,6 +63,8 @@ public class CartCentering extends PushGP {
 
         float captureRadius = 0.01f;
 
+        Interpreter interpreter = getInterpreter();
+
         ObjectPair xv = (ObjectPair) inInput;
         float position = (Float) xv.first();
         float velocity = (Float) xv.second();
@@ -84,7 +86,7 @@ public class CartCentering extends PushGP {
             iStack.push(position);
             iStack.push(velocity);
 
-            interpreter.execute(((PushGPIndividual) inIndividual).program,
+            interpreter.execute(((PushGPIndividual) inIndividual).getProgram(),
                     executionLimit);
 
             // If there is no boolean on the stack, the program has failed to
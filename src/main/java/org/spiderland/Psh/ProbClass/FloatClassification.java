@@ -11,7 +11,6 @@ import org.spiderland.Psh.PushGPIndividual;
 public class FloatClassification extends PushGP {
     private static final long serialVersionUID = 1L;
 
-    float currentInput;
     int inputCount;
 
     protected void initFromParameters() throws Exception {
@@ -47,15 +46,16 @@ public class FloatClassification extends PushGP {
     }
 
     public float evaluateTestCase(GAIndividual inIndividual, Object inInput, Object inOutput) {
+        Interpreter interpreter = getInterpreter();
         interpreter.clearStacks();
 
-        currentInput = (Float) inInput;
+        float currentInput = (Float) inInput;
 
         FloatStack stack = interpreter.floatStack();
 
         stack.push(currentInput);
 
-        interpreter.execute(((PushGPIndividual) inIndividual).program, executionLimit);
+        interpreter.execute(((PushGPIndividual) inIndividual).getProgram(), executionLimit);
 
         float result = stack.top();
         return result - ((Float) inOutput);
@@ -1,5 +1,6 @@
 package org.spiderland.Psh.ProbClass;
 
+import org.spiderland.Psh.BatchInterpreter;
 import org.spiderland.Psh.FloatStack;
 import org.spiderland.Psh.GAIndividual;
 import org.spiderland.Psh.GATestCase;
@@ -10,6 +11,8 @@ import org.spiderland.Psh.PushGP;
 import org.spiderland.Psh.PushGPIndividual;
 import org.spiderland.Psh.TestCase.TestCaseGenerator;
 
+import java.util.List;
+
 /**
  * This problem class implements symbolic regression for floating point numbers.
  * See also IntSymbolicRegression for integer symbolic regression.
@@ -19,9 +22,13 @@ public class FloatSymbolicRegression extends PushGP {
 
     private final float noResultPenalty = 10000;
 
+    protected boolean batchEvaluation;
+
     protected void initFromParameters() throws Exception {
         super.initFromParameters();
 
+        batchEvaluation = "true".equals(getParam("batch-evaluation", true));
+
         String cases = getParam("test-cases", true);
         String casesClass = getParam("test-case-class", true);
         if (cases == null && casesClass == null) {
@@ -78,6 +85,7 @@ public class FloatSymbolicRegression extends PushGP {
 
     public float evaluateTestCase(GAIndividual inIndividual, Object inInput,
             Object inOutput) {
+        Interpreter interpreter = getInterpreter();
         interpreter.clearStacks();
 
         float currentInput = (Float) inInput;
@@ -89,7 +97,7 @@ public class FloatSymbolicRegression extends PushGP {
         // Must be included in order to use the input stack.
         interpreter.inputStack().push(currentInput);
 
-        interpreter.execute(((PushGPIndividual) inIndividual).program,
+        interpreter.execute(((PushGPIndividual) inIndividual).getProgram(),
                 executionLimit);
 
         float result = stack.top();
@@ -102,7 +110,44 @@ public class FloatSymbolicRegression extends PushGP {
         return result - ((Float) inOutput);
     }
 
+    /**
+     * With batch-evaluation, runs the program on all test cases at once with
+     * a BatchInterpreter. The errors are the same as evaluateTestCase's.
+     */
+    @Override
+    protected float[] evaluateTestCases(GAIndividual inIndividual) {
+        if (!batchEvaluation)
+            return super.evaluateTestCases(inIndividual);
+
+        List<GATestCase> cases = evaluationTestCases();
+        int count = cases.size();
+        float[] inputs = new float[count];
+        float[] results = new float[count];
+        int[] sizes = new int[count];
+
+        for (int i = 0; i < count; i++)
+            inputs[i] = (Float) cases.get(i).input();
+
+        BatchInterpreter batch = getInterpreter().batchInterpreter();
+
+        if (!batch.execute(((PushGPIndividual) inIndividual).getProgram(), inputs, executionLimit, results, sizes))
+            return super.evaluateTestCases(inIndividual);
+
+        float[] errors = new float[count];
+
+        for (int i = 0; i < count; i++) {
+            // Penalize individual if there is no result on the stack.
+            if (sizes[i] == 0)
+                errors[i] = noResultPenalty;
+            else
+                errors[i] = results[i] - (Float) cases.get(i).output();
+        }
+
+        return errors;
+    }
+
     public float GetIndividualTestCaseResult(GAIndividual inIndividual, GATestCase inTestCase) {
+        Interpreter interpreter = getInterpreter();
         interpreter.clearStacks();
 
         float currentInput = (Float) inTestCase.input();
@@ -114,7 +159,7 @@ public class FloatSymbolicRegression extends PushGP {
         // Must be included in order to use the input stack.
         interpreter.inputStack().push(currentInput);
 
-        interpreter.execute(((PushGPIndividual) inIndividual).program,
+        interpreter.execute(((PushGPIndividual) inIndividual).getProgram(),
                 executionLimit);
 
         float result = stack.top();
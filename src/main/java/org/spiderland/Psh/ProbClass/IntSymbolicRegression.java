@@ -78,6 +78,7 @@ public class IntSymbolicRegression extends PushGP {
 
     public float evaluateTestCase(GAIndividual inIndividual, Object inInput,
             Object inOutput) {
+        Interpreter interpreter = getInterpreter();
         interpreter.clearStacks();
 
         int currentInput = (Integer) inInput;
@@ -89,7 +90,7 @@ public class IntSymbolicRegression extends PushGP {
         // Must be included in order to use the input stack.
         interpreter.inputStack().push(currentInput);
 
-        interpreter.execute(((PushGPIndividual) inIndividual).program, executionLimit);
+        interpreter.execute(((PushGPIndividual) inIndividual).getProgram(), executionLimit);
 
         int result = stack.top();
         // System.out.println(interpreter + " " + result);
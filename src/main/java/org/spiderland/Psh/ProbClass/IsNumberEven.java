@@ -21,10 +21,11 @@ public class IsNumberEven extends PushGP {
 
     @Override
     public float evaluateTestCase(final GAIndividual individual, final Object input, final Object output) {
+        final Interpreter interpreter = getInterpreter();
         interpreter.clearStacks();
         final IntStack intStack = interpreter.intStack();
         intStack.push((Integer) input);
-        interpreter.execute(((PushGPIndividual) individual).program, executionLimit);
+        interpreter.execute(((PushGPIndividual) individual).getProgram(), executionLimit);
         final BooleanStack booleanStack = interpreter.boolStack();
         if (booleanStack.size() == 0) {
             return MAX_ERROR;
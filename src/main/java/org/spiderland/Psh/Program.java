@@ -1,10 +1,17 @@
 package org.spiderland.Psh;
 
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.regex.Pattern;
 
 /**
  * A Push program.
+ * <p>
+ * Programs share their nested programs: copying a program copies only its
+ * top level, and editing a nested point through replaceSubtree or flatten
+ * copies just the path from this program down to the edited point. A nested
+ * program, such as one returned by subtree or peek, may therefore be part of
+ * many programs and must not be modified in place.
  */
 
 public class Program extends ObjectStack implements Serializable {
@@ -12,6 +19,30 @@ public class Program extends ObjectStack implements Serializable {
 
     private static final Pattern PATTERN = Pattern.compile("#.*$", Pattern.MULTILINE);
 
+    /**
+     * The compiled form of this program, built on first execution and
+     * discarded whenever the program is modified.
+     */
+    private transient CompiledProgram compiled;
+
+    /**
+     * The point addressing of this program, built when first needed and
+     * discarded whenever the program is modified.
+     */
+    private transient PointIndex points;
+
+    /**
+     * The structural hash code of this program, or 0 if not yet computed.
+     */
+    private transient int hash;
+
+    /**
+     * The bytecode of this program once it has been executed often enough
+     * to be compiled, and the number of executions counted towards that.
+     */
+    private transient BytecodeProgram bytecode;
+    private transient int executions;
+
     /**
      * Constructs an empty Program.
      */
@@ -24,7 +55,31 @@ public class Program extends ObjectStack implements Serializable {
      * @param inOther The Push program to copy.
      */
     public Program(Program inOther) {
+        copyFrom(inOther);
+    }
+
+    /**
+     * Makes this program a copy of another, reusing its storage. Nested
+     * programs are shared, as for the copy constructor.
+     *
+     * @param inOther The Push program to copy.
+     */
+    void copyFrom(Program inOther) {
+        // Drop the references to the former elements
+        if (stack != null && size > inOther.size)
+            Arrays.fill(stack, inOther.size, size, null);
+
+        clear();
+
+        if (inOther.size >= maxsize)
+            resize(inOther.size + blocksize);
+
         inOther.copyTo(this);
+        compiled = inOther.compiled;
+        points = inOther.points;
+        hash = inOther.hash;
+        bytecode = inOther.bytecode;
+        executions = inOther.executions;
     }
 
     /**
@@ -101,21 +156,188 @@ public class Program extends ObjectStack implements Serializable {
         throw new RuntimeException("no closing brace found for program");
     }
 
+    /**
+     * Returns the compiled form of the top level of this program.
+     *
+     * @return The compiled program.
+     */
+    CompiledProgram compile() {
+        CompiledProgram result = compiled;
+
+        if (result == null) {
+            result = new CompiledProgram(stack, size);
+            compiled = result;
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the point addressing of this program.
+     *
+     * @return The point index.
+     */
+    PointIndex points() {
+        PointIndex result = points;
+
+        if (result == null) {
+            result = new PointIndex(stack, size);
+            points = result;
+        }
+
+        return result;
+    }
+
+    /**
+     * Counts an execution of this program, and returns its bytecode if it has
+     * been executed at least a given number of times. The program is compiled
+     * once, when the count reaches the threshold.
+     *
+     * @param inInterpreter The executing interpreter.
+     * @param inThreshold   The number of executions before compiling.
+     * @return The bytecode, or null if the program is not compiled.
+     */
+    BytecodeProgram bytecode(Interpreter inInterpreter, int inThreshold) {
+        BytecodeProgram result = bytecode;
+
+        if (result == null && executions < inThreshold && ++executions == inThreshold) {
+            result = BytecodeCompiler.compile(this, inInterpreter);
+            bytecode = result;
+        }
+
+        return result;
+    }
+
+    /**
+     * Discards the cached forms of this program after a modification.
+     */
+    private void modified() {
+        compiled = null;
+        points = null;
+        hash = 0;
+        bytecode = null;
+        executions = 0;
+    }
+
+    public void push(Object inValue) {
+        modified();
+        super.push(inValue);
+    }
+
+    /**
+     * Pushes an object onto this program without copying it. A program pushed
+     * this way becomes shared, as described above.
+     *
+     * @param inValue The object to push.
+     */
+    void pushShared(Object inValue) {
+        modified();
+        stack[size] = inValue;
+        size++;
+
+        if (size >= maxsize)
+            resize(maxsize + blocksize);
+    }
+
+    public Object pop() {
+        modified();
+        return super.pop();
+    }
+
+    public void popdiscard() {
+        modified();
+        super.popdiscard();
+    }
+
+    public void clear() {
+        modified();
+        super.clear();
+    }
+
+    public void shove(Object obj, int n) {
+        modified();
+        super.shove(obj, n);
+    }
+
+    public void shove(int inIndex) {
+        modified();
+        super.shove(inIndex);
+    }
+
+    public void swap() {
+        modified();
+        super.swap();
+    }
+
+    public void rot() {
+        modified();
+        super.rot();
+    }
+
+    public void yank(int inIndex) {
+        modified();
+        super.yank(inIndex);
+    }
+
     /**
      * Returns the size of the program and all subprograms.
      *
      * @return The size of the program.
      */
     public int programSize() {
-        int size = this.size;
+        return points().programSize;
+    }
 
-        for (int n = 0; n < this.size; n++) {
-            Object o = stack[n];
-            if (o instanceof Program)
-                size += ((Program) o).programSize();
-        }
+    /**
+     * Returns the number of leaf points (points which are not programs) in
+     * the program and all subprograms.
+     *
+     * @return The number of leaf points.
+     */
+    public int leafCount() {
+        return points().leaves;
+    }
+
+    /**
+     * Returns the index of a leaf point, counting leaves in point order.
+     *
+     * @param inLeaf The number of the leaf, from 0 to leafCount() - 1.
+     * @return The index of the leaf point.
+     */
+    public int leafIndex(int inLeaf) {
+        PointIndex points = points();
+
+        if (inLeaf < points.ownLeaves.length)
+            return points.ownLeaves[inLeaf];
 
-        return size;
+        inLeaf -= points.ownLeaves.length;
+
+        int k = PointIndex.find(points.childLeaves, inLeaf);
+        Program sub = (Program) stack[points.children[k]];
+
+        return points.childStart[k] + sub.leafIndex(inLeaf - points.childLeaves[k]);
+    }
+
+    /**
+     * Returns the index of an internal point (a point which is a program),
+     * counting internal points in point order.
+     *
+     * @param inNode The number of the internal point, from 0 to
+     *               programSize() - leafCount() - 1.
+     * @return The index of the internal point.
+     */
+    public int internalIndex(int inNode) {
+        PointIndex points = points();
+
+        if (inNode < points.children.length)
+            return points.children[inNode];
+
+        inNode -= points.children.length;
+
+        int k = PointIndex.find(points.childInternals, inNode);
+        Program sub = (Program) stack[points.children[k]];
+
+        return points.childStart[k] + sub.internalIndex(inNode - points.childInternals[k]);
     }
 
     /**
@@ -145,26 +367,18 @@ public class Program extends ObjectStack implements Serializable {
      */
 
     public Object subtree(int inIndex) {
-        if (inIndex < size) {
+        if (inIndex < size)
             return stack[inIndex];
-        } else {
-            int startIndex = size;
 
-            for (int n = 0; n < size; n++) {
-                Object o = stack[n];
+        PointIndex points = points();
 
-                if (o instanceof Program sub) {
-                    int length = sub.programSize();
+        if (inIndex >= points.programSize)
+            return null;
 
-                    if (inIndex - startIndex < length)
-                        return sub.subtree(inIndex - startIndex);
+        int k = PointIndex.find(points.childStart, inIndex);
+        Program sub = (Program) stack[points.children[k]];
 
-                    startIndex += length;
-                }
-            }
-        }
-
-        return null;
+        return sub.subtree(inIndex - points.childStart[k]);
     }
 
     /**
@@ -177,27 +391,24 @@ public class Program extends ObjectStack implements Serializable {
 
     public boolean replaceSubtree(int inIndex, Object inReplacement) {
         if (inIndex < size) {
+            modified();
             stack[inIndex] = cloneForProgram(inReplacement);
             return true;
-        } else {
-            int startIndex = size;
-
-            for (int n = 0; n < size; n++) {
-                Object o = stack[n];
+        }
 
-                if (o instanceof Program sub) {
-                    int length = sub.programSize();
+        PointIndex points = points();
 
-                    if (inIndex - startIndex < length)
-                        return sub.replaceSubtree(inIndex - startIndex,
-                                inReplacement);
+        if (inIndex >= points.programSize)
+            return false;
 
-                    startIndex += length;
-                }
-            }
-        }
+        int k = PointIndex.find(points.childStart, inIndex);
+        int n = points.children[k];
+        Program copy = new Program((Program) stack[n]);
+        boolean replaced = copy.replaceSubtree(inIndex - points.childStart[k], inReplacement);
 
-        return false;
+        modified();
+        stack[n] = copy;
+        return replaced;
     }
 
     public void flatten(int inIndex) {
@@ -214,43 +425,57 @@ public class Program extends ObjectStack implements Serializable {
 
                     if (replacement.stack[i] instanceof Program p) {
                         for (int j = 0; j < p.size; j++)
-                            this.push(p.stack[j]);
+                            this.pushShared(p.stack[j]);
                     } else {
-                        this.push(replacement.stack[i]);
+                        this.pushShared(replacement.stack[i]);
                     }
                 } else {
-                    this.push(replacement.stack[i]);
+                    this.pushShared(replacement.stack[i]);
                 }
             }
         } else {
-            int startIndex = size;
-
-            for (int n = 0; n < size; n++) {
-                Object o = stack[n];
-
-                if (o instanceof Program sub) {
-                    int length = sub.programSize();
+            PointIndex points = points();
 
-                    if (inIndex - startIndex < length) {
-                        sub.flatten(inIndex - startIndex);
-                        break;
-                    }
+            if (inIndex < points.programSize) {
+                int k = PointIndex.find(points.childStart, inIndex);
+                int n = points.children[k];
+                Program copy = new Program((Program) stack[n]);
+                copy.flatten(inIndex - points.childStart[k]);
 
-                    startIndex += length;
-                }
+                modified();
+                stack[n] = copy;
             }
         }
     }
 
     /**
-     * Copies this program to another.
+     * Copies this program to another. Nested programs are shared, not copied.
      *
      * @param inOther The program to receive the copy of this program
      */
 
     public void copyTo(Program inOther) {
         for (int n = 0; n < size; n++)
-            inOther.push(stack[n]);
+            inOther.pushShared(stack[n]);
+    }
+
+    /**
+     * Returns a hash code computed from the elements of the program, so that
+     * equal programs have equal hash codes.
+     */
+    public int hashCode() {
+        int result = hash;
+
+        if (result == 0) {
+            result = 1;
+
+            for (int n = 0; n < size; n++)
+                result = 31 * result + stack[n].hashCode();
+
+            hash = result;
+        }
+
+        return result;
     }
 
     public String toString() {
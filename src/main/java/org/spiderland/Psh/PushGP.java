@@ -1,7 +1,27 @@
 package org.spiderland.Psh;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The Push Genetic Programming core class.
@@ -11,6 +31,9 @@ abstract public class PushGP extends GeneticAlgorithm {
     private static final long serialVersionUID = 1L;
 
     protected Interpreter interpreter;
+    private transient List<Interpreter> workerInterpreters;
+    private transient Queue<Interpreter> retiredInterpreters;
+    private transient AtomicLong reportWorkerEvaluations;
     protected int maxRandomCodeSize;
     protected int maxPointsInProgram;
     protected int executionLimit;
@@ -24,24 +47,39 @@ abstract public class PushGP extends GeneticAlgorithm {
     protected float averageSize;
     protected int bestSize;
 
+    // The mean number of instructions executed per program execution during
+    // the last evaluation, and the mean sizes and steps of each generation
+    protected float averageSteps;
+    protected List<Float> sizeTrajectory = new ArrayList<>();
+    protected List<Float> stepsTrajectory = new ArrayList<>();
+
+    BloatControl bloatControl;
+
     protected float simplificationPercent;
     protected float simplifyFlattenPercent;
+    protected int simplificationBatchSize;
     protected int reproductionSimplifications;
     protected int reportSimplifications;
     protected int finalSimplifications;
 
     protected String targetFunctionString;
 
+    protected int fitnessCacheSize;
+    protected transient FitnessCache fitnessCache;
+
     protected void initFromParameters() throws Exception {
         // Default parameters to be used when optional parameters are not
         // given.
         float defaultFairMutationRange = 0.3f;
         float defaultsimplifyFlattenPercent = 20f;
-        String defaultInterpreterClass = "org.spiderland.Psh.Interpreter";
-        String defaultInputPusherClass = "org.spiderland.Psh.InputPusher";
+        int defaultSimplificationBatchSize = 8;
         String defaultTargetFunctionString = "";
         float defaultNodeSelectionLeafProbability = 10;
         int defaultNodeSelectionTournamentSize = 2;
+        int defaultFitnessCacheSize = 0;
+        String defaultBloatControl = "none";
+        int defaultTarpeianRate = 3;
+        int defaultDynamicLimit = 0;
 
         // Limits
         maxRandomCodeSize = (int) getFloatParam("max-random-code-size");
@@ -90,11 +128,118 @@ abstract public class PushGP extends GeneticAlgorithm {
         if (Float.isNaN(simplifyFlattenPercent)) {
             simplifyFlattenPercent = defaultsimplifyFlattenPercent;
         }
+        simplificationBatchSize = (int) getFloatParam("simplification-batch-size", true);
+        if (Float.isNaN(getFloatParam("simplification-batch-size", true))) {
+            simplificationBatchSize = defaultSimplificationBatchSize;
+        }
+        simplificationBatchSize = Math.max(1, simplificationBatchSize);
+
+        // Fitness cache size
+        fitnessCacheSize = (int) getFloatParam("fitness-cache-size", true);
+        if (Float.isNaN(getFloatParam("fitness-cache-size", true))) {
+            fitnessCacheSize = defaultFitnessCacheSize;
+        }
+
+        // Bloat control
+        String bloatControlMethods = getParam("bloat-control", true);
+        if (bloatControlMethods == null) {
+            bloatControlMethods = defaultBloatControl;
+        }
+        int tarpeianRate = (int) getFloatParam("tarpeian-rate", true);
+        if (Float.isNaN(getFloatParam("tarpeian-rate", true))) {
+            tarpeianRate = defaultTarpeianRate;
+        }
+        int dynamicLimit = (int) getFloatParam("dynamic-limit", true);
+        if (Float.isNaN(getFloatParam("dynamic-limit", true))) {
+            dynamicLimit = defaultDynamicLimit;
+        }
+        bloatControl = BloatControl.create(bloatControlMethods, tarpeianRate, dynamicLimit);
 
         reproductionSimplifications = (int) getFloatParam("reproduction-simplifications");
         reportSimplifications = (int) getFloatParam("report-simplifications");
         finalSimplifications = (int) getFloatParam("final-simplifications");
 
+        interpreter = createInterpreter();
+
+        // The main interpreter draws from the run's generator, so that the
+        // initial population follows from random-seed
+        interpreter.random = random;
+
+        // Target function string
+        targetFunctionString = getParam("target-function-string", true);
+        if (targetFunctionString == null) {
+            targetFunctionString = defaultTargetFunctionString;
+        }
+
+        // Init the GA
+        super.initFromParameters();
+
+        // Print important parameters
+        print("  Important Parameters\n");
+        print(" ======================\n");
+
+        if (!targetFunctionString.equals("")) {
+            print("Target Function: " + targetFunctionString + "\n\n");
+        }
+
+        print("Population Size: " + (int) getFloatParam("population-size")
+                + "\n");
+        print("Generations: " + maxGenerations + "\n");
+        print("Execution Limit: " + executionLimit + "\n\n");
+
+        print("Crossover Percent: " + crossoverPercent + "\n");
+        print("Mutation Percent: " + mutationPercent + "\n");
+        print("Simplification Percent: " + simplificationPercent + "\n");
+        print("Clone Percent: "
+                + (100 - crossoverPercent - mutationPercent - simplificationPercent)
+                + "\n\n");
+
+        if (evaluationThreads > 1) {
+            print("Evaluation Threads: " + evaluationThreads + "\n\n");
+        }
+
+        if (fitnessCacheSize > 0) {
+            print("Fitness Cache Size: " + fitnessCacheSize + "\n\n");
+        }
+
+        if (islandModel != null && island < 0) {
+            print("Islands: " + islandModel.size() + "\n\n");
+        }
+
+        if (evaluationMaster != null) {
+            print("Evaluation Server Port: " + evaluationMaster.port() + "\n\n");
+        }
+
+        if (islandServer != null) {
+            print("Island Server Port: " + islandServer.port() + ", Islands: " + islandServer.size() + "\n\n");
+        }
+
+        print("Tournament Size: " + tournamentSize + "\n");
+        if (trivialGeographyRadius != 0) {
+            print("Trivial Geography Radius: " + trivialGeographyRadius + "\n");
+        }
+        print("Node Selection Mode: " + nodeSelectionMode);
+        print("\n");
+
+        print("Instructions: " + interpreter.getInstructionsString() + "\n");
+
+        print("\n");
+
+    }
+
+    /**
+     * Creates and configures a new interpreter from the run parameters. This
+     * is used for the main interpreter of the run as well as for the private
+     * interpreters of the evaluation workers.
+     *
+     * @return The configured interpreter.
+     */
+    protected Interpreter createInterpreter() throws Exception {
+        // Default parameters to be used when optional parameters are not
+        // given.
+        String defaultInterpreterClass = "org.spiderland.Psh.Interpreter";
+        String defaultInputPusherClass = "org.spiderland.Psh.InputPusher";
+
         // ERC parameters
         int minRandomInt;
         int defaultMinRandomInt = -10;
@@ -155,12 +300,17 @@ abstract public class PushGP extends GeneticAlgorithm {
             throw (new Exception(
                     "interpreter-class must inherit from class Interpreter"));
 
-        interpreter = (Interpreter) iObject;
+        Interpreter interpreter = (Interpreter) iObject;
         interpreter.setInstructions(new Program(getParam("instruction-set")));
         interpreter.setRandomParameters(minRandomInt, maxRandomInt,
                 randomIntResolution, minRandomFloat, maxRandomFloat,
                 randomFloatResolution, maxRandomCodeSize, maxPointsInProgram);
 
+        // Bytecode compilation of frequently executed programs
+        if (!Float.isNaN(getFloatParam("compile-threshold", true))) {
+            interpreter.setCompileThreshold((int) getFloatParam("compile-threshold", true));
+        }
+
         // Frame mode and input pusher class
         String framemode = getParam("push-frame-mode", true);
 
@@ -185,46 +335,7 @@ abstract public class PushGP extends GeneticAlgorithm {
         if (framemode != null && framemode.equals("pushstacks"))
             interpreter.setUseFrames(true);
 
-        // Target function string
-        targetFunctionString = getParam("target-function-string", true);
-        if (targetFunctionString == null) {
-            targetFunctionString = defaultTargetFunctionString;
-        }
-
-        // Init the GA
-        super.initFromParameters();
-
-        // Print important parameters
-        print("  Important Parameters\n");
-        print(" ======================\n");
-
-        if (!targetFunctionString.equals("")) {
-            print("Target Function: " + targetFunctionString + "\n\n");
-        }
-
-        print("Population Size: " + (int) getFloatParam("population-size")
-                + "\n");
-        print("Generations: " + maxGenerations + "\n");
-        print("Execution Limit: " + executionLimit + "\n\n");
-
-        print("Crossover Percent: " + crossoverPercent + "\n");
-        print("Mutation Percent: " + mutationPercent + "\n");
-        print("Simplification Percent: " + simplificationPercent + "\n");
-        print("Clone Percent: "
-                + (100 - crossoverPercent - mutationPercent - simplificationPercent)
-                + "\n\n");
-
-        print("Tournament Size: " + tournamentSize + "\n");
-        if (trivialGeographyRadius != 0) {
-            print("Trivial Geography Radius: " + trivialGeographyRadius + "\n");
-        }
-        print("Node Selection Mode: " + nodeSelectionMode);
-        print("\n");
-
-        print("Instructions: " + interpreter.getInstructionsString() + "\n");
-
-        print("\n");
-
+        return interpreter;
     }
 
     public void initIndividual(GAIndividual inIndividual) {
@@ -236,6 +347,19 @@ abstract public class PushGP extends GeneticAlgorithm {
         i.setProgram(p);
     }
 
+    @Override
+    protected void initIndividuals(GAIndividual[] inIndividuals) {
+        int[] sizes = new int[inIndividuals.length];
+
+        for (int n = 0; n < sizes.length; n++)
+            sizes[n] = random.nextInt(maxRandomCodeSize) + 2;
+
+        Program[] programs = interpreter.randomCode(sizes);
+
+        for (int n = 0; n < programs.length; n++)
+            ((PushGPIndividual) inIndividuals[n]).setProgram(programs[n]);
+    }
+
     protected void beginGeneration() throws Exception {
         averageSize = 0;
     }
@@ -244,27 +368,34 @@ abstract public class PushGP extends GeneticAlgorithm {
         averageSize /= populations[0].length;
     }
 
-    protected void evaluate() {
+    @Override
+    protected void summarize() {
         float totalFitness = 0;
-        bestMeanFitness = Float.MAX_VALUE;
+        GAIndividual best = null;
+        int largestSize = 0;
 
         for (int n = 0; n < populations[currentPopulation].length; n++) {
             GAIndividual i = populations[currentPopulation][n];
+            int size = ((PushGPIndividual) i).programSize();
 
-            evaluateIndividual(i);
-
+            averageSize += size;
+            largestSize = Math.max(largestSize, size);
             totalFitness += i.getFitness();
 
-            if (i.getFitness() < bestMeanFitness) {
+            if (best == null || i.isFitterThan(best)) {
+                best = i;
                 bestMeanFitness = i.getFitness();
                 bestIndividual = n;
-                bestSize = ((PushGPIndividual) i).program.programSize();
+                bestSize = size;
                 bestErrors = i.getErrors();
             }
         }
 
         populationMeanFitness = totalFitness
                 / populations[currentPopulation].length;
+
+        if (bloatControl != null)
+            bloatControl.updateLimit(largestSize, bestSize);
     }
 
     public void evaluateIndividual(GAIndividual inIndividual) {
@@ -272,67 +403,271 @@ abstract public class PushGP extends GeneticAlgorithm {
     }
 
     protected void evaluateIndividual(GAIndividual inIndividual, boolean duringSimplify) {
-        List<Float> errors = new ArrayList<>();
+        // Errors on a sample of the test cases are not cached
+        FitnessCache cache = evaluationTestCases() == testCases ? getFitnessCache() : null;
+        Program program = ((PushGPIndividual) inIndividual).program;
+
+        if (cache != null && cache.lookup(program, inIndividual))
+            return;
+
+        float[] errors = evaluateTestCases(inIndividual);
+
+        inIndividual.setFitness(absoluteAverageOfErrors(errors), errors.length);
+        inIndividual.setErrors(errors);
 
-        if (!duringSimplify)
-            averageSize += ((PushGPIndividual) inIndividual).program
-                    .programSize();
+        if (cache != null)
+            cache.store(program, inIndividual.getFitness(), errors);
+    }
 
-        long t = System.currentTimeMillis();
+    /**
+     * Computes the errors of an individual on the test cases returned by
+     * evaluationTestCases. By default each test case is evaluated in turn
+     * with evaluateTestCase; problem classes may override this to evaluate
+     * the test cases together.
+     */
+    protected float[] evaluateTestCases(GAIndividual inIndividual) {
+        List<GATestCase> cases = evaluationTestCases();
+        float[] errors = new float[cases.size()];
 
-        for (final GATestCase testCase : testCases) {
-            float e = evaluateTestCase(inIndividual, testCase.input(), testCase.output());
-            errors.add(e);
+        for (int i = 0; i < errors.length; i++) {
+            GATestCase testCase = cases.get(i);
+            errors[i] = evaluateTestCase(inIndividual, testCase.input(), testCase.output());
         }
-        t = System.currentTimeMillis() - t;
 
-        inIndividual.setFitness(absoluteAverageOfErrors(errors));
-        inIndividual.setErrors(errors);
+        return errors;
+    }
+
+    /**
+     * Returns the fitness cache, or null if fitness-cache-size is 0.
+     */
+    protected synchronized FitnessCache getFitnessCache() {
+        if (fitnessCache == null && fitnessCacheSize > 0)
+            fitnessCache = new FitnessCache(fitnessCacheSize);
+
+        return fitnessCache;
+    }
+
+    @Override
+    protected void evaluatePopulation(GAIndividual[] inPopulation) {
+        long executions = interpreter.evaluationExecutions;
+        long steps = interpreter.totalStepsTaken;
+
+        // With the Tarpeian method some individuals are not evaluated at all
+        if (bloatControl != null)
+            inPopulation = bloatControl.penalize(inPopulation, random, evaluationTestCases().size());
+
+        super.evaluatePopulation(inPopulation);
+
+        // Fold the executions counted by the worker interpreters into the
+        // main interpreter, which is the one reported on, including those of
+        // workers which have terminated since.
+        if (workerInterpreters != null) {
+            for (Interpreter worker : workerInterpreters)
+                foldExecutions(worker);
+
+            Interpreter retired;
+
+            while ((retired = retiredInterpreters.poll()) != null)
+                foldExecutions(retired);
+        }
+
+        executions = interpreter.evaluationExecutions - executions;
+
+        if (executions > 0)
+            averageSteps = (float) (interpreter.totalStepsTaken - steps) / executions;
+    }
+
+    /**
+     * Returns the program size with lexicographic parsimony, so that
+     * tournaments prefer the smaller program of equally fit ones.
+     */
+    @Override
+    protected int selectionSize(GAIndividual inIndividual) {
+        return bloatControl == null ? 0 : bloatControl.selectionSize((PushGPIndividual) inIndividual);
+    }
+
+    private void foldExecutions(Interpreter inWorker) {
+        interpreter.evaluationExecutions += inWorker.evaluationExecutions;
+        interpreter.totalStepsTaken += inWorker.totalStepsTaken;
+        inWorker.evaluationExecutions = 0;
+        inWorker.totalStepsTaken = 0;
+    }
+
+    /**
+     * Creates an evaluation pool whose worker threads each own a private
+     * interpreter, so that test cases of different individuals can be executed
+     * concurrently. The interpreter of a worker which terminates is retired,
+     * to have its executions folded once more.
+     */
+    @Override
+    protected ForkJoinPool createEvaluationPool() {
+        List<Interpreter> interpreters = new CopyOnWriteArrayList<>();
+
+        workerInterpreters = interpreters;
+
+        if (retiredInterpreters == null)
+            retiredInterpreters = new ConcurrentLinkedQueue<>();
+
+        return new ForkJoinPool(evaluationThreads, pool -> {
+            try {
+                Interpreter workerInterpreter = createInterpreter();
+                interpreters.add(workerInterpreter);
+                return new EvaluationWorker(pool, workerInterpreter, interpreters, retiredInterpreters);
+            } catch (Exception e) {
+                throw new RuntimeException("Could not create an evaluation interpreter", e);
+            }
+        }, null, false);
+    }
+
+    /**
+     * Returns the interpreter to be used by the calling thread. Problem classes
+     * should fetch the interpreter through this method in evaluateTestCase,
+     * since evaluation workers each execute programs on their own interpreter.
+     *
+     * @return The interpreter owned by the calling thread.
+     */
+    protected Interpreter getInterpreter() {
+        if (Thread.currentThread() instanceof EvaluationWorker worker
+                && worker.getPool() == evaluationPool)
+            return worker.interpreter;
+
+        if (Thread.currentThread() instanceof ReportWorker worker && worker.owner == this)
+            return worker.interpreter;
+
+        return interpreter;
     }
 
     abstract protected void initInterpreter(Interpreter inInterpreter) throws Exception;
 
     protected String report() {
-        String report = super.report();
+        return new GenerationReport(super.report()).make();
+    }
 
-        if (Double.isInfinite(populationMeanFitness))
-            populationMeanFitness = Double.MAX_VALUE;
+    /**
+     * Takes the generation's report as a GenerationReport, so that the
+     * costly part of making it, the simplification of the best program, is
+     * left to the task.
+     */
+    @Override
+    protected Callable<String> reportTask() {
+        return new GenerationReport(super.report())::make;
+    }
 
-        report += ";; Best Program:\n  "
-                + populations[currentPopulation][bestIndividual] + "\n\n";
+    /**
+     * What report describes of a generation, taken when the generation is
+     * reproduced, so that the report may be made while later generations
+     * replace its population.
+     */
+    private class GenerationReport {
+        private final String header;
+        private final PushGPIndividual best;
+        private final float bestFitness;
+
+        // The errors of the best program, with report-verbosity = errors
+        private final List<Float> errors;
+        private final int bestProgramSize;
+        private final double meanFitness;
+        private final float meanSize;
+        private final float meanSteps;
+        private final int sizeLimit;
+        private final long evaluations;
+
+        GenerationReport(String inHeader) {
+            if (Double.isInfinite(populationMeanFitness))
+                populationMeanFitness = Double.MAX_VALUE;
+
+            header = inHeader;
+            best = (PushGPIndividual) populations[currentPopulation][bestIndividual].clone();
+            bestFitness = bestMeanFitness;
+            errors = reportErrors ? new ArrayList<>(bestErrors) : null;
+            bestProgramSize = bestSize;
+            meanFitness = populationMeanFitness;
+            meanSize = averageSize;
+            meanSteps = averageSteps;
+            sizeLimit = bloatControl != null ? bloatControl.sizeLimit() : 0;
+            evaluations = interpreter.getEvaluationExecutions() + reportEvaluations();
+
+            sizeTrajectory.add(averageSize);
+            stepsTrajectory.add(averageSteps);
+        }
 
-        report += ";; Best Program Fitness (mean): " + bestMeanFitness + "\n";
-        if (testCases.size() == bestErrors.size()) {
-            report += ";; Best Program Errors: (";
-            for (int i = 0; i < testCases.size(); i++) {
-                if (i != 0)
-                    report += " ";
-                report += "(" + testCases.get(i).input() + " ";
-                report += Math.abs(bestErrors.get(i)) + ")";
+        String make() {
+            Interpreter reportInterpreter = getInterpreter();
+            long executions = reportInterpreter.getEvaluationExecutions();
+
+            PushGPIndividual simplified = autosimplify(best, reportSimplifications);
+
+            executions = reportInterpreter.getEvaluationExecutions() - executions;
+
+            // The evaluations of the report thread are not folded into the
+            // main interpreter, which the next generation is evaluated on
+            if (Thread.currentThread() instanceof ReportWorker)
+                reportWorkerEvaluations.addAndGet(executions);
+
+            StringBuilder report = new StringBuilder(header);
+
+            report.append(";; Best Program:\n  ").append(best).append("\n\n");
+
+            report.append(";; Best Program Fitness (mean): ").append(bestFitness).append("\n");
+            if (errors != null && testCases.size() == errors.size()) {
+                report.append(";; Best Program Errors: (");
+                for (int i = 0; i < testCases.size(); i++) {
+                    if (i != 0)
+                        report.append(" ");
+                    report.append("(").append(testCases.get(i).input()).append(" ");
+                    report.append(Math.abs(errors.get(i))).append(")");
+                }
+                report.append(")\n");
             }
-            report += ")\n";
-        }
-        report += ";; Best Program Size: " + bestSize + "\n\n";
+            report.append(";; Best Program Size: ").append(bestProgramSize).append("\n\n");
 
-        report += ";; Mean Fitness: " + populationMeanFitness + "\n";
-        report += ";; Mean Program Size: " + averageSize + "\n";
+            report.append(";; Mean Fitness: ").append(meanFitness).append("\n");
+            report.append(";; Mean Program Size: ").append(meanSize).append("\n");
+            report.append(";; Mean Steps Per Execution: ").append(meanSteps).append("\n");
+            if (sizeLimit > 0) {
+                report.append(";; Dynamic Size Limit: ").append(sizeLimit).append("\n");
+            }
 
-        PushGPIndividual simplified = autosimplify(
-                (PushGPIndividual) populations[currentPopulation][bestIndividual],
-            reportSimplifications);
+            report.append(";; Number of Evaluations Thus Far: ").append(evaluations + executions).append("\n");
+            if (fitnessCache != null) {
+                report.append(";; Fitness Cache Hits: ").append(fitnessCache.getHits())
+                        .append(", Misses: ").append(fitnessCache.getMisses()).append("\n");
+            }
+            String mem = String
+                    .valueOf(Runtime.getRuntime().totalMemory() / 10000000.0f);
+            report.append(";; Memory usage: ").append(mem).append("\n\n");
 
-        report += ";; Number of Evaluations Thus Far: "
-                + interpreter.getEvaluationExecutions() + "\n";
-        String mem = String
-                .valueOf(Runtime.getRuntime().totalMemory() / 10000000.0f);
-        report += ";; Memory usage: " + mem + "\n\n";
+            report.append(";; Partial Simplification (may beat best):\n  ");
+            report.append(simplified.program).append("\n");
+            report.append(";; Partial Simplification Size: ");
+            report.append(simplified.program.programSize()).append("\n\n");
 
-        report += ";; Partial Simplification (may beat best):\n  ";
-        report += simplified.program + "\n";
-        report += ";; Partial Simplification Size: ";
-        report += simplified.program.programSize() + "\n\n";
+            return report.toString();
+        }
+    }
 
-        return report;
+    /**
+     * Returns the number of evaluations made on the report thread so far.
+     */
+    private long reportEvaluations() {
+        return reportWorkerEvaluations != null ? reportWorkerEvaluations.get() : 0;
+    }
+
+    /**
+     * Creates the executor of the background report mode, whose thread owns a
+     * private interpreter like the evaluation workers.
+     */
+    @Override
+    protected ExecutorService createReportExecutor() {
+        reportWorkerEvaluations = new AtomicLong();
+
+        return Executors.newSingleThreadExecutor(task -> {
+            try {
+                return new ReportWorker(task, this, createInterpreter());
+            } catch (Exception e) {
+                throw new RuntimeException("Could not create a report interpreter", e);
+            }
+        });
     }
 
     protected String finalReport() {
@@ -353,12 +688,12 @@ abstract public class PushGP extends GeneticAlgorithm {
         // during simplification count towards the total number of
         // simplifications.
         report += ">> Number of Evaluations: "
-                + interpreter.getEvaluationExecutions() + "\n";
+                + (interpreter.getEvaluationExecutions() + reportEvaluations()) + "\n";
 
         report += ">> Best Program: "
                 + populations[currentPopulation][bestIndividual] + "\n";
         report += ">> Fitness (mean): " + bestMeanFitness + "\n";
-        if (testCases.size() == bestErrors.size()) {
+        if (reportErrors && testCases.size() == bestErrors.size()) {
             report += ">> Errors: (";
             for (int i = 0; i < testCases.size(); i++) {
                 if (i != 0)
@@ -368,7 +703,12 @@ abstract public class PushGP extends GeneticAlgorithm {
             }
             report += ")\n";
         }
-        report += ">> Size: " + bestSize + "\n\n";
+        report += ">> Size: " + bestSize + "\n";
+        if (!sizeTrajectory.isEmpty()) {
+            report += ">> Mean Size Trajectory: " + trajectory(sizeTrajectory) + "\n";
+            report += ">> Mean Steps Trajectory: " + trajectory(stepsTrajectory) + "\n";
+        }
+        report += "\n";
 
         report += "<<<<<<<<<< After Simplification >>>>>>>>>>\n";
         report += ">> Best Program: ";
@@ -379,104 +719,332 @@ abstract public class PushGP extends GeneticAlgorithm {
         return report;
     }
 
+    private static String trajectory(List<Float> inValues) {
+        StringBuilder result = new StringBuilder("(");
+
+        for (int n = 0; n < inValues.size(); n++) {
+            if (n != 0)
+                result.append(" ");
+            result.append(inValues.get(n));
+        }
+
+        return result.append(")").toString();
+    }
+
+    @Override
+    protected void adoptIsland(GeneticAlgorithm inIsland) {
+        super.adoptIsland(inIsland);
+
+        PushGP island = (PushGP) inIsland;
+        averageSize = island.averageSize;
+        bestSize = island.bestSize;
+        averageSteps = island.averageSteps;
+        sizeTrajectory = island.sizeTrajectory;
+        stepsTrajectory = island.stepsTrajectory;
+
+        // Report the evaluations of all islands
+        interpreter.evaluationExecutions = 0;
+
+        for (int n = 0; n < islandModel.size(); n++)
+            interpreter.evaluationExecutions += ((PushGP) islandModel.island(n)).interpreter.evaluationExecutions;
+    }
+
+    @Override
+    protected void adoptBest(GAIndividual inBest, int inGenerationCount) {
+        super.adoptBest(inBest, inGenerationCount);
+
+        bestSize = ((PushGPIndividual) inBest).programSize();
+        averageSize = bestSize;
+    }
+
+    /**
+     * Encodes an individual as its fitness, its errors and the text of its
+     * program, which is much smaller than its serialized form.
+     */
+    @Override
+    protected byte[] encodeIndividual(GAIndividual inIndividual) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        EvaluationMaster.writeResult(out, inIndividual);
+        out.write(((PushGPIndividual) inIndividual).getProgram().toString().getBytes(StandardCharsets.UTF_8));
+        out.flush();
+
+        return bytes.toByteArray();
+    }
+
+    @Override
+    protected GAIndividual decodeIndividual(byte[] inBytes) throws Exception {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(inBytes));
+        PushGPIndividual result = (PushGPIndividual) individualClass.getDeclaredConstructor().newInstance();
+
+        EvaluationMaster.readResult(in, result);
+        result.program = new Program(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+
+        return result;
+    }
+
     public String getTargetFunctionString() {
         return targetFunctionString;
     }
 
+    /**
+     * Simplifies an individual by trying random edits which remove or flatten
+     * its points, keeping those which do not worsen its fitness.
+     * <p>
+     * Every edit counts as a step, and each step draws its edit from a
+     * generator of its own. Outside of reproduction, which is already
+     * parallel, and of background reports, the edits of
+     * simplification-batch-size steps are drawn from the simplest program
+     * found so far and evaluated speculatively on the evaluation threads. The
+     * first of them which is no worse is kept, and the steps after it are
+     * drawn again from the kept program, so that the search is the one made
+     * by trying the edits one at a time, as is done otherwise. A candidate is
+     * abandoned once its running error shows it is worse, and candidates
+     * already rejected, or found in the fitness cache, are not evaluated
+     * again.
+     *
+     * @param inIndividual The individual to simplify.
+     * @param steps        The number of edits to try.
+     * @return The simplest individual found, with its fitness and errors.
+     */
     protected PushGPIndividual autosimplify(PushGPIndividual inIndividual, int steps) {
-        PushGPIndividual simplest = (PushGPIndividual) inIndividual.clone();
-        PushGPIndividual trial = (PushGPIndividual) inIndividual.clone();
-        evaluateIndividual(simplest, true);
+        // Each step draws its edit from a generator of its own, so that the
+        // edit of a step does not depend on how many were drawn before it.
+        // Candidates are evaluated likewise, so that random instructions draw
+        // the same numbers on any thread.
+        long stream = random().nextLong();
+        long evaluations = random().nextLong();
+
+        PushGPIndividual original = (PushGPIndividual) inIndividual.clone();
+        inStream(streamRandom(evaluations, 0), () -> evaluateIndividual(original, true));
+
+        PushGPIndividual simplest = original;
         float bestError = simplest.getFitness();
 
-        boolean madeSimpler = false;
+        Set<Program> rejected = new HashSet<>();
+        int batchSize = parallelSimplification() ? simplificationBatchSize : 1;
+        List<PushGPIndividual> batch = new ArrayList<>(batchSize);
 
-        for (int i = 0; i < steps; i++) {
-            madeSimpler = false;
-            float method = random.nextInt(100);
+        // The number of steps taken once each candidate of the batch is drawn
+        int[] drawn = new int[batchSize];
 
-            if (trial.program.programSize() <= 0)
-                break;
-            if (method < simplifyFlattenPercent) {
-                // Flatten random thing
-                int pointIndex = random.nextInt(trial.program.programSize());
-                Object point = trial.program.subtree(pointIndex);
+        for (int i = 0; i < steps && simplest.program.programSize() > 0; ) {
+            batch.clear();
 
-                if (point instanceof Program) {
-                    trial.program.flatten(pointIndex);
-                    madeSimpler = true;
-                }
-            } else {
-                // Remove small number of random things
-                int numberToRemove = random.nextInt(3) + 1;
-
-                for (int j = 0; j < numberToRemove; j++) {
-                    int trialSize = trial.program.programSize();
-
-                    if (trialSize > 0) {
-                        int pointIndex = random.nextInt(trialSize);
-                        trial.program.replaceSubtree(pointIndex, new Program());
-                        trial.program.flatten(pointIndex);
-                        madeSimpler = true;
-                    }
+            for (; i < steps && batch.size() < batchSize; i++) {
+                Program candidate = simplificationCandidate(simplest.program, streamRandom(stream, i));
+
+                if (candidate != null && !rejected.contains(candidate) && !batchContains(batch, candidate)) {
+                    PushGPIndividual trial = new PushGPIndividual();
+                    trial.program = candidate;
+                    drawn[batch.size()] = i + 1;
+                    batch.add(trial);
                 }
             }
 
-            if (madeSimpler) {
-                evaluateIndividual(trial, true);
+            evaluateCandidates(batch, drawn, evaluations, bestError);
 
-                if (trial.getFitness() <= bestError) {
-                    simplest = (PushGPIndividual) trial.clone();
-                    bestError = trial.getFitness();
+            for (int n = 0; n < batch.size(); n++) {
+                PushGPIndividual candidate = batch.get(n);
+
+                // Rejects a NaN fitness too
+                if (!candidate.isFitnessSet() || !(candidate.getFitness() <= bestError)) {
+                    rejected.add(candidate.program);
+                } else {
+                    // The edits drawn after it were drawn from the old program
+                    simplest = candidate;
+                    bestError = candidate.getFitness();
+                    i = drawn[n];
+                    break;
                 }
             }
-
-            trial = (PushGPIndividual) simplest.clone();
         }
 
         return simplest;
     }
 
-    protected void reproduce() {
-        int nextPopulation = currentPopulation == 0 ? 1 : 0;
+    /**
+     * Draws one edit of a program for autosimplify.
+     *
+     * @param inProgram The program to edit.
+     * @param inRandom  The generator to draw the edit from.
+     * @return The edited copy, or null if the edit left the program as it was.
+     */
+    private Program simplificationCandidate(Program inProgram, Random inRandom) {
+        Program trial = new Program(inProgram);
+        boolean madeSimpler = false;
+        float method = inRandom.nextInt(100);
 
-        for (int n = 0; n < populations[currentPopulation].length; n++) {
-            float method = random.nextInt(100);
-            GAIndividual next;
-
-            if (method < mutationPercent) {
-                next = reproduceByMutation(n);
-            } else if (method < crossoverPercent + mutationPercent) {
-                next = reproduceByCrossover(n);
-            } else if (method < crossoverPercent + mutationPercent
-                    + simplificationPercent) {
-                next = reproduceBySimplification(n);
-            } else {
-                next = reproduceByClone(n);
+        if (method < simplifyFlattenPercent) {
+            // Flatten random thing
+            int pointIndex = inRandom.nextInt(trial.programSize());
+            Object point = trial.subtree(pointIndex);
+
+            if (point instanceof Program) {
+                trial.flatten(pointIndex);
+                madeSimpler = true;
+            }
+        } else {
+            // Remove small number of random things
+            int numberToRemove = inRandom.nextInt(3) + 1;
+
+            for (int j = 0; j < numberToRemove; j++) {
+                int trialSize = trial.programSize();
+
+                if (trialSize > 0) {
+                    int pointIndex = inRandom.nextInt(trialSize);
+                    trial.replaceSubtree(pointIndex, new Program());
+                    trial.flatten(pointIndex);
+                    madeSimpler = true;
+                }
             }
+        }
+
+        return madeSimpler ? trial : null;
+    }
+
+    private static boolean batchContains(List<PushGPIndividual> inBatch, Program inProgram) {
+        for (PushGPIndividual candidate : inBatch) {
+            if (candidate.program.equals(inProgram))
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns whether simplification candidates are evaluated in parallel:
+     * with evaluation threads, when called from outside of the evaluation and
+     * report threads.
+     */
+    private boolean parallelSimplification() {
+        return evaluationThreads > 1 && ForkJoinTask.getPool() == null
+                && !(Thread.currentThread() instanceof ReportWorker);
+    }
+
+    /**
+     * Evaluates a batch of simplification candidates, in parallel when
+     * parallelSimplification allows. Each is evaluated in a stream of its
+     * own, numbered by the steps taken once it was drawn.
+     */
+    private void evaluateCandidates(List<PushGPIndividual> inBatch, int[] inDrawn, long inEvaluations,
+                                    float inBound) {
+        if (inBatch.size() > 1 && parallelSimplification()) {
+            getEvaluationPool().invoke(
+                    new SimplificationTask(inBatch, inDrawn, inEvaluations, inBound, 0, inBatch.size()));
+        } else {
+            for (int n = 0; n < inBatch.size(); n++)
+                evaluateCandidate(inBatch.get(n), streamRandom(inEvaluations, inDrawn[n]), inBound);
+        }
+    }
+
+    private void evaluateCandidate(PushGPIndividual inCandidate, Random inRandom, float inBound) {
+        inStream(inRandom, () -> evaluateCandidate(inCandidate, inBound));
+    }
+
+    /**
+     * Evaluates a simplification candidate, leaving its fitness unset if it is
+     * abandoned because its fitness is worse than a bound.
+     *
+     * @param inCandidate The candidate.
+     * @param inBound     The fitness the candidate must not be worse than.
+     */
+    private void evaluateCandidate(PushGPIndividual inCandidate, float inBound) {
+        // Errors on a sample of the test cases are not cached
+        FitnessCache cache = evaluationTestCases() == testCases ? getFitnessCache() : null;
+
+        if (cache != null && cache.lookup(inCandidate.program, inCandidate))
+            return;
+
+        List<GATestCase> cases = evaluationTestCases();
+        float[] errors = new float[cases.size()];
+        float total = 0;
+
+        for (int n = 0; n < errors.length; n++) {
+            GATestCase testCase = cases.get(n);
+            errors[n] = evaluateTestCase(inCandidate, testCase.input(), testCase.output());
+
+            // Errors only add to the average, so the candidate is worse as
+            // soon as its running average is
+            total += Math.abs(errors[n]);
+
+            if ((Float.isInfinite(total) ? Float.MAX_VALUE : total / errors.length) > inBound)
+                return;
+        }
+
+        inCandidate.setFitness(absoluteAverageOfErrors(errors), errors.length);
+        inCandidate.setErrors(errors);
+
+        if (cache != null)
+            cache.store(inCandidate.program, inCandidate.getFitness(), errors);
+    }
 
-            populations[nextPopulation][n] = next;
+    /**
+     * Runs a reproduction or evaluation event with the calling thread's
+     * interpreter drawing from the event's generator, both for random code
+     * and for the random instructions of the programs it executes.
+     */
+    @Override
+    void inStream(Random inRandom, Runnable inEvent) {
+        Interpreter eventInterpreter = getInterpreter();
+        Random interpreterRandom = eventInterpreter.random;
+        eventInterpreter.random = inRandom;
+
+        try {
+            super.inStream(inRandom, inEvent);
+        } finally {
+            eventInterpreter.random = interpreterRandom;
+        }
+    }
+
+    /**
+     * Produces the individual for one slot of the next population, also by
+     * simplification, within the dynamic size limit.
+     */
+    @Override
+    protected GAIndividual reproduceIndividual(int inIndex) {
+        float method = random().nextInt(100);
+        GAIndividual child;
+
+        if (method < mutationPercent) {
+            child = reproduceByMutation(inIndex);
+        } else if (method < crossoverPercent + mutationPercent) {
+            child = reproduceByCrossover(inIndex);
+        } else if (method < crossoverPercent + mutationPercent
+                + simplificationPercent) {
+            child = reproduceBySimplification(inIndex);
+        } else {
+            child = reproduceByClone(inIndex);
         }
+
+        // A child over the dynamic size limit is replaced by a parent
+        if (bloatControl != null && bloatControl.exceedsLimit((PushGPIndividual) child))
+            child = reproduceByClone(inIndex);
+
+        return child;
     }
 
     protected GAIndividual reproduceByCrossover(int inIndex) {
         PushGPIndividual a = (PushGPIndividual) reproduceByClone(inIndex);
         PushGPIndividual b = (PushGPIndividual) tournamentSelect(
             tournamentSize, inIndex);
+        Program bProgram = b.getProgram();
 
+        // b stays in the current population, so a copy of it is returned
         if (a.program.programSize() <= 0) {
-            return b;
+            return b.cloneInto(a);
         }
-        if (b.program.programSize() <= 0) {
+        if (bProgram.programSize() <= 0) {
             return a;
         }
 
         int aindex = reproductionNodeSelection(a);
         int bindex = reproductionNodeSelection(b);
 
-        if (a.program.programSize() + b.program.subtreeSize(bindex)
+        if (a.program.programSize() + bProgram.subtreeSize(bindex)
                 - a.program.subtreeSize(aindex) <= maxPointsInProgram)
-            a.program.replaceSubtree(aindex, b.program.subtree(bindex));
+            a.program.replaceSubtree(aindex, bProgram.subtree(bindex));
 
         return a;
     }
@@ -492,17 +1060,17 @@ abstract public class PushGP extends GeneticAlgorithm {
 
         if (useFairMutation) {
             int range = (int) Math.max(1, fairMutationRange * oldsize);
-            newsize = Math.max(1, oldsize + random.nextInt(2 * range) - range);
+            newsize = Math.max(1, oldsize + random().nextInt(2 * range) - range);
         } else {
-            newsize = random.nextInt(maxRandomCodeSize);
+            newsize = random().nextInt(maxRandomCodeSize);
         }
 
         Object newtree;
 
         if (newsize == 1)
-            newtree = interpreter.randomAtom();
+            newtree = getInterpreter().randomAtom();
         else
-            newtree = interpreter.randomCode(newsize);
+            newtree = getInterpreter().randomCode(newsize);
 
         if (newsize + totalsize - oldsize <= maxPointsInProgram)
             i.program.replaceSubtree(which, newtree);
@@ -518,28 +1086,45 @@ abstract public class PushGP extends GeneticAlgorithm {
      * @return Index of the node to use for reproduction.
      */
     protected int reproductionNodeSelection(PushGPIndividual inInd) {
-        int totalSize = inInd.program.programSize();
+        return reproductionNodeSelection(inInd.getProgram());
+    }
+
+    /**
+     * Selects a node of a program, as reproductionNodeSelection of an
+     * individual.
+     *
+     * @param inProgram = Program to select node from.
+     * @return Index of the node to use for reproduction.
+     */
+    protected int reproductionNodeSelection(Program inProgram) {
+        int totalSize = inProgram.programSize();
         int selectedNode = 0;
 
         if (totalSize <= 1) {
             selectedNode = 0;
         } else if (nodeSelectionMode.equals("unbiased")) {
-            selectedNode = random.nextInt(totalSize);
+            selectedNode = random().nextInt(totalSize);
         } else if (nodeSelectionMode.equals("leaf-probability")) {
-            // TODO Implement. Currently runs unbiased
-
             // note: if there aren't any internal nodes, must select leaf, and
             // if no leaf, must select internal
 
-            selectedNode = random.nextInt(totalSize);
+            int leaves = inProgram.leafCount();
+            int internals = totalSize - leaves;
+
+            if (internals == 0 || (leaves > 0
+                    && random().nextInt(100) < nodeSelectionLeafProbability)) {
+                selectedNode = inProgram.leafIndex(random().nextInt(leaves));
+            } else {
+                selectedNode = inProgram.internalIndex(random().nextInt(internals));
+            }
         } else {
             // size-tournament
             int maxSize = -1;
             selectedNode = 0;
 
             for (int j = 0; j < nodeSelectionTournamentSize; j++) {
-                int nextwhich = random.nextInt(totalSize);
-                int nextwhichsize = inInd.program.subtreeSize(nextwhich);
+                int nextwhich = random().nextInt(totalSize);
+                int nextwhichsize = inProgram.subtreeSize(nextwhich);
 
                 if (nextwhichsize > maxSize) {
                     selectedNode = nextwhich;
@@ -569,4 +1154,81 @@ abstract public class PushGP extends GeneticAlgorithm {
 
         System.out.println(interpreter);
     }
-}
\ No newline at end of file
+
+    /**
+     * Evaluates a range of a batch of simplification candidates, splitting it
+     * in halves like the EvaluationTask of GeneticAlgorithm.
+     */
+    private class SimplificationTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<PushGPIndividual> batch;
+        private final int[] drawn;
+        private final long evaluations;
+        private final float bound;
+        private final int start;
+        private final int end;
+
+        SimplificationTask(List<PushGPIndividual> inBatch, int[] inDrawn, long inEvaluations, float inBound,
+                           int inStart, int inEnd) {
+            batch = inBatch;
+            drawn = inDrawn;
+            evaluations = inEvaluations;
+            bound = inBound;
+            start = inStart;
+            end = inEnd;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start == 1) {
+                evaluateCandidate(batch.get(start), streamRandom(evaluations, drawn[start]), bound);
+            } else if (end > start) {
+                int middle = (start + end) >>> 1;
+                invokeAll(new SimplificationTask(batch, drawn, evaluations, bound, start, middle),
+                        new SimplificationTask(batch, drawn, evaluations, bound, middle, end));
+            }
+        }
+    }
+
+    /**
+     * A worker thread of the evaluation pool, holding the interpreter that the
+     * thread executes programs with.
+     */
+    private static class EvaluationWorker extends ForkJoinWorkerThread {
+        final Interpreter interpreter;
+        final List<Interpreter> interpreters;
+        final Queue<Interpreter> retired;
+
+        EvaluationWorker(ForkJoinPool inPool, Interpreter inInterpreter, List<Interpreter> inInterpreters,
+                         Queue<Interpreter> inRetired) {
+            super(inPool);
+            interpreter = inInterpreter;
+            interpreters = inInterpreters;
+            retired = inRetired;
+        }
+
+        @Override
+        protected void onTermination(Throwable inException) {
+            interpreters.remove(interpreter);
+            retired.add(interpreter);
+            super.onTermination(inException);
+        }
+    }
+
+    /**
+     * The thread of the background report mode, holding the interpreter that
+     * the simplifications of reports are executed with.
+     */
+    private static class ReportWorker extends Thread {
+        final PushGP owner;
+        final Interpreter interpreter;
+
+        ReportWorker(Runnable inTask, PushGP inOwner, Interpreter inInterpreter) {
+            super(inTask, "report");
+            setDaemon(true);
+            owner = inOwner;
+            interpreter = inInterpreter;
+        }
+    }
+}
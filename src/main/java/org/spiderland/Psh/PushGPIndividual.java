@@ -24,6 +24,17 @@ public class PushGPIndividual extends GAIndividual {
         }
     }
 
+    public Program getProgram() {
+        return program;
+    }
+
+    /**
+     * Returns the size of the program, as Program.programSize.
+     */
+    public int programSize() {
+        return program.programSize();
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -45,4 +56,28 @@ public class PushGPIndividual extends GAIndividual {
     public GAIndividual clone() {
         return new PushGPIndividual(program);
     }
+
+    /**
+     * Copies the program into the discarded individual's program, if both
+     * are plain PushGPIndividuals. Subclasses with state of their own are
+     * cloned instead, unless they override this.
+     */
+    @Override
+    public GAIndividual cloneInto(GAIndividual inDiscarded) {
+        if (inDiscarded == this || getClass() != PushGPIndividual.class
+                || inDiscarded == null || inDiscarded.getClass() != PushGPIndividual.class)
+            return clone();
+
+        PushGPIndividual result = (PushGPIndividual) inDiscarded;
+        result.resetFitness();
+
+        if (result.program == null)
+            result.setProgram(program);
+        else if (program != null)
+            result.program.copyFrom(program);
+        else
+            result.program = null;
+
+        return result;
+    }
 }
@@ -0,0 +1,235 @@
+package org.spiderland.Psh;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Evaluates a population by racing: successive halving over the test cases.
+ * <p>
+ * Every individual is scored on a first subset of the test cases, drawn in a
+ * random order each generation. The fittest fraction survives to be scored on
+ * twice as many cases, and so on until the survivors have been scored on all
+ * of them. The others keep the mean error of the cases they were scored on,
+ * and the number of those cases, with which GAIndividual.isFitterThan ranks
+ * them below every individual which outlasted them.
+ * <p>
+ * Test cases are evaluated with the algorithm's evaluateTestCase, on the
+ * evaluation pool when evaluation-threads is greater than one, so the fitness
+ * cache and problem classes' own evaluateTestCases are not used.
+ */
+final class RacingEvaluator {
+    private final GeneticAlgorithm algorithm;
+    private final int initialCases;
+    private final float survival;
+
+    /**
+     * @param inAlgorithm    The genetic algorithm whose populations are raced.
+     * @param inInitialCases The number of test cases every individual is
+     *                       scored on.
+     * @param inSurvival     The fraction of individuals kept after each round.
+     */
+    RacingEvaluator(GeneticAlgorithm inAlgorithm, int inInitialCases, float inSurvival) {
+        algorithm = inAlgorithm;
+        initialCases = Math.max(1, inInitialCases);
+        survival = inSurvival;
+    }
+
+    /**
+     * Evaluates a population, setting the fitness, errors and fitness cases
+     * of every individual.
+     *
+     * @param inPopulation The individuals to evaluate.
+     * @param inRandom     The generator to draw the order of the test cases
+     *                     from.
+     */
+    void evaluate(GAIndividual[] inPopulation, Random inRandom) {
+        List<GATestCase> testCases = algorithm.evaluationTestCases();
+        int caseCount = testCases.size();
+
+        // The order in which the test cases are raced
+        int[] order = new int[caseCount];
+
+        for (int c = 0; c < caseCount; c++)
+            order[c] = c;
+
+        for (int c = caseCount - 1; c > 0; c--) {
+            int other = inRandom.nextInt(c + 1);
+            int swap = order[c];
+            order[c] = order[other];
+            order[other] = swap;
+        }
+
+        float[][] errors = new float[inPopulation.length][caseCount];
+        int[] survivors = new int[inPopulation.length];
+
+        for (int n = 0; n < survivors.length; n++)
+            survivors[n] = n;
+
+        int survivorCount = survivors.length;
+        int done = 0;
+        int cases = Math.min(initialCases, caseCount);
+
+        while (survivorCount > 0) {
+            long round = inRandom.nextLong();
+            score(inPopulation, testCases, order, errors, survivors, survivorCount, round, done, cases);
+
+            for (int n = 0; n < survivorCount; n++) {
+                int i = survivors[n];
+                inPopulation[i].setFitness(meanError(errors[i], cases), cases);
+            }
+
+            if (cases == caseCount)
+                break;
+
+            // The others keep their partial fitness
+            survivorCount = fittest(inPopulation, survivors, survivorCount);
+            done = cases;
+            cases = (int) Math.min(2L * cases, caseCount);
+        }
+
+        for (int i = 0; i < inPopulation.length; i++) {
+            int scored = inPopulation[i].getFitnessCases();
+            float[] errorArray = errorArray(errors[i], order, scored, caseCount);
+
+            // Summed in the order of the test cases, the fitness of an
+            // individual raced to the end is the one a full evaluation gives
+            if (scored == caseCount)
+                inPopulation[i].setFitness(algorithm.absoluteAverageOfErrors(errorArray), caseCount);
+
+            inPopulation[i].setErrors(errorArray);
+        }
+    }
+
+    /**
+     * Scores the survivors on the raced cases from inFrom to inTo. Each
+     * survivor draws from a stream of its own, numbered by its index, of the
+     * round's seed, so that the scores are the same for any number of
+     * threads.
+     */
+    private void score(GAIndividual[] inPopulation, List<GATestCase> inTestCases, int[] inOrder, float[][] outErrors,
+            int[] inSurvivors, int inSurvivorCount, long inRound, int inFrom, int inTo) {
+        if (algorithm.evaluationThreads <= 1) {
+            for (int n = 0; n < inSurvivorCount; n++) {
+                int i = inSurvivors[n];
+                score(inPopulation, i, inTestCases, inOrder, outErrors[i], inRound, inFrom, inTo);
+            }
+        } else {
+            algorithm.getEvaluationPool().invoke(new ScoreTask(inPopulation, inTestCases, inOrder, outErrors,
+                    inSurvivors, 0, inSurvivorCount, inRound, inFrom, inTo));
+        }
+    }
+
+    private void score(GAIndividual[] inPopulation, int inIndex, List<GATestCase> inTestCases, int[] inOrder,
+            float[] outErrors, long inRound, int inFrom, int inTo) {
+        GAIndividual individual = inPopulation[inIndex];
+
+        algorithm.inStream(GeneticAlgorithm.streamRandom(inRound, inIndex), () -> {
+            for (int c = inFrom; c < inTo; c++) {
+                GATestCase testCase = inTestCases.get(inOrder[c]);
+                outErrors[c] = algorithm.evaluateTestCase(individual, testCase.input(), testCase.output());
+            }
+        });
+    }
+
+    /**
+     * Keeps the fittest survivors at the start of inSurvivors.
+     *
+     * @return The number kept.
+     */
+    private int fittest(GAIndividual[] inPopulation, int[] inSurvivors, int inSurvivorCount) {
+        Integer[] ranked = new Integer[inSurvivorCount];
+
+        for (int n = 0; n < inSurvivorCount; n++)
+            ranked[n] = inSurvivors[n];
+
+        Arrays.sort(ranked, (a, b) -> inPopulation[a].isFitterThan(inPopulation[b]) ? -1
+                : inPopulation[b].isFitterThan(inPopulation[a]) ? 1 : 0);
+
+        int kept = Math.max(1, (int) Math.ceil(survival * inSurvivorCount));
+
+        for (int n = 0; n < kept; n++)
+            inSurvivors[n] = ranked[n];
+
+        return kept;
+    }
+
+    /**
+     * Returns the mean absolute error of the first cases raced, as
+     * absoluteAverageOfErrors.
+     */
+    private static float meanError(float[] inErrors, int inCases) {
+        float total = 0.0f;
+
+        for (int c = 0; c < inCases; c++)
+            total += Math.abs(inErrors[c]);
+
+        if (Float.isInfinite(total))
+            return Float.MAX_VALUE;
+
+        return total / inCases;
+    }
+
+    /**
+     * Returns the errors of an individual: for one scored on all cases, in
+     * the order of the test cases, and otherwise in the order raced.
+     */
+    private static float[] errorArray(float[] inErrors, int[] inOrder, int inScored, int inCaseCount) {
+        if (inScored < inCaseCount)
+            return Arrays.copyOf(inErrors, inScored);
+
+        float[] result = new float[inCaseCount];
+
+        for (int c = 0; c < inCaseCount; c++)
+            result[inOrder[c]] = inErrors[c];
+
+        return result;
+    }
+
+    /**
+     * Scores a range of the survivors, splitting it in halves like
+     * GeneticAlgorithm's EvaluationTask.
+     */
+    private class ScoreTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final GAIndividual[] population;
+        private final List<GATestCase> testCases;
+        private final int[] order;
+        private final float[][] errors;
+        private final int[] survivors;
+        private final int start;
+        private final int end;
+        private final long round;
+        private final int from;
+        private final int to;
+
+        ScoreTask(GAIndividual[] inPopulation, List<GATestCase> inTestCases, int[] inOrder, float[][] inErrors,
+                int[] inSurvivors, int inStart, int inEnd, long inRound, int inFrom, int inTo) {
+            population = inPopulation;
+            testCases = inTestCases;
+            order = inOrder;
+            errors = inErrors;
+            survivors = inSurvivors;
+            start = inStart;
+            end = inEnd;
+            round = inRound;
+            from = inFrom;
+            to = inTo;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start == 1) {
+                int i = survivors[start];
+                score(population, i, testCases, order, errors[i], round, from, to);
+            } else if (end > start) {
+                int middle = (start + end) >>> 1;
+                invokeAll(
+                        new ScoreTask(population, testCases, order, errors, survivors, start, middle, round, from, to),
+                        new ScoreTask(population, testCases, order, errors, survivors, middle, end, round, from, to));
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package org.spiderland.Psh;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Generates random Push code for an interpreter.
+ * <p>
+ * The programs follow the same distribution as Interpreter's
+ * randomCodeDistribution (the "decompose" algorithm of the lisp
+ * implementation): the points below a list are split into element sizes,
+ * which are shuffled, and elements larger than one point become sub-lists.
+ * Rather than building a boxed list per level and recursing, the generator
+ * writes the sizes of every list under construction into one reusable int
+ * array and builds the whole tree in a single pass with explicit stacks, so
+ * that a program costs only its own storage and atoms.
+ */
+final class RandomCodeGenerator {
+    private final Interpreter interpreter;
+
+    // The element sizes of the lists under construction, the outermost first.
+    private int[] sizes = new int[64];
+
+    // For each list under construction, from the outermost: the program, and
+    // the range of its elements in sizes which have not been generated yet.
+    private Program[] programs = new Program[16];
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+
+    RandomCodeGenerator(Interpreter inInterpreter) {
+        interpreter = inInterpreter;
+    }
+
+    /**
+     * Generates a random Push program.
+     *
+     * @param inSize The size of the program, in points.
+     * @return The program.
+     */
+    Program generate(int inSize) {
+        int depth = 0;
+
+        open(0, 0, inSize);
+
+        while (true) {
+            int position = starts[depth];
+
+            if (position < ends[depth]) {
+                int size = sizes[position];
+
+                starts[depth] = position + 1;
+
+                if (size == 1) {
+                    programs[depth].push(interpreter.randomAtom());
+                } else {
+                    open(depth + 1, ends[depth], size);
+                    depth++;
+                }
+            } else {
+                Program p = programs[depth];
+
+                programs[depth] = null;
+
+                if (depth == 0)
+                    return p;
+
+                depth--;
+
+                // The list was created here and nothing else refers to it
+                programs[depth].pushShared(p);
+            }
+        }
+    }
+
+    /**
+     * Starts a new list, splitting its points into shuffled element sizes.
+     *
+     * @param inDepth The depth of the list.
+     * @param inStart The position in sizes of its first element.
+     * @param inSize  The size of the list, including itself.
+     */
+    private void open(int inDepth, int inStart, int inSize) {
+        Random random = interpreter.random;
+        int end = inStart;
+
+        for (int count = inSize - 1; count > 0; ) {
+            int size = count < 2 ? 1 : random.nextInt(count) + 1;
+
+            if (end == sizes.length)
+                sizes = Arrays.copyOf(sizes, 2 * sizes.length);
+
+            sizes[end++] = size;
+            count -= size;
+        }
+
+        for (int n = end - inStart; n > 1; n--) {
+            int other = inStart + random.nextInt(n);
+            int size = sizes[inStart + n - 1];
+
+            sizes[inStart + n - 1] = sizes[other];
+            sizes[other] = size;
+        }
+
+        if (inDepth == programs.length) {
+            programs = Arrays.copyOf(programs, 2 * inDepth);
+            starts = Arrays.copyOf(starts, 2 * inDepth);
+            ends = Arrays.copyOf(ends, 2 * inDepth);
+        }
+
+        programs[inDepth] = new Program();
+        starts[inDepth] = inStart;
+        ends[inDepth] = end;
+    }
+}
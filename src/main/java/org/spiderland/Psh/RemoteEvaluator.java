@@ -0,0 +1,102 @@
+package org.spiderland.Psh;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.HashMap;
+
+/**
+ * The connection of a worker process to the EvaluationMaster of a run. The
+ * worker is a genetic algorithm of the run's problem class, initialized from
+ * the run's parameters, which evaluates the batches of individuals it is sent
+ * (with its own evaluation-threads) and sends back their fitness and errors.
+ */
+final class RemoteEvaluator {
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    private int evaluated;
+
+    /**
+     * Connects to the master of a run.
+     *
+     * @param inHost The host of the master.
+     * @param inPort The port of the master.
+     */
+    RemoteEvaluator(String inHost, int inPort) throws IOException {
+        socket = new Socket(inHost, inPort);
+        socket.setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    /**
+     * Connects a worker to the master of its run, whose host:port is the
+     * evaluation-server parameter.
+     *
+     * @param inParameters The parameters of the worker.
+     * @return the connection, or null if evaluation-server is not set.
+     */
+    static RemoteEvaluator create(HashMap<String, String> inParameters) throws IOException {
+        String address = inParameters.get("evaluation-server");
+
+        if (address == null)
+            return null;
+
+        int colon = address.lastIndexOf(':');
+        return new RemoteEvaluator(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+    }
+
+    /**
+     * Returns the number of individuals evaluated so far.
+     */
+    int evaluated() {
+        return evaluated;
+    }
+
+    /**
+     * Evaluates the batches sent by the master, until it disconnects.
+     *
+     * @param inAlgorithm The genetic algorithm of the worker.
+     */
+    void serve(GeneticAlgorithm inAlgorithm) throws Exception {
+        try (socket) {
+            while (true) {
+                byte message;
+
+                try {
+                    message = in.readByte();
+                } catch (EOFException e) {
+                    // The run is over
+                    return;
+                }
+
+                if (message != EvaluationMaster.BATCH)
+                    throw new IOException("Unknown evaluation message " + message);
+
+                int id = in.readInt();
+                GAIndividual[] batch = new GAIndividual[in.readInt()];
+
+                for (int n = 0; n < batch.length; n++)
+                    batch[n] = inAlgorithm.decodeIndividual(IslandServer.readBlock(in));
+
+                inAlgorithm.evaluatePopulation(batch);
+                evaluated += batch.length;
+
+                out.writeByte(EvaluationMaster.RESULTS);
+                out.writeInt(id);
+                out.writeInt(batch.length);
+
+                for (GAIndividual individual : batch)
+                    EvaluationMaster.writeResult(out, individual);
+
+                out.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package org.spiderland.Psh;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The connection of an island running in its own process to the IslandServer
+ * coordinating the run.
+ * <p>
+ * The island reports the best fitness of each generation to the server, and
+ * sends its migrants to it to be passed on to another island. Messages from
+ * the server are received on a thread of their own: arriving migrants are
+ * kept until the island's next migration, and a stop message ends the island
+ * after its current generation.
+ */
+final class RemoteIslandLink implements IslandLink {
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    private final int island;
+    private final int islands;
+    private final int migrationInterval;
+    private final int migrationSize;
+
+    private final Queue<byte[]> inbox = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean finished;
+    private volatile float bestFitness = Float.MAX_VALUE;
+    private volatile int bestIsland = -1;
+
+    /**
+     * Connects to the server of a run, which assigns this island its index.
+     *
+     * @param inHost              The host of the server.
+     * @param inPort              The port of the server.
+     * @param inMigrationInterval The number of generations between migrations.
+     * @param inMigrationSize     The number of individuals sent on migration.
+     */
+    RemoteIslandLink(String inHost, int inPort, int inMigrationInterval, int inMigrationSize) throws IOException {
+        socket = new Socket(inHost, inPort);
+        socket.setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+        if (in.readByte() != IslandServer.WELCOME)
+            throw new IOException("Island server did not welcome the island");
+
+        island = in.readInt();
+        islands = in.readInt();
+        migrationInterval = inMigrationInterval;
+        migrationSize = inMigrationSize;
+
+        Thread receiver = new Thread(this::receive, "island-" + island + "-receiver");
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    /**
+     * Connects an island to the server of its run, whose host:port is the
+     * island-server parameter.
+     *
+     * @param inParameters        The parameters of the island.
+     * @param inMigrationInterval The number of generations between migrations.
+     * @param inMigrationSize     The number of individuals sent on migration.
+     * @return the link, or null if island-server is not set.
+     */
+    static RemoteIslandLink create(HashMap<String, String> inParameters, int inMigrationInterval,
+                                   int inMigrationSize) throws IOException {
+        String address = inParameters.get("island-server");
+
+        if (address == null)
+            return null;
+
+        int colon = address.lastIndexOf(':');
+        return new RemoteIslandLink(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)),
+                inMigrationInterval, inMigrationSize);
+    }
+
+    /**
+     * Returns the index the server has assigned to this island.
+     */
+    int island() {
+        return island;
+    }
+
+    @Override
+    public int size() {
+        return islands;
+    }
+
+    private void receive() {
+        try {
+            while (true) {
+                byte message = in.readByte();
+
+                if (message == IslandServer.MIGRANTS) {
+                    for (int n = in.readInt(); n > 0; n--)
+                        inbox.add(IslandServer.readBlock(in));
+                } else if (message == IslandServer.BEST) {
+                    bestFitness = in.readFloat();
+                    bestIsland = in.readInt();
+                } else if (message == IslandServer.STOP) {
+                    finished = true;
+                } else {
+                    throw new IOException("Unknown island message " + message);
+                }
+            }
+        } catch (IOException e) {
+            // The server is gone, so there is no one left to evolve for
+            finished = true;
+        }
+    }
+
+    @Override
+    public void evaluated(int inIsland, float inFitness) {
+        if (inFitness < bestFitness) {
+            bestFitness = inFitness;
+            bestIsland = inIsland;
+        }
+
+        try {
+            synchronized (out) {
+                out.writeByte(IslandServer.REPORT);
+                out.writeFloat(inFitness);
+                out.flush();
+            }
+        } catch (IOException e) {
+            finished = true;
+        }
+    }
+
+    @Override
+    public float bestFitness() {
+        return bestFitness;
+    }
+
+    @Override
+    public int bestIsland() {
+        return bestIsland;
+    }
+
+    @Override
+    public void migrate(GeneticAlgorithm inIsland) throws Exception {
+        if (!IslandModel.migrates(inIsland, migrationInterval, migrationSize))
+            return;
+
+        GAIndividual[] population = inIsland.populations[inIsland.currentPopulation];
+        int[] order = IslandModel.fitnessOrder(population);
+        int count = Math.min(migrationSize, population.length);
+
+        synchronized (out) {
+            out.writeByte(IslandServer.MIGRANTS);
+            out.writeInt(count);
+
+            for (int n = 0; n < count; n++)
+                IslandServer.writeBlock(out, inIsland.encodeIndividual(population[order[n]]));
+
+            out.flush();
+        }
+
+        // Immigrants replace the worst individuals, but never the best
+        byte[] immigrant;
+
+        for (int n = population.length - 1; n > 0 && (immigrant = inbox.poll()) != null; n--)
+            population[order[n]] = inIsland.decodeIndividual(immigrant);
+    }
+
+    @Override
+    public boolean finished() {
+        return finished;
+    }
+
+    /**
+     * Sends the island's result to the server, and disconnects.
+     */
+    @Override
+    public void done(GeneticAlgorithm inIsland) throws Exception {
+        GAIndividual best = inIsland.populations[inIsland.currentPopulation][inIsland.bestIndividual];
+
+        try {
+            synchronized (out) {
+                out.writeByte(IslandServer.DONE);
+                out.writeBoolean(inIsland.success());
+                out.writeInt(inIsland.generationCount);
+                IslandServer.writeBlock(out, inIsland.encodeIndividual(best));
+                out.flush();
+            }
+        } finally {
+            socket.close();
+        }
+    }
+}
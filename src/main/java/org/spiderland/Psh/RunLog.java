@@ -0,0 +1,183 @@
+package org.spiderland.Psh;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * An append-only log of what a run prints, in the order printed, written
+ * through a buffer by a thread of its own so that printing does not wait for
+ * the disk.
+ * <p>
+ * The log is split into files of about segmentSize bytes: the path itself,
+ * then the path followed by .1, .2 and so on. A run resumed from a
+ * checkpoint appends to the last of them. At most QUEUE_SIZE entries wait to
+ * be written, so that the log holds a bounded amount of memory even when the
+ * disk is slower than the run. The log must be closed, which ends its
+ * thread.
+ */
+final class RunLog {
+    private static final int QUEUE_SIZE = 64;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final String path;
+    private final long segmentSize;
+    private final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+
+    // Queued by close, after which the writer thread ends
+    private final Object closeMarker = new Object();
+    private final CountDownLatch closed = new CountDownLatch(1);
+    private boolean closing;
+
+    // The file being written, its number and its size so far, all used by
+    // the writer thread only
+    private OutputStream out;
+    private int segment;
+    private long written;
+
+    // The first failure of the writer thread, raised by the next append or
+    // flush
+    private volatile IOException failure;
+
+    /**
+     * Opens a run log, appending to its last file.
+     *
+     * @param inPath        The path of the first file.
+     * @param inSegmentSize The size at which a file is full.
+     */
+    RunLog(String inPath, long inSegmentSize) throws IOException {
+        path = inPath;
+        segmentSize = Math.max(1, inSegmentSize);
+
+        while (new File(segmentPath(segment + 1)).exists())
+            segment++;
+
+        open();
+
+        Thread writer = new Thread(this::write, "run-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Returns the path of a file of the log.
+     */
+    String segmentPath(int inSegment) {
+        return inSegment == 0 ? path : path + "." + inSegment;
+    }
+
+    /**
+     * Appends text to the log, waiting while QUEUE_SIZE entries are queued.
+     */
+    void append(String inText) throws Exception {
+        raiseFailure();
+
+        // Nothing is queued after the close marker, which ends the writer
+        synchronized (this) {
+            if (closing)
+                throw new IOException("The run log " + path + " is closed");
+
+            queue.put(inText);
+        }
+    }
+
+    /**
+     * Waits until everything appended so far is written to the files.
+     */
+    void flush() throws Exception {
+        CountDownLatch flushed = new CountDownLatch(1);
+
+        synchronized (this) {
+            // A closed log is written already
+            if (closing)
+                flushed = closed;
+            else
+                queue.put(flushed);
+        }
+
+        flushed.await();
+        raiseFailure();
+    }
+
+    /**
+     * Writes everything appended so far to the files, closes them and ends
+     * the writer thread. Closing a closed log only waits for it to be
+     * closed.
+     */
+    void close() throws Exception {
+        synchronized (this) {
+            if (!closing) {
+                closing = true;
+                queue.put(closeMarker);
+            }
+        }
+
+        closed.await();
+        raiseFailure();
+    }
+
+    private void raiseFailure() throws IOException {
+        if (failure != null)
+            throw new IOException("Could not write the run log " + path, failure);
+    }
+
+    private void open() throws IOException {
+        File file = new File(segmentPath(segment));
+
+        written = file.length();
+        out = new BufferedOutputStream(new FileOutputStream(file, true), BUFFER_SIZE);
+    }
+
+    private void write() {
+        while (true) {
+            Object entry;
+
+            try {
+                entry = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            try {
+                if (entry instanceof String text) {
+                    if (failure == null)
+                        write(text.getBytes(StandardCharsets.UTF_8));
+                } else if (entry == closeMarker) {
+                    out.close();
+                } else if (failure == null) {
+                    out.flush();
+                }
+            } catch (IOException e) {
+                if (failure == null)
+                    failure = e;
+            }
+
+            if (entry instanceof CountDownLatch flushed)
+                flushed.countDown();
+
+            if (entry == closeMarker) {
+                closed.countDown();
+                return;
+            }
+        }
+    }
+
+    private void write(byte[] inBytes) throws IOException {
+        // An entry is never split, so a file is only larger than segmentSize
+        // when its first entry is
+        if (written > 0 && written + inBytes.length > segmentSize) {
+            out.close();
+            segment++;
+            open();
+        }
+
+        out.write(inBytes);
+        written += inBytes.length;
+    }
+}
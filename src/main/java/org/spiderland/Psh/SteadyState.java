@@ -0,0 +1,178 @@
+package org.spiderland.Psh;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Runs a genetic algorithm as a steady-state search over its current
+ * population, with no barrier between generations.
+ * <p>
+ * Each worker (one per evaluation thread, on the evaluation pool) repeatedly
+ * breeds a child with reproduceIndividual, as for a slot of the generational
+ * loop, evaluates it, and replaces the worst of a tournament of the population
+ * with it. Selection reads the slots as other workers replace them; a
+ * replacement is a compare-and-set of its slot, so workers never wait for
+ * each other except while a report is printed.
+ * <p>
+ * Every report-interval evaluations the population is reported on as a
+ * generation, which is what max-generations counts. Each event draws from a
+ * random stream of its own, so a single-threaded run is reproducible from
+ * its seed.
+ */
+final class SteadyState {
+    // Keeps the event streams apart from those of the generational slots
+    private static final long STREAMS = 1L << 63;
+
+    private final GeneticAlgorithm algorithm;
+    private final GAIndividual[] population;
+
+    // Replacements hold the read lock, and reports the write lock, so that a
+    // report sees the population as it was at one instant
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final AtomicLong events;
+    private final AtomicLong evaluations;
+
+    private int generations;
+    private volatile boolean stopped;
+
+    SteadyState(GeneticAlgorithm inAlgorithm) {
+        algorithm = inAlgorithm;
+        population = inAlgorithm.populations[inAlgorithm.currentPopulation];
+        events = new AtomicLong(inAlgorithm.steadyStateEvaluations);
+        evaluations = new AtomicLong(inAlgorithm.steadyStateEvaluations);
+    }
+
+    /**
+     * Runs until the algorithm terminates, or for a number of reports.
+     *
+     * @param inGenerations The maximum number of reports during this call, or
+     *                      -1 for no limit.
+     * @return The result of GeneticAlgorithm.run.
+     */
+    boolean run(int inGenerations) throws Exception {
+        generations = inGenerations;
+
+        // The initial population is evaluated and reported on as a whole
+        if (algorithm.generationCount == 0 && !algorithm.terminate() && generations != 0) {
+            algorithm.evaluatePopulation(population);
+            report();
+        }
+
+        stopped = algorithm.terminate() || generations == 0;
+        algorithm.prepareSelection();
+
+        if (algorithm.evaluationThreads <= 1) {
+            work();
+        } else {
+            List<ForkJoinTask<?>> workers = new ArrayList<>();
+
+            for (int n = 0; n < algorithm.evaluationThreads; n++)
+                workers.add(algorithm.getEvaluationPool().submit(this::work));
+
+            for (ForkJoinTask<?> worker : workers)
+                worker.join();
+        }
+
+        algorithm.steadyStateEvaluations = evaluations.get();
+
+        if (algorithm.terminate()) {
+            // The population has changed since the last report
+            summarize();
+            algorithm.print(algorithm.finalReport());
+        }
+
+        return (algorithm.generationCount < algorithm.maxGenerations);
+    }
+
+    private void work() {
+        try {
+            while (!stopped) {
+                long event = events.getAndIncrement();
+
+                algorithm.inStream(STREAMS | event, this::breed);
+
+                long count = evaluations.incrementAndGet();
+
+                if (count % algorithm.reportInterval == 0)
+                    report();
+            }
+        } catch (Exception e) {
+            stopped = true;
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Breeds and evaluates a child, and puts it in the population.
+     */
+    private void breed() {
+        int index = algorithm.random().nextInt(population.length);
+        GAIndividual child = algorithm.reproduceIndividual(index);
+
+        algorithm.evaluateIndividual(child);
+
+        lock.readLock().lock();
+
+        try {
+            // The worst of a tournament is replaced, unless another worker
+            // replaces it first
+            while (true) {
+                int worst = algorithm.tournamentSelectionIndex(index, population.length);
+                Object worstIndividual = GeneticAlgorithm.POPULATION_SLOT.getAcquire(population, worst);
+
+                for (int n = 0; n < algorithm.tournamentSize - 1; n++) {
+                    int candidate = algorithm.tournamentSelectionIndex(index, population.length);
+                    Object individual = GeneticAlgorithm.POPULATION_SLOT.getAcquire(population, candidate);
+
+                    if (((GAIndividual) worstIndividual).isFitterThan((GAIndividual) individual)) {
+                        worst = candidate;
+                        worstIndividual = individual;
+                    }
+                }
+
+                if (GeneticAlgorithm.POPULATION_SLOT.compareAndSet(population, worst, worstIndividual, child))
+                    return;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void report() throws Exception {
+        lock.writeLock().lock();
+
+        try {
+            // Workers finishing their last events after the run has stopped
+            if (stopped)
+                return;
+
+            summarize();
+            algorithm.prepareSelection();
+            algorithm.print(algorithm.report());
+
+            algorithm.steadyStateEvaluations = evaluations.get();
+            algorithm.checkpoint();
+
+            algorithm.generationCount++;
+
+            if (generations > 0)
+                generations--;
+
+            if (algorithm.terminate() || generations == 0)
+                stopped = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void summarize() throws Exception {
+        algorithm.beginGeneration();
+        algorithm.summarize();
+        algorithm.endGeneration();
+    }
+}
@@ -0,0 +1,69 @@
+package org.spiderland.Psh;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+class BatchInterpreterTest {
+
+    @Test
+    void splitsLanesOnDivergingCondition() {
+        var interpreter = new Interpreter();
+        var inputs = new float[]{-2.0f, 3.0f, -1.0f, 5.0f};
+        var tops = new float[inputs.length];
+        var sizes = new int[inputs.length];
+
+        var executed = interpreter.batchInterpreter().execute(
+                new Program("( float.dup 0.0 float.> exec.if ( 10.0 float.* ) ( float.abs ) )"), inputs, 100, tops, sizes);
+
+        assertThat(executed, is(true));
+        assertThat(tops, is(new float[]{2.0f, 30.0f, 1.0f, 50.0f}));
+        assertThat(sizes, is(new int[]{1, 1, 1, 1}));
+    }
+
+    @Test
+    void matchesScalarExecution() {
+        var interpreter = new Interpreter();
+        interpreter.random = new Random(1);
+        interpreter.setRandomParameters(-5, 5, 1, -5.0f, 5.0f, 0.5f, 40, 100);
+        interpreter.setInstructions(new Program("( float.erc integer.erc true false float.+ float.- float.* float./ "
+                + "float.% float.sin float.abs float.< float.= float.dup float.swap float.rot float.pop float.yank "
+                + "float.shove float.yankdup float.stackdepth float.frominteger float.fromboolean integer.+ integer.- "
+                + "integer.* integer./ integer.% integer.> integer.dup integer.swap integer.shove integer.yank "
+                + "integer.fromfloat integer.fromboolean boolean.and boolean.or boolean.not boolean.dup "
+                + "boolean.frominteger boolean.fromfloat exec.if exec.do*times exec.do*range exec.do*count exec.k "
+                + "exec.s exec.y exec.dup exec.swap exec.yank exec.pop code.quote code.if code.do*times code.dup "
+                + "code.fromfloat code.noop input.index input.inall input.makeinputs1 )"));
+
+        var batch = interpreter.batchInterpreter();
+        var inputs = new float[24];
+
+        for (int l = 0; l < inputs.length; l++)
+            inputs[l] = l % 3 == 0 ? l / 3 - 4 : (l - 12) / 5.0f;
+
+        var tops = new float[inputs.length];
+        var sizes = new int[inputs.length];
+
+        for (int n = 0; n < 300; n++) {
+            var program = interpreter.randomCode(40);
+
+            assertThat(batch.execute(program, inputs, 200, tops, sizes), is(true));
+
+            for (int l = 0; l < inputs.length; l++) {
+                interpreter.clearStacks();
+                interpreter.floatStack().push(inputs[l]);
+                interpreter.inputStack().push(inputs[l]);
+                interpreter.execute(program, 200);
+
+                FloatStack stack = interpreter.floatStack();
+                float top = stack.size() > 0 ? stack.top() : 0;
+
+                assertThat(program + " on " + inputs[l], sizes[l], is(stack.size()));
+                assertThat(program + " on " + inputs[l], Float.floatToIntBits(tops[l]), is(Float.floatToIntBits(top)));
+            }
+        }
+    }
+}
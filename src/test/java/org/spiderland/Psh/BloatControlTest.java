@@ -0,0 +1,55 @@
+package org.spiderland.Psh;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BloatControlTest {
+
+    @Test
+    void sizesProgramsForTournamentsWithLexicographicParsimony() throws Exception {
+        var parsimony = BloatControl.create("lexicographic-parsimony", 3, 0);
+        var tarpeian = BloatControl.create("tarpeian", 3, 0);
+        var small = individual("( 1 )", 1f);
+        var large = individual("( 1 ( 2 3 ) )", 1f);
+
+        assertThat(parsimony.selectionSize(small) < parsimony.selectionSize(large), is(true));
+        assertThat(tarpeian.selectionSize(small), is(0));
+        assertThat(tarpeian.selectionSize(large), is(0));
+    }
+
+    @Test
+    void givesTheWorstFitnessToLargeUnevaluatedIndividuals() throws Exception {
+        var bloatControl = BloatControl.create("tarpeian", 1, 0);
+        var small = individual("( 1 )", Float.NaN);
+        var large = individual("( 1 ( 2 3 ) )", Float.NaN);
+        var evaluated = individual("( 1 ( 2 3 ) )", 0.5f);
+
+        var remaining = bloatControl.penalize(new GAIndividual[]{small, large, evaluated}, new Random(1), 4);
+
+        assertThat(remaining.length, is(2));
+        assertThat(remaining[0] == small && remaining[1] == evaluated, is(true));
+        assertThat(large.getFitness(), is(Float.MAX_VALUE));
+        assertThat(large.getErrorArray().length, is(4));
+    }
+
+    @Test
+    void needsKnownMethods() throws Exception {
+        assertThat(BloatControl.create("none", 3, 0), is(nullValue()));
+        assertThrows(Exception.class, () -> BloatControl.create("tarpeian,smaller", 3, 0));
+    }
+
+    private static PushGPIndividual individual(String inProgram, float inFitness) {
+        var individual = new PushGPIndividual(new Program(inProgram));
+
+        if (!Float.isNaN(inFitness))
+            individual.setFitness(inFitness);
+
+        return individual;
+    }
+}
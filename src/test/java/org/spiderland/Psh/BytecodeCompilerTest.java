@@ -0,0 +1,57 @@
+package org.spiderland.Psh;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.notNullValue;
+import static org.hamcrest.core.IsNull.nullValue;
+
+class BytecodeCompilerTest {
+
+    @Test
+    void compilesOnlyStraightLinePrograms() {
+        var interpreter = new Interpreter();
+
+        assertThat(BytecodeCompiler.compile(new Program("( 1 ( 2.5 x float.+ ) integer.dup true )"), interpreter),
+                is(notNullValue()));
+        assertThat(BytecodeCompiler.compile(new Program("( 1 ( exec.dup float.+ ) )"), interpreter), is(nullValue()));
+        assertThat(BytecodeCompiler.compile(new Program("( code.quote 1 )"), interpreter), is(nullValue()));
+    }
+
+    @Test
+    void compiledProgramsMatchInterpretedPrograms() {
+        var interpreted = new Interpreter();
+        var compiled = new Interpreter();
+        var instructions = new Program("( float.erc integer.erc true false float.+ float.- float.* float./ "
+                + "float.sin float.dup float.swap float.rot float.yank float.stackdepth float.frominteger integer.+ "
+                + "integer.* integer.% integer.> integer.dup integer.shove integer.fromfloat boolean.and boolean.not "
+                + "boolean.frominteger name.dup input.index input.inall )");
+
+        interpreted.random = new Random(1);
+        interpreted.setRandomParameters(-100000, 100000, 1, -5.0f, 5.0f, 0.5f, 40, 100);
+        interpreted.setInstructions(instructions);
+        compiled.setInstructions(instructions);
+        compiled.setCompileThreshold(1);
+
+        for (int n = 0; n < 200; n++) {
+            var program = new Program("( x " + interpreted.randomCode(60) + " )");
+            var limit = n % 4 == 0 ? program.programSize() - 1 : 100;
+
+            for (var interpreter : new Interpreter[]{interpreted, compiled}) {
+                interpreter.clearStacks();
+                interpreter.floatStack().push(n);
+                interpreter.inputStack().push((float) n);
+            }
+
+            assertThat(compiled.execute(program, limit), is(interpreted.execute(program, limit)));
+            assertThat(compiled.intStack().toString(), is(interpreted.intStack().toString()));
+            assertThat(compiled.floatStack().toString(), is(interpreted.floatStack().toString()));
+            assertThat(compiled.boolStack().toString(), is(interpreted.boolStack().toString()));
+            assertThat(compiled.nameStack().toString(), is(interpreted.nameStack().toString()));
+            assertThat(compiled.codeStack().toString(), is(interpreted.codeStack().toString()));
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package org.spiderland.Psh;
+
+import org.junit.jupiter.api.Test;
+import org.spiderland.Psh.ProbClass.CartCentering;
+
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+class EvaluationMasterTest {
+
+    @Test
+    void evaluatesOnWorkersAsLocally() throws Exception {
+        var master = master(2);
+        var workers = List.of(worker(master), worker(master));
+        var threads = new ArrayList<Thread>();
+
+        for (var worker : workers) {
+            var thread = new Thread(() -> {
+                try {
+                    worker.run();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        assertThat(master.run(), is(false));
+
+        for (var thread : threads) {
+            thread.join(10000);
+            assertThat(thread.isAlive(), is(false));
+        }
+
+        var evaluated = 0;
+        for (var worker : workers) {
+            evaluated += worker.remoteEvaluator.evaluated();
+        }
+        assertThat(evaluated, is(40 * 4));
+        assertThat(master.evaluationMaster.lost(), is(0));
+
+        var best = master.populations[master.currentPopulation][master.bestIndividual].clone();
+        master.evaluateIndividual(best);
+        assertThat(best.getFitness(), is(master.bestMeanFitness));
+    }
+
+    @Test
+    void retriesTheBatchesOfLostWorkers() throws Exception {
+        var master = master(2);
+        var worker = worker(master);
+        var thread = new Thread(() -> {
+            try {
+                worker.run();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        thread.start();
+
+        // A worker which disconnects on receiving its first batch
+        var failing = new Thread(() -> {
+            try (var socket = new Socket("127.0.0.1", master.evaluationMaster.port())) {
+                socket.getInputStream().read();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        failing.start();
+
+        var population = master.populations[master.currentPopulation];
+        master.evaluatePopulation(population);
+
+        assertThat(master.evaluationMaster.lost(), is(1));
+        assertThat(worker.remoteEvaluator.evaluated(), is(population.length));
+
+        for (var individual : population) {
+            var local = individual.clone();
+            master.evaluateIndividual(local);
+            assertThat(individual.getFitness(), is(local.getFitness()));
+        }
+
+        master.evaluationMaster.close();
+        thread.join(10000);
+        assertThat(thread.isAlive(), is(false));
+    }
+
+    @Test
+    void retriesTheBatchesOfStalledWorkers() throws Exception {
+        var master = master(2, "1");
+        var worker = worker(master);
+        var thread = new Thread(() -> {
+            try {
+                worker.run();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        thread.start();
+
+        // A worker which reads its batches but never answers, until the
+        // master disconnects it
+        var stalled = new Thread(() -> {
+            try (var socket = new Socket("127.0.0.1", master.evaluationMaster.port())) {
+                while (socket.getInputStream().read() != -1) {
+                }
+            } catch (Exception e) {
+                // Disconnected by the master
+            }
+        });
+        stalled.start();
+
+        var population = master.populations[master.currentPopulation];
+        master.evaluatePopulation(population);
+
+        assertThat(master.evaluationMaster.lost(), is(1));
+        assertThat(worker.remoteEvaluator.evaluated(), is(population.length));
+
+        stalled.join(10000);
+        assertThat(stalled.isAlive(), is(false));
+
+        for (var individual : population) {
+            var local = individual.clone();
+            master.evaluateIndividual(local);
+            assertThat(individual.getFitness(), is(local.getFitness()));
+        }
+
+        master.evaluationMaster.close();
+        thread.join(10000);
+        assertThat(thread.isAlive(), is(false));
+    }
+
+    private static CartCentering master(int inWorkers) throws Exception {
+        return master(inWorkers, null);
+    }
+
+    private static CartCentering master(int inWorkers, String inTimeout) throws Exception {
+        var params = params();
+        params.put("evaluation-server-port", "0");
+        params.put("evaluation-workers", String.valueOf(inWorkers));
+        params.put("evaluation-batch-size", "3");
+        params.put("evaluation-window", "1");
+        if (inTimeout != null) {
+            params.put("evaluation-timeout", inTimeout);
+        }
+        var master = (CartCentering) GeneticAlgorithm.gaWithParameters(params);
+        master.outputStream = null;
+        return master;
+    }
+
+    private static CartCentering worker(CartCentering inMaster) throws Exception {
+        var params = params();
+        params.put("evaluation-server", "127.0.0.1:" + inMaster.evaluationMaster.port());
+        var worker = (CartCentering) GeneticAlgorithm.gaWithParameters(params);
+        worker.outputStream = null;
+        return worker;
+    }
+
+    private static HashMap<String, String> params() throws Exception {
+        var params = Params.readFromFile(TestUtil.getFileFromResource("CartCenter.pushgp"));
+        params.remove("checkpoint-prefix");
+        return params;
+    }
+}
@@ -0,0 +1,93 @@
+package org.spiderland.Psh;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+class ExecStackTest {
+
+    @Test
+    void pushedProgramIsPoppedInOrder() {
+        var instanceUnderTest = new ExecStack();
+        instanceUnderTest.push("x");
+        instanceUnderTest.pushAllReverse(new Program("( 1 2.0 y )").compile());
+
+        assertThat(instanceUnderTest.size(), is(4));
+        assertThat(instanceUnderTest.topOpcode(), is(Opcodes.INTEGER));
+        assertThat(instanceUnderTest.pop(), is(1));
+        assertThat(instanceUnderTest.topOpcode(), is(Opcodes.FLOAT));
+        assertThat(instanceUnderTest.pop(), is(2.0f));
+        assertThat(instanceUnderTest.topOpcode(), is(Opcodes.of("y")));
+        assertThat(instanceUnderTest.pop(), is("y"));
+        assertThat(instanceUnderTest.pop(), is("x"));
+        assertThat(instanceUnderTest.size(), is(0));
+    }
+
+    @Test
+    void yankReachesIntoPushedProgram() {
+        var instanceUnderTest = new ExecStack();
+        instanceUnderTest.pushAllReverse(new Program("( a b c d )").compile());
+        instanceUnderTest.yank(2);
+
+        assertThat(instanceUnderTest.toString(), is("[c a b d]"));
+    }
+
+    @Test
+    void behavesLikeObjectStack() {
+        var random = new Random(1);
+        var instanceUnderTest = new ExecStack();
+        var expected = new ObjectStack();
+        var programs = new Program[]{
+                new Program("( a )"), new Program("( a b )"), new Program("( 1 ( 2 3 ) b 4.0 )"), new Program("( )")};
+
+        for (int n = 0; n < 2000; n++) {
+            int index = random.nextInt(6) - 1;
+
+            switch (random.nextInt(10)) {
+                case 0 -> {
+                    instanceUnderTest.push(n);
+                    expected.push(n);
+                }
+                case 1 -> {
+                    var program = programs[random.nextInt(programs.length)];
+                    instanceUnderTest.pushAllReverse(program.compile());
+                    program.pushAllReverse(expected);
+                }
+                case 2 -> assertThat(instanceUnderTest.pop(), is(expected.pop()));
+                case 3 -> {
+                    instanceUnderTest.dup();
+                    expected.dup();
+                }
+                case 4 -> {
+                    instanceUnderTest.swap();
+                    expected.swap();
+                }
+                case 5 -> {
+                    instanceUnderTest.rot();
+                    expected.rot();
+                }
+                case 6 -> {
+                    instanceUnderTest.shove(index);
+                    expected.shove(index);
+                }
+                case 7 -> {
+                    instanceUnderTest.yank(index);
+                    expected.yank(index);
+                }
+                case 8 -> {
+                    instanceUnderTest.yankdup(index);
+                    expected.yankdup(index);
+                }
+                default -> assertThat(instanceUnderTest.top(), is(expected.top()));
+            }
+
+            assertThat(instanceUnderTest.size(), is(expected.size()));
+            assertThat(instanceUnderTest.topOpcode(), is(Opcodes.opcodeOf(expected.top())));
+        }
+
+        assertThat(instanceUnderTest.toString(), is(expected.toString()));
+    }
+}
@@ -3,14 +3,25 @@ package org.spiderland.Psh;
 import org.junit.jupiter.api.Test;
 import org.spiderland.Psh.ProbClass.CartCentering;
 
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 public class GeneticAlgorithmTest {
 
     @Test
     public void shouldLoadGeneticAlgorithmStateFromCheckpoint() throws Exception {
-        final CartCentering geneticAlgorithm = (CartCentering) GeneticAlgorithm.gaWithParameters(Params.readFromFile(TestUtil.getFileFromResource("CartCenter.pushgp")));
+        final CartCentering geneticAlgorithm = cartCentering("checkpoint-prefix", "target/CartCenter");
         geneticAlgorithm.run(1);
         final CartCentering instanceUnderTest = (CartCentering) GeneticAlgorithm.gaWithCheckpoint("target/CartCenter0.gz");
         assertThat(instanceUnderTest.maxRandomCodeSize, is(geneticAlgorithm.maxRandomCodeSize));
@@ -48,4 +59,462 @@ public class GeneticAlgorithmTest {
         assertThat(instanceUnderTest.currentPopulation, is(0));
         assertThat(instanceUnderTest.generationCount, is(0));
     }
+
+    @Test
+    public void shouldLoadGeneticAlgorithmStateFromDeltaCheckpoint() throws Exception {
+        final File directory = Files.createTempDirectory("checkpoints").toFile();
+        final CartCentering geneticAlgorithm = cartCentering("checkpoint-prefix",
+                new File(directory, "CartCenter").getPath(), "full-checkpoint-interval", "3", "checkpoint-retention", "1",
+                "population-size", "20");
+
+        geneticAlgorithm.run(2);
+        final CartCentering instanceUnderTest = (CartCentering) GeneticAlgorithm.gaWithCheckpoint(
+                new File(directory, "CartCenter1.gz").getPath());
+
+        assertThat(instanceUnderTest.populations, is(geneticAlgorithm.populations));
+        assertThat(instanceUnderTest.bestErrors, is(geneticAlgorithm.bestErrors));
+        assertThat(instanceUnderTest.sizeTrajectory, is(geneticAlgorithm.sizeTrajectory));
+        assertThat(instanceUnderTest.checkpoint.report.toString(), is(geneticAlgorithm.checkpoint.report.toString()));
+        assertThat(instanceUnderTest.checkpoint.checkpointNumber, is(geneticAlgorithm.checkpoint.checkpointNumber));
+        assertThat(instanceUnderTest.currentPopulation, is(1 - geneticAlgorithm.currentPopulation));
+        assertThat(instanceUnderTest.generationCount, is(1));
+
+        geneticAlgorithm.run(2);
+
+        assertThat(new File(directory, "CartCenter0.gz").exists(), is(false));
+        assertThat(new File(directory, "CartCenter2.gz").exists(), is(false));
+        assertThat(new File(directory, "CartCenter3.gz").exists(), is(true));
+    }
+
+    @Test
+    public void shouldEvaluateInParallelWithSameResultsAsSequentially() throws Exception {
+        final CartCentering geneticAlgorithm = cartCentering("evaluation-threads", "4");
+
+        geneticAlgorithm.beginGeneration();
+        geneticAlgorithm.evaluate();
+        final float[] parallelFitness = fitnessOf(geneticAlgorithm.populations[0]);
+        final int parallelBestIndividual = geneticAlgorithm.bestIndividual;
+        final float parallelBestMeanFitness = geneticAlgorithm.bestMeanFitness;
+        final float parallelAverageSize = geneticAlgorithm.averageSize;
+        final long parallelExecutions = geneticAlgorithm.interpreter.getEvaluationExecutions();
+
+        geneticAlgorithm.evaluationThreads = 1;
+        geneticAlgorithm.beginGeneration();
+        geneticAlgorithm.evaluate();
+
+        assertThat(fitnessOf(geneticAlgorithm.populations[0]), is(parallelFitness));
+        assertThat(geneticAlgorithm.bestIndividual, is(parallelBestIndividual));
+        assertThat(geneticAlgorithm.bestMeanFitness, is(parallelBestMeanFitness));
+        assertThat(geneticAlgorithm.averageSize, is(parallelAverageSize));
+        assertThat(geneticAlgorithm.interpreter.getEvaluationExecutions(), is(2 * parallelExecutions));
+    }
+
+    @Test
+    public void shouldReuseCachedFitnessOfEvaluatedPrograms() throws Exception {
+        final CartCentering geneticAlgorithm = cartCentering("fitness-cache-size", "1000");
+
+        geneticAlgorithm.beginGeneration();
+        geneticAlgorithm.evaluate();
+        final float[] fitness = fitnessOf(geneticAlgorithm.populations[0]);
+        final long executions = geneticAlgorithm.interpreter.getEvaluationExecutions();
+        final long hits = geneticAlgorithm.fitnessCache.getHits();
+
+        geneticAlgorithm.beginGeneration();
+        geneticAlgorithm.evaluate();
+
+        assertThat(fitnessOf(geneticAlgorithm.populations[0]), is(fitness));
+        assertThat(geneticAlgorithm.interpreter.getEvaluationExecutions(), is(executions));
+        assertThat(geneticAlgorithm.fitnessCache.getHits(), is(hits + fitness.length));
+    }
+
+    @Test
+    public void shouldReproduceInParallelWithSameResultsAsSequentially() throws Exception {
+        final CartCentering sequential = cartCentering("random-seed", "42");
+        final CartCentering parallel = cartCentering("random-seed", "42", "evaluation-threads", "4");
+
+        for (final CartCentering geneticAlgorithm : new CartCentering[]{sequential, parallel}) {
+            geneticAlgorithm.beginGeneration();
+            geneticAlgorithm.evaluate();
+            geneticAlgorithm.reproduce();
+        }
+
+        assertThat(programsOf(parallel.populations[0]), is(programsOf(sequential.populations[0])));
+        assertThat(programsOf(parallel.populations[1]), is(programsOf(sequential.populations[1])));
+    }
+
+    @Test
+    public void shouldDrawRandomInstructionsTheSameInParallelAsSequentially() throws Exception {
+        for (final String racingCases : new String[]{"0", "4"}) {
+            final String instructions = "(registered.input input.makeinputs2 float.+ float.- float.* float.> float.<"
+                    + " float.rand float.erc)";
+            final CartCentering sequential = cartCentering("random-seed", "42", "racing-cases", racingCases,
+                    "instruction-set", instructions, "population-size", "20");
+            final CartCentering parallel = cartCentering("random-seed", "42", "racing-cases", racingCases,
+                    "instruction-set", instructions, "population-size", "20", "evaluation-threads", "4");
+
+            for (final CartCentering geneticAlgorithm : new CartCentering[]{sequential, parallel}) {
+                geneticAlgorithm.run(2);
+            }
+
+            assertThat(programsOf(parallel.populations[0]), is(programsOf(sequential.populations[0])));
+            assertThat(fitnessOf(parallel.populations[0]), is(fitnessOf(sequential.populations[0])));
+            assertThat(programsOf(parallel.populations[1]), is(programsOf(sequential.populations[1])));
+            assertThat(fitnessOf(parallel.populations[1]), is(fitnessOf(sequential.populations[1])));
+        }
+    }
+
+    @Test
+    public void shouldShutDownTheEvaluationPoolWhenARunReturns() throws Exception {
+        final CartCentering geneticAlgorithm = cartCentering("evaluation-threads", "4", "population-size", "20");
+
+        final ForkJoinPool pool = geneticAlgorithm.getEvaluationPool();
+        geneticAlgorithm.run(1);
+
+        assertThat(pool.isShutdown(), is(true));
+        assertThat(geneticAlgorithm.evaluationPool == null, is(true));
+
+        final long executions = geneticAlgorithm.interpreter.getEvaluationExecutions();
+        geneticAlgorithm.run(1);
+
+        assertThat(geneticAlgorithm.generationCount, is(2));
+        assertThat(geneticAlgorithm.interpreter.getEvaluationExecutions() > executions, is(true));
+    }
+
+    @Test
+    public void shouldRecycleTheIndividualsOfTheReplacedPopulation() throws Exception {
+        final CartCentering geneticAlgorithm = cartCentering("population-size", "20");
+
+        geneticAlgorithm.run(1);
+        final GAIndividual[] reproduced = geneticAlgorithm.populations[1].clone();
+        geneticAlgorithm.run(2);
+
+        int recycled = 0;
+        for (int i = 0; i < reproduced.length; i++) {
+            final GAIndividual individual = geneticAlgorithm.populations[1][i];
+            if (individual == reproduced[i]) {
+                recycled++;
+                assertThat(individual.isFitnessSet(), is(false));
+            }
+            for (final GAIndividual other : geneticAlgorithm.populations[0]) {
+                assertThat(individual == other, is(false));
+            }
+        }
+        assertThat(recycled > 0, is(true));
+    }
+
+    @Test
+    public void shouldKeepChildrenWithinTheDynamicSizeLimit() throws Exception {
+        final CartCentering geneticAlgorithm = cartCentering("bloat-control",
+                "lexicographic-parsimony, tarpeian, dynamic-limit", "dynamic-limit", "20");
+
+        geneticAlgorithm.run(2);
+
+        int largest = 0;
+        for (final GAIndividual individual : geneticAlgorithm.populations[geneticAlgorithm.currentPopulation]) {
+            largest = Math.max(largest, ((PushGPIndividual) individual).programSize());
+        }
+        assertThat(largest <= ((PushGP) geneticAlgorithm).bloatControl.sizeLimit(), is(true));
+        assertThat(geneticAlgorithm.sizeTrajectory.size(), is(2));
+        assertThat(geneticAlgorithm.stepsTrajectory.get(0) > 0, is(true));
+    }
+
+    @Test
+    public void shouldSimplifyInParallelWithSameResultsAsSequentially() throws Exception {
+        final CartCentering sequential = cartCentering("random-seed", "42");
+        final CartCentering parallel = cartCentering("random-seed", "42", "evaluation-threads", "4");
+
+        final PushGPIndividual[] simplified = new PushGPIndividual[2];
+        PushGPIndividual best = null;
+        int n = 0;
+        for (final CartCentering geneticAlgorithm : new CartCentering[]{sequential, parallel}) {
+            geneticAlgorithm.beginGeneration();
+            geneticAlgorithm.evaluate();
+            best = (PushGPIndividual) geneticAlgorithm.populations[0][geneticAlgorithm.bestIndividual];
+            simplified[n++] = geneticAlgorithm.autosimplify(best, 100);
+        }
+
+        assertThat(simplified[1].getProgram().toString(), is(simplified[0].getProgram().toString()));
+        assertThat(simplified[1].getFitness(), is(simplified[0].getFitness()));
+        assertThat(simplified[1].getErrors(), is(simplified[0].getErrors()));
+        assertThat(simplified[1].getFitness() <= best.getFitness(), is(true));
+        assertThat(simplified[1].programSize() <= best.programSize(), is(true));
+
+        final PushGPIndividual evaluated = (PushGPIndividual) simplified[1].clone();
+        parallel.evaluateIndividual(evaluated);
+        assertThat(evaluated.getFitness(), is(simplified[1].getFitness()));
+    }
+
+    @Test
+    public void shouldMakeReportsInTheBackgroundInGenerationOrder() throws Exception {
+        final CartCentering foreground = cartCentering("random-seed", "42", "max-generations", "2",
+                "final-simplifications", "100");
+        final CartCentering background = cartCentering("random-seed", "42", "max-generations", "2",
+                "final-simplifications", "100", "report-mode", "background");
+
+        for (final CartCentering geneticAlgorithm : new CartCentering[]{foreground, background}) {
+            geneticAlgorithm.run();
+        }
+
+        assertThat(programsOf(background.populations[background.currentPopulation]),
+                is(programsOf(foreground.populations[foreground.currentPopulation])));
+        assertThat(reportedGenerationsOf(background.checkpoint.report.toString()),
+                is(reportedGenerationsOf(foreground.checkpoint.report.toString())));
+        assertThat(background.sizeTrajectory, is(foreground.sizeTrajectory));
+    }
+
+    @Test
+    public void shouldCheckpointWithoutWaitingForBackgroundReports() throws Exception {
+        final File directory = Files.createTempDirectory("checkpoints").toFile();
+        final HeldReportsCartCentering geneticAlgorithm = (HeldReportsCartCentering) cartCentering("problem-class",
+                HeldReportsCartCentering.class.getName(), "checkpoint-prefix", new File(directory, "CartCenter").getPath(),
+                "full-checkpoint-interval", "2", "report-mode", "background");
+
+        final Thread run = new Thread(() -> {
+            try {
+                geneticAlgorithm.run(2);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        run.start();
+
+        // The first generation is checkpointed while its report is held
+        final long deadline = System.currentTimeMillis() + 60_000;
+        while (geneticAlgorithm.checkpoint.checkpointNumber < 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(geneticAlgorithm.checkpoint.checkpointNumber, is(1));
+        assertThat(geneticAlgorithm.checkpoint.report.toString().contains("Report for Generation"), is(false));
+
+        geneticAlgorithm.reportsHeld.countDown();
+        run.join();
+
+        final CartCentering instanceUnderTest = (CartCentering) GeneticAlgorithm.gaWithCheckpoint(
+                new File(directory, "CartCenter1.gz").getPath());
+        assertThat(instanceUnderTest.checkpoint.report.toString(), is(geneticAlgorithm.checkpoint.report.toString()));
+        assertThat(reportedGenerationsOf(instanceUnderTest.checkpoint.report.toString()).isEmpty(), is(false));
+    }
+
+    @Test
+    public void shouldWriteTheWholeRunToTheRunLog() throws Exception {
+        final File directory = Files.createTempDirectory("run-log").toFile();
+        final CartCentering geneticAlgorithm = cartCentering("checkpoint-prefix",
+                new File(directory, "CartCenter").getPath(), "run-log", new File(directory, "run.log").getPath(),
+                "report-verbosity", "summary", "population-size", "20", "final-simplifications", "100");
+
+        geneticAlgorithm.run();
+        assertThat(geneticAlgorithm.runLog == null, is(true));
+
+        final String log = Files.readString(new File(directory, "run.log").toPath());
+        assertThat(log.contains("Population Size: 20"), is(true));
+        assertThat(log.contains("Report for Generation 3"), is(true));
+        assertThat(log.contains(">> Best Program: "), is(true));
+        assertThat(log.contains("Errors: ("), is(false));
+        assertThat(geneticAlgorithm.checkpoint.report.toString().contains("Report for Generation 0"), is(false));
+    }
+
+    @Test
+    public void shouldRunSteadyStateReportingEveryInterval() throws Exception {
+        final CartCentering first = cartCentering("random-seed", "42", "reproduction-mode", "steady-state",
+                "report-interval", "20", "report-simplifications", "10", "final-simplifications", "100");
+        final CartCentering second = cartCentering("random-seed", "42", "reproduction-mode", "steady-state",
+                "report-interval", "20", "report-simplifications", "10", "final-simplifications", "100");
+
+        for (final CartCentering geneticAlgorithm : new CartCentering[]{first, second}) {
+            assertThat(geneticAlgorithm.run(), is(false));
+            assertThat(geneticAlgorithm.generationCount, is(4));
+            assertThat(geneticAlgorithm.steadyStateEvaluations, is(60L));
+            assertThat(geneticAlgorithm.checkpoint.report.toString().contains("Report for Generation 3"), is(true));
+        }
+
+        assertThat(programsOf(second.populations[second.currentPopulation]),
+                is(programsOf(first.populations[first.currentPopulation])));
+    }
+
+    @Test
+    public void shouldRunSteadyStateOnEvaluationThreads() throws Exception {
+        final CartCentering geneticAlgorithm = cartCentering("reproduction-mode", "steady-state",
+                "evaluation-threads", "4", "population-size", "20", "final-simplifications", "100");
+
+        assertThat(geneticAlgorithm.run(), is(false));
+        assertThat(geneticAlgorithm.generationCount, is(4));
+        assertThat(geneticAlgorithm.steadyStateEvaluations >= 3 * 20, is(true));
+
+        final GAIndividual best = geneticAlgorithm.populations[geneticAlgorithm.currentPopulation][geneticAlgorithm.bestIndividual].clone();
+        geneticAlgorithm.evaluateIndividual(best);
+        assertThat(best.getFitness(), is(geneticAlgorithm.bestMeanFitness));
+    }
+
+    @Test
+    public void shouldEvaluateSamplesOfTheTestCasesWithDownsampledLexicase() throws Exception {
+        final CartCentering geneticAlgorithm = cartCentering("selection-mode", "downsampled-lexicase",
+                "downsample-rate", "0.25", "max-generations", "2", "final-simplifications", "100");
+
+        geneticAlgorithm.beginGeneration();
+        geneticAlgorithm.evaluate();
+        assertThat(geneticAlgorithm.bestErrors.size(), is(5));
+
+        assertThat(geneticAlgorithm.run(), is(false));
+        assertThat(geneticAlgorithm.bestErrors.size(), is(20));
+    }
+
+    @Test
+    public void shouldRejectDownsampledLexicaseInSteadyStateMode() throws Exception {
+        assertThrows(Exception.class, () -> cartCentering("selection-mode", "downsampled-lexicase",
+                "reproduction-mode", "steady-state"));
+    }
+
+    @Test
+    public void shouldRunIslandsAndReportTheBestIsland() throws Exception {
+        final CartCentering geneticAlgorithm = cartCentering("islands", "3", "migration-interval", "1",
+                "migration-size", "2", "max-generations", "2", "final-simplifications", "100");
+
+        assertThat(geneticAlgorithm.islandModel.size(), is(3));
+        assertThat(geneticAlgorithm.islandModel.island(0).populations[0].length, is(14));
+
+        assertThat(geneticAlgorithm.run(), is(false));
+
+        float bestFitness = Float.MAX_VALUE;
+        for (int n = 0; n < 3; n++) {
+            bestFitness = Math.min(bestFitness, geneticAlgorithm.islandModel.island(n).bestMeanFitness);
+        }
+        assertThat(geneticAlgorithm.bestMeanFitness, is(bestFitness));
+        assertThat(geneticAlgorithm.populations[geneticAlgorithm.currentPopulation][geneticAlgorithm.bestIndividual]
+                .getFitness(), is(bestFitness));
+        assertThat(geneticAlgorithm.checkpoint.report.toString().contains(">> Island 2: Best Fitness"), is(true));
+    }
+
+    @Test
+    public void shouldKeepTheFitnessOfMigrants() throws Exception {
+        final CartCentering geneticAlgorithm = cartCentering("islands", "2", "migration-interval", "1",
+                "migration-size", "2");
+
+        final GeneticAlgorithm sender = geneticAlgorithm.islandModel.island(0);
+        final GeneticAlgorithm receiver = geneticAlgorithm.islandModel.island(1);
+        sender.evaluate();
+        receiver.evaluate();
+
+        final GAIndividual[] senderPopulation = sender.populations[sender.currentPopulation];
+        final GAIndividual best = senderPopulation[IslandModel.fitnessOrder(senderPopulation)[0]];
+        geneticAlgorithm.islandModel.migrate(sender);
+        geneticAlgorithm.islandModel.migrate(receiver);
+
+        GAIndividual immigrant = null;
+        for (final GAIndividual individual : receiver.populations[receiver.currentPopulation]) {
+            assertThat(individual.isFitnessSet(), is(true));
+            if (individual.getErrorArray() == best.getErrorArray()) {
+                immigrant = individual;
+            }
+        }
+        assertThat(immigrant != null && immigrant != best, is(true));
+        assertThat(immigrant.getFitness(), is(best.getFitness()));
+        assertThat(immigrant.getFitnessCases(), is(best.getFitnessCases()));
+    }
+
+    @Test
+    public void shouldRunIslandsInOtherProcessesAndReportTheBestIsland() throws Exception {
+        final CartCentering geneticAlgorithm = cartCentering("islands", "2", "migration-interval", "1",
+                "migration-size", "2", "max-generations", "2", "final-simplifications", "100",
+                "island-server-port", "0");
+
+        final HashMap<String, String> params = cartCenteringParams("islands", "2", "migration-interval", "1",
+                "migration-size", "2", "max-generations", "2", "final-simplifications", "100",
+                "island-server", "127.0.0.1:" + geneticAlgorithm.islandServer.port(), "population-size", "20");
+        final File islandParams = File.createTempFile("CartCenterIsland", ".pushgp");
+        islandParams.deleteOnExit();
+        try (PrintWriter writer = new PrintWriter(islandParams)) {
+            params.forEach((key, value) -> writer.println(key + " = " + value));
+        }
+
+        final List<Process> islands = new ArrayList<>();
+        for (int n = 0; n < 2; n++) {
+            islands.add(new ProcessBuilder(System.getProperty("java.home") + File.separator + "bin" + File.separator
+                    + "java", "-Xmx256m", "-cp", System.getProperty("java.class.path"), "Main",
+                    islandParams.getPath())
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start());
+        }
+
+        try {
+            assertThat(geneticAlgorithm.run(), is(false));
+        } finally {
+            for (final Process island : islands) {
+                island.waitFor();
+            }
+        }
+
+        final String report = geneticAlgorithm.islandServer.report();
+        assertThat(report.contains(">> Island 0: Best Fitness"), is(true));
+        assertThat(report.contains(">> Island 1: Best Fitness"), is(true));
+        assertThat(geneticAlgorithm.generationCount, is(2));
+        assertThat(geneticAlgorithm.populations[geneticAlgorithm.currentPopulation][geneticAlgorithm.bestIndividual]
+                .getFitness(), is(geneticAlgorithm.bestMeanFitness));
+    }
+
+    public static class HeldReportsCartCentering extends CartCentering {
+        private static final long serialVersionUID = 1L;
+
+        transient CountDownLatch reportsHeld = new CountDownLatch(1);
+
+        @Override
+        protected Callable<String> reportTask() {
+            final Callable<String> task = super.reportTask();
+            return () -> {
+                reportsHeld.await();
+                return task.call();
+            };
+        }
+    }
+
+    /**
+     * Returns the CartCentering parameters without a checkpoint-prefix,
+     * changed by the given pairs of parameter names and values.
+     */
+    private static HashMap<String, String> cartCenteringParams(final String... overrides) throws Exception {
+        final HashMap<String, String> params = Params.readFromFile(TestUtil.getFileFromResource("CartCenter.pushgp"));
+        params.remove("checkpoint-prefix");
+        for (int i = 0; i < overrides.length; i += 2) {
+            params.put(overrides[i], overrides[i + 1]);
+        }
+        return params;
+    }
+
+    /**
+     * Creates a CartCentering run of cartCenteringParams, which writes no
+     * output.
+     */
+    private static CartCentering cartCentering(final String... overrides) throws Exception {
+        final CartCentering geneticAlgorithm =
+                (CartCentering) GeneticAlgorithm.gaWithParameters(cartCenteringParams(overrides));
+        geneticAlgorithm.outputStream = null;
+        return geneticAlgorithm;
+    }
+
+    private static String[] programsOf(final GAIndividual[] population) {
+        final String[] programs = new String[population.length];
+        for (int i = 0; i < population.length; i++) {
+            programs[i] = ((PushGPIndividual) population[i]).getProgram().toString();
+        }
+        return programs;
+    }
+
+    private static List<String> reportedGenerationsOf(final String report) {
+        final List<String> lines = new ArrayList<>();
+        for (final String line : report.split("\n")) {
+            if (line.contains("Report for Generation") || line.startsWith(";; Best Program Fitness")
+                    || line.contains(" at Generation ")) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    private static float[] fitnessOf(final GAIndividual[] population) {
+        final float[] fitness = new float[population.length];
+        for (int i = 0; i < population.length; i++) {
+            fitness[i] = population[i].getFitness();
+        }
+        return fitness;
+    }
 }
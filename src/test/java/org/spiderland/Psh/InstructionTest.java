@@ -6,6 +6,7 @@ import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class InstructionTest {
@@ -607,4 +608,58 @@ public class InstructionTest {
         assertEquals(floatStack, interpreter.floatStack());
         assertEquals(booleanStack, interpreter.boolStack());
     }
+
+    @Test
+    public void testExecDoTimesLeavesProgramUnchanged() {
+        Program p = new Program("( 2 exec.do*times ( 1.0 ) )");
+        Program original = new Program(p);
+        interpreter.execute(p);
+
+        floatStack.push(1.0f);
+        floatStack.push(1.0f);
+
+        assertEquals(floatStack, interpreter.floatStack());
+        assertEquals(original, p);
+    }
+
+    @Test
+    public void testExecuteModifiedProgram() {
+        Program p = new Program("( 1 ( 2 ) )");
+        interpreter.execute(p);
+        interpreter.clearStacks();
+
+        p.replaceSubtree(0, 3);
+        p.replaceSubtree(2, 4);
+        interpreter.execute(p);
+
+        intStack.push(3);
+        intStack.push(4);
+
+        assertEquals(intStack, interpreter.intStack());
+    }
+
+    @Test
+    public void testExecS() {
+        // The limit of exec.s is 0, so it pushes its arguments back
+        interpreter.maxPointsInProgram = 100;
+        Program p = new Program("( exec.s 5 6 7 )");
+        interpreter.execute(p);
+
+        intStack.push(5);
+        intStack.push(6);
+        intStack.push(7);
+
+        assertEquals(intStack, interpreter.intStack());
+    }
+
+    @Test
+    public void testInstructionsAreSharedBetweenInterpreters() {
+        Interpreter other = new Interpreter();
+        other.execute(new Program("( 3 integer.dup integer.+ )"));
+        interpreter.execute(new Program("( 1 integer.dup integer.* )"));
+
+        assertSame(other.instructions.get("integer.dup"), interpreter.instructions.get("integer.dup"));
+        assertEquals(6, other.intStack().top());
+        assertEquals(1, interpreter.intStack().top());
+    }
 }
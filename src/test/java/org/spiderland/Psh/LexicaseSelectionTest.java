@@ -0,0 +1,66 @@
+package org.spiderland.Psh;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+
+class LexicaseSelectionTest {
+
+    @Test
+    void selectsOnlyIndividualsWhichAreBestOnSomeCase() {
+        var population = population(List.of(0f, 5f), List.of(-5f, 0f), List.of(1f, 1f));
+        var counts = counts(LexicaseSelection.create(population, false), population);
+
+        assertThat(counts[0] > 0, is(true));
+        assertThat(counts[1] > 0, is(true));
+        assertThat(counts[2], is(0));
+    }
+
+    @Test
+    void epsilonLexicaseKeepsIndividualsWithinTheMedianAbsoluteDeviation() {
+        var population = population(List.of(0f, 5f), List.of(5f, 0f), List.of(1f, 1f));
+        var counts = counts(LexicaseSelection.create(population, true), population);
+
+        assertThat(counts[2] > 0, is(true));
+    }
+
+    @Test
+    void needsErrorsOnTheSameCases() {
+        var population = population(List.of(0f, 5f), List.of(5f));
+
+        assertThat(LexicaseSelection.create(population, false), is(nullValue()));
+    }
+
+    @SafeVarargs
+    private static GAIndividual[] population(List<Float>... inErrors) {
+        var population = new GAIndividual[inErrors.length];
+
+        for (var n = 0; n < population.length; n++) {
+            population[n] = new PushGPIndividual();
+            population[n].setErrors(inErrors[n]);
+        }
+
+        return population;
+    }
+
+    private static int[] counts(LexicaseSelection inSelection, GAIndividual[] inPopulation) {
+        var random = new Random(1);
+        var counts = new int[inPopulation.length];
+
+        for (var n = 0; n < 1000; n++) {
+            var selected = inSelection.select(random);
+
+            for (var i = 0; i < inPopulation.length; i++) {
+                if (inPopulation[i] == selected)
+                    counts[i]++;
+            }
+        }
+
+        return counts;
+    }
+}
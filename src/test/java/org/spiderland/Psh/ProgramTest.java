@@ -7,7 +7,11 @@ import java.nio.file.Files;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.core.Is.is;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class ProgramTest {
 
@@ -54,6 +58,39 @@ public class ProgramTest {
         assertEquals(q, p);
     }
 
+    @Test
+    public void testCopySharesUneditedSubtrees() {
+        Program p = new Program("( 2.0 ( TEST 2 ( 3 ) ) ( 4 ) )");
+        Program q = new Program(p);
+
+        q.replaceSubtree(7, 5);
+        q.flatten(2);
+
+        assertEquals(new Program("( 2.0 ( TEST 2 ( 3 ) ) ( 4 ) )"), p);
+        assertEquals(new Program("( 2.0 ( TEST 2 ( 3 ) ) 5 )"), q);
+        assertSame(p.peek(1), q.peek(1));
+    }
+
+    @Test
+    public void testLeafAndInternalPoints() {
+        Program p = new Program("( 1 ( 2 ( ) 3 ) x ( ( y ) ) )");
+
+        assertEquals(9, p.programSize());
+        assertEquals(5, p.leafCount());
+        assertEquals(new Program("( y )"), p.subtree(p.internalIndex(3)));
+
+        for (int n = 0; n < p.leafCount(); n++)
+            assertFalse(p.subtree(p.leafIndex(n)) instanceof Program);
+
+        for (int n = 0; n < p.programSize() - p.leafCount(); n++)
+            assertTrue(p.subtree(p.internalIndex(n)) instanceof Program);
+
+        assertEquals(new Program("( 2 ( ) 3 )"), p.subtree(1));
+        assertEquals(new Program("( )"), p.subtree(5));
+        assertEquals("y", p.subtree(8));
+        assertNull(p.subtree(9));
+    }
+
     @Test
     public void shouldReadProgramWithComments() throws Exception {
         var programWithComments = Files.readString(TestUtil.getFileFromResource("ProgramWithComments.push").toPath());
@@ -0,0 +1,70 @@
+package org.spiderland.Psh;
+
+import org.junit.jupiter.api.Test;
+import org.spiderland.Psh.ProbClass.CartCentering;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RacingEvaluatorTest {
+
+    @Test
+    void scoresOnlyTheSurvivorsOfEachRoundOnMoreCases() throws Exception {
+        var params = Params.readFromFile(TestUtil.getFileFromResource("CartCenter.pushgp"));
+        params.remove("checkpoint-prefix");
+        params.put("problem-class", CountingCartCentering.class.getName());
+        params.put("racing-cases", "4");
+        params.put("racing-survival", "0.5");
+        var geneticAlgorithm = (CountingCartCentering) GeneticAlgorithm.gaWithParameters(params);
+        geneticAlgorithm.outputStream = null;
+
+        geneticAlgorithm.beginGeneration();
+        geneticAlgorithm.evaluate();
+
+        // 40 individuals on 4 cases, 20 on 4 more, 10 on 8 more and 5 on the last 4
+        assertThat(geneticAlgorithm.calls.get(), is(340L));
+
+        var population = geneticAlgorithm.populations[geneticAlgorithm.currentPopulation];
+        assertThat(Arrays.stream(population).filter(i -> i.getFitnessCases() == 20).count(), is(5L));
+
+        var best = population[geneticAlgorithm.bestIndividual];
+        assertThat(best.getFitnessCases(), is(20));
+        assertThat(geneticAlgorithm.bestErrors.size(), is(20));
+
+        var full = best.clone();
+        geneticAlgorithm.evaluateIndividual(full);
+        assertThat(full.getFitness(), is(best.getFitness()));
+        assertThat(full.getErrors(), is(best.getErrors()));
+
+        // An individual evaluated outside the race still outranks those eliminated
+        assertThat(full.getFitnessCases(), is(20));
+        assertThat(Arrays.stream(population).anyMatch(i -> i.getFitnessCases() < 20 && i.isFitterThan(full)),
+                is(false));
+    }
+
+    @Test
+    void needsTournamentSelection() throws Exception {
+        var params = Params.readFromFile(TestUtil.getFileFromResource("CartCenter.pushgp"));
+        params.remove("checkpoint-prefix");
+        params.put("racing-cases", "4");
+        params.put("selection-mode", "lexicase");
+
+        assertThrows(Exception.class, () -> GeneticAlgorithm.gaWithParameters(params));
+    }
+
+    public static class CountingCartCentering extends CartCentering {
+        private static final long serialVersionUID = 1L;
+
+        final AtomicLong calls = new AtomicLong();
+
+        @Override
+        public float evaluateTestCase(GAIndividual inIndividual, Object inInput, Object inOutput) {
+            calls.incrementAndGet();
+            return super.evaluateTestCase(inIndividual, inInput, inOutput);
+        }
+    }
+}
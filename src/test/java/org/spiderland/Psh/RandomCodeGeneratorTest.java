@@ -0,0 +1,45 @@
+package org.spiderland.Psh;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+class RandomCodeGeneratorTest {
+
+    @Test
+    void generatesProgramsOfRequestedSize() {
+        var interpreter = new Interpreter();
+        interpreter.random = new Random(1);
+        interpreter.setRandomParameters(-10, 10, 1, -10.0f, 10.0f, 0.1f, 100, 100);
+        interpreter.setInstructions(new Program("( float.erc integer.erc integer.+ float.dup exec.if )"));
+
+        for (int size = 1; size < 200; size++) {
+            var program = interpreter.randomCode(size);
+
+            assertThat(program.programSize(), is(Math.max(0, size - 1)));
+            assertThat(new Program(program.toString()), is(program));
+        }
+    }
+
+    @Test
+    void bulkGenerationMatchesSingleGeneration() {
+        var single = new Interpreter();
+        var bulk = new Interpreter();
+        var instructions = new Program("( float.erc integer.erc integer.+ float.dup exec.if )");
+        var sizes = new int[]{2, 50, 1, 17, 120, 3};
+
+        for (var interpreter : new Interpreter[]{single, bulk}) {
+            interpreter.random = new Random(7);
+            interpreter.setRandomParameters(-10, 10, 1, -10.0f, 10.0f, 0.1f, 100, 100);
+            interpreter.setInstructions(instructions);
+        }
+
+        var programs = bulk.randomCode(sizes);
+
+        for (int n = 0; n < sizes.length; n++)
+            assertThat(programs[n], is(single.randomCode(sizes[n])));
+    }
+}
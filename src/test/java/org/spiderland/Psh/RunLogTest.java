@@ -0,0 +1,70 @@
+package org.spiderland.Psh;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RunLogTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void splitsTheLogIntoFilesOfTheGivenSize() throws Exception {
+        var path = directory.resolve("run.log").toString();
+        var log = new RunLog(path, 10);
+
+        for (var entry : new String[]{"first\n", "second\n", "third\n"})
+            log.append(entry);
+        log.flush();
+        log.close();
+
+        assertThat(read(path), is("first\n"));
+        assertThat(read(path + ".1"), is("second\n"));
+        assertThat(read(path + ".2"), is("third\n"));
+        assertThat(new File(path + ".3").exists(), is(false));
+    }
+
+    @Test
+    void appendsToTheLastFileWhenReopened() throws Exception {
+        var path = directory.resolve("run.log").toString();
+        var log = new RunLog(path, 12);
+        log.append("first\n");
+        log.append("second\n");
+        log.close();
+
+        var reopened = new RunLog(path, 12);
+        reopened.append("3rd\n");
+        reopened.close();
+
+        assertThat(read(path), is("first\n"));
+        assertThat(read(path + ".1"), is("second\n3rd\n"));
+    }
+
+    @Test
+    void writesEverythingAppendedWhenClosed() throws Exception {
+        var path = directory.resolve("run.log").toString();
+        var log = new RunLog(path, 100);
+        log.append("first\n");
+        log.append("second\n");
+        log.close();
+
+        assertThat(read(path), is("first\nsecond\n"));
+        assertThrows(IOException.class, () -> log.append("third\n"));
+
+        log.flush();
+        log.close();
+    }
+
+    private static String read(String inPath) throws Exception {
+        return Files.readString(Path.of(inPath));
+    }
+}